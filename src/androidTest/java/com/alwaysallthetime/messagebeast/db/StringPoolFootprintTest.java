@@ -0,0 +1,119 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.alwaysallthetime.adnlib.data.Message;
+import com.alwaysallthetime.adnlib.gson.AppDotNetGson;
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TreeMap;
+
+/**
+ * Reports the Dalvik heap retained by 50,000 decoded Messages, with and without the StringPool.
+ * The numbers are written to the log; run it on a device and read them from logcat.
+ */
+public class StringPoolFootprintTest extends AndroidTestCase {
+
+    private static final String TAG = "MessageBeast_StringPoolFootprintTest";
+
+    private static final String CHANNEL_ID = "string_pool_footprint_test";
+    private static final int NUM_MESSAGES = 50000;
+    private static final int PAGE_SIZE = 1000;
+    private static final int NUM_ITERATIONS = 5;
+
+    private ADNDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDatabase = ADNDatabase.getInstance(getContext());
+        mDatabase.deleteMessages(CHANNEL_ID);
+        mDatabase.setMessageCacheSize(0);
+
+        Gson gson = AppDotNetGson.getPersistenceInstance();
+        long now = System.currentTimeMillis();
+        mDatabase.beginTransaction();
+        try {
+            for(int i = 0; i < NUM_MESSAGES; i++) {
+                String json = "{\"id\":\"" + (900000000 + i) + "\",\"channel_id\":\"" + CHANNEL_ID + "\",\"text\":\"message " + i + "\"," +
+                        "\"annotations\":[{\"type\":\"net.app.core.oembed\",\"value\":{\"type\":\"photo\"}}," +
+                        "{\"type\":\"com.alwaysallthetime.action.target_message\",\"value\":{\"id\":\"" + i + "\"}}]}";
+                MessagePlus messagePlus = new MessagePlus(gson.fromJson(json, Message.class));
+                messagePlus.setDisplayDate(new Date(now - i));
+                mDatabase.insertOrReplaceMessage(messagePlus);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.setStringPoolingEnabled(true);
+        mDatabase.setMessageCacheSize(MessageCache.DEFAULT_MAX_SIZE);
+        mDatabase.deleteMessages(CHANNEL_ID);
+        super.tearDown();
+    }
+
+    public void testReportRetainedHeap() {
+        long[] unpooled = new long[NUM_ITERATIONS];
+        long[] pooled = new long[NUM_ITERATIONS];
+
+        //alternate so that heap growth over the run doesn't favor either mode.
+        for(int i = 0; i < NUM_ITERATIONS; i++) {
+            mDatabase.setStringPoolingEnabled(false);
+            unpooled[i] = measureRetainedKilobytes();
+            mDatabase.setStringPoolingEnabled(true);
+            pooled[i] = measureRetainedKilobytes();
+            Log.i(TAG, "iteration " + i + ": " + unpooled[i] + " KB unpooled, " + pooled[i] + " KB pooled");
+        }
+
+        //this reports numbers rather than asserting on them; a single gc-dependent delta is too
+        //noisy to pass or fail on.
+        Arrays.sort(unpooled);
+        Arrays.sort(pooled);
+        Log.i(TAG, NUM_MESSAGES + " decoded Messages retain a median of " + unpooled[NUM_ITERATIONS / 2] + " KB unpooled (min " + unpooled[0] +
+                ", max " + unpooled[NUM_ITERATIONS - 1] + "), " + pooled[NUM_ITERATIONS / 2] + " KB pooled (min " + pooled[0] +
+                ", max " + pooled[NUM_ITERATIONS - 1] + ")");
+    }
+
+    private long measureRetainedKilobytes() {
+        long before = getDalvikPrivateDirtyKilobytes();
+        ArrayList<TreeMap<Long, MessagePlus>> pages = new ArrayList<TreeMap<Long, MessagePlus>>();
+        Date beforeDate = null;
+        int numMessages = 0;
+        while(numMessages < NUM_MESSAGES) {
+            OrderedMessageBatch batch = mDatabase.getMessages(CHANNEL_ID, beforeDate, PAGE_SIZE);
+            TreeMap<Long, MessagePlus> messages = batch.getMessages();
+            if(messages.size() == 0) {
+                break;
+            }
+            pages.add(messages);
+            numMessages += messages.size();
+            beforeDate = new Date(batch.getMinMaxPair().minDate);
+        }
+        assertEquals(NUM_MESSAGES, numMessages);
+
+        long retained = getDalvikPrivateDirtyKilobytes() - before;
+        //keep the pages reachable until they have been measured.
+        assertEquals(NUM_MESSAGES / PAGE_SIZE, pages.size());
+        return retained;
+    }
+
+    private static long getDalvikPrivateDirtyKilobytes() {
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        Debug.MemoryInfo memoryInfo = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(memoryInfo);
+        return memoryInfo.dalvikPrivateDirty;
+    }
+}
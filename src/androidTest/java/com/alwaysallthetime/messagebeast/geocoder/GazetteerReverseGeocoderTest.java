@@ -0,0 +1,88 @@
+package com.alwaysallthetime.messagebeast.geocoder;
+
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class GazetteerReverseGeocoderTest extends TestCase {
+
+    private File mGazetteerFile;
+    private GazetteerReverseGeocoder mGeocoder;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ArrayList<Geolocation> localities = new ArrayList<Geolocation>();
+        localities.add(new Geolocation("San Francisco", "Mission District", 37.7599, -122.4148));
+        localities.add(new Geolocation("Oakland", null, 37.8044, -122.2712));
+        localities.add(new Geolocation("Suva", null, -18.1416, 178.4419));
+        localities.add(new Geolocation("Taveuni", null, -16.8333, -179.9667));
+
+        mGazetteerFile = File.createTempFile("gazetteer", ".gzt");
+        GazetteerReverseGeocoder.writeGazetteer(localities, GazetteerReverseGeocoder.DEFAULT_CELL_SIZE_DEGREES, mGazetteerFile);
+        mGeocoder = new GazetteerReverseGeocoder(mGazetteerFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGazetteerFile.delete();
+        super.tearDown();
+    }
+
+    public void testNearestLocality() {
+        Geolocation geolocation = mGeocoder.getGeolocation(37.7612, -122.4199);
+        assertNotNull(geolocation);
+        assertEquals("San Francisco", geolocation.getLocality());
+        assertEquals("Mission District", geolocation.getSubLocality());
+        assertEquals(37.7612, geolocation.getLatitude());
+        assertEquals(-122.4199, geolocation.getLongitude());
+
+        geolocation = mGeocoder.getGeolocation(37.8100, -122.2650);
+        assertNotNull(geolocation);
+        assertEquals("Oakland", geolocation.getLocality());
+        assertNull(geolocation.getSubLocality());
+    }
+
+    public void testAcrossAntimeridian() {
+        Geolocation geolocation = mGeocoder.getGeolocation(-16.8300, 179.9900);
+        assertNotNull(geolocation);
+        assertEquals("Taveuni", geolocation.getLocality());
+    }
+
+    public void testNothingWithinMaxDistance() {
+        assertNull(mGeocoder.getGeolocation(0, 0));
+        assertNull(mGeocoder.getGeolocation(38.5816, -121.4944));
+    }
+
+    public void testAnswersSynchronously() {
+        final Geolocation[] result = new Geolocation[1];
+        mGeocoder.getGeolocation(37.7612, -122.4199, new ReverseGeocoder.ReverseGeocoderResponseHandler() {
+            @Override
+            public void onSuccess(Geolocation geolocation) {
+                result[0] = geolocation;
+            }
+
+            @Override
+            public void onException(Exception exception) {
+                fail(exception.getMessage());
+            }
+        });
+        assertNotNull(result[0]);
+    }
+
+    public void testRejectsOtherFiles() throws IOException {
+        File file = File.createTempFile("notagazetteer", ".gzt");
+        try {
+            new GazetteerReverseGeocoder(file);
+            fail("expected an IOException");
+        } catch(IOException e) {
+            //expected.
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import com.alwaysallthetime.adnlib.data.Message;
+import com.alwaysallthetime.messagebeast.geocoder.ReverseGeocoder;
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class ReverseGeocodingQueueTest extends TestCase {
+
+    /**
+     * Answers synchronously with a Geolocation named after the coordinates, or null for (0, 0).
+     */
+    private static class SynchronousGeocoder implements ReverseGeocoder {
+        int numLookups;
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void getGeolocation(double latitude, double longitude, ReverseGeocoderResponseHandler handler) {
+            numLookups++;
+            if(latitude == 0 && longitude == 0) {
+                handler.onSuccess(null);
+            } else {
+                handler.onSuccess(new Geolocation(latitude + "," + longitude, null, latitude, longitude));
+            }
+        }
+    }
+
+    /**
+     * Holds on to each handler until the test answers it.
+     */
+    private static class DeferredGeocoder implements ReverseGeocoder {
+        ArrayList<ReverseGeocoderResponseHandler> handlers = new ArrayList<ReverseGeocoderResponseHandler>();
+        ArrayList<double[]> coordinates = new ArrayList<double[]>();
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void getGeolocation(double latitude, double longitude, ReverseGeocoderResponseHandler handler) {
+            handlers.add(handler);
+            coordinates.add(new double[] { latitude, longitude });
+        }
+
+        void answer(int index) {
+            double[] c = coordinates.get(index);
+            handlers.get(index).onSuccess(new Geolocation(c[0] + "," + c[1], null, c[0], c[1]));
+        }
+    }
+
+    private static class RecordingStore implements ReverseGeocodingQueue.GeolocationStore {
+        ArrayList<List<Geolocation>> writes = new ArrayList<List<Geolocation>>();
+
+        @Override
+        public String getGeolocationKey(double latitude, double longitude) {
+            return String.format("%.3f,%.3f", latitude, longitude);
+        }
+
+        @Override
+        public void insertOrReplaceGeolocations(Collection<Geolocation> geolocations) {
+            writes.add(new ArrayList<Geolocation>(geolocations));
+        }
+    }
+
+    private static class RecordingListener implements ReverseGeocodingQueue.ReverseGeocodingListener {
+        ArrayList<List<Geolocation>> deliveries = new ArrayList<List<Geolocation>>();
+        ArrayList<MessagePlus> located = new ArrayList<MessagePlus>();
+
+        @Override
+        public void onReverseGeocoded(List<Geolocation> geolocations, List<List<MessagePlus>> messagePlusses) {
+            deliveries.add(geolocations);
+            for(int i = 0; i < geolocations.size(); i++) {
+                if(geolocations.get(i) != null) {
+                    located.addAll(messagePlusses.get(i));
+                }
+            }
+        }
+
+        @Override
+        public void onReverseGeocodeException(Exception exception, List<MessagePlus> messagePlusses) {
+            fail(exception.getMessage());
+        }
+    }
+
+    private RecordingStore mStore;
+    private RecordingListener mListener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStore = new RecordingStore();
+        mListener = new RecordingListener();
+    }
+
+    private static List<MessagePlus> newMessagePlusses(int count) {
+        ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>(count);
+        for(int i = 0; i < count; i++) {
+            messagePlusses.add(new MessagePlus(new Message(false)));
+        }
+        return messagePlusses;
+    }
+
+    public void testSynchronousResultsAreBatched() {
+        SynchronousGeocoder geocoder = new SynchronousGeocoder();
+        ReverseGeocodingQueue queue = new ReverseGeocodingQueue(geocoder, mStore, mListener);
+
+        List<MessagePlus> messagePlusses = newMessagePlusses(5);
+        double[] latitudes = new double[] { 10, 20, 30, 40, 50 };
+        double[] longitudes = new double[] { 10, 20, 30, 40, 50 };
+        queue.reverseGeocode(messagePlusses, latitudes, longitudes);
+
+        assertEquals(5, geocoder.numLookups);
+        assertEquals(1, mStore.writes.size());
+        assertEquals(5, mStore.writes.get(0).size());
+        assertEquals(1, mListener.deliveries.size());
+        assertEquals(messagePlusses, mListener.located);
+    }
+
+    public void testRequestsAreCoalescedByKey() {
+        SynchronousGeocoder geocoder = new SynchronousGeocoder();
+        ReverseGeocodingQueue queue = new ReverseGeocodingQueue(geocoder, mStore, mListener);
+
+        List<MessagePlus> messagePlusses = newMessagePlusses(3);
+        double[] latitudes = new double[] { 37.77491, 37.77492, 37.77493 };
+        double[] longitudes = new double[] { -122.41941, -122.41942, -122.41943 };
+        queue.reverseGeocode(messagePlusses, latitudes, longitudes);
+
+        assertEquals(1, geocoder.numLookups);
+        assertEquals(1, mStore.writes.size());
+        assertEquals(1, mStore.writes.get(0).size());
+        assertEquals(3, mListener.located.size());
+    }
+
+    public void testCachedResultsAreNotLookedUpAgain() {
+        SynchronousGeocoder geocoder = new SynchronousGeocoder();
+        ReverseGeocodingQueue queue = new ReverseGeocodingQueue(geocoder, mStore, mListener);
+
+        double[] latitudes = new double[] { 10, 0 };
+        double[] longitudes = new double[] { 10, 0 };
+        queue.reverseGeocode(newMessagePlusses(2), latitudes, longitudes);
+        assertEquals(2, geocoder.numLookups);
+
+        //the positive result comes from the cache, the negative one isn't requested at all.
+        queue.reverseGeocode(newMessagePlusses(2), latitudes, longitudes);
+        assertEquals(2, geocoder.numLookups);
+        assertEquals(1, mStore.writes.size());
+        assertEquals(2, mListener.located.size());
+
+        queue.clearCache();
+        queue.reverseGeocode(newMessagePlusses(2), latitudes, longitudes);
+        assertEquals(4, geocoder.numLookups);
+    }
+
+    public void testConcurrentRequestsAreBounded() {
+        DeferredGeocoder geocoder = new DeferredGeocoder();
+        ReverseGeocodingQueue queue = new ReverseGeocodingQueue(geocoder, mStore, mListener);
+
+        int numRequests = ReverseGeocodingQueue.MAX_CONCURRENT_REQUESTS + 2;
+        double[] latitudes = new double[numRequests];
+        double[] longitudes = new double[numRequests];
+        for(int i = 0; i < numRequests; i++) {
+            latitudes[i] = i + 1;
+            longitudes[i] = i + 1;
+        }
+        queue.reverseGeocode(newMessagePlusses(numRequests), latitudes, longitudes);
+        assertEquals(ReverseGeocodingQueue.MAX_CONCURRENT_REQUESTS, geocoder.handlers.size());
+
+        //a result that arrives later is delivered on its own, and frees a slot for the next key.
+        geocoder.answer(0);
+        assertEquals(1, mStore.writes.size());
+        assertEquals(Arrays.asList(mStore.writes.get(0).get(0)), mListener.deliveries.get(0));
+        assertEquals(ReverseGeocodingQueue.MAX_CONCURRENT_REQUESTS + 1, geocoder.handlers.size());
+    }
+}
@@ -21,7 +21,11 @@ public class ADNSharedPreferences {
     private static final String USER_OBJECT = "user";
     private static final String CHANNEL_OBJECT = "channel";
     private static final String ACTION_CHANNEL_OBJECT = "actionChannel";
+    private static final String CHANNEL_SAVE_DATE = "channelDate";
+    private static final String ACTION_CHANNEL_SAVE_DATE = "actionChannelDate";
     private static final String FULL_SYNC_STATE = "fullSyncState";
+    private static final String FULL_SYNC_CHECKPOINT_BEFORE_ID = "fullSyncCheckpointBeforeId";
+    private static final String FULL_SYNC_CHECKPOINT_SINCE_ID = "fullSyncCheckpointSinceId";
 
     private static SharedPreferences sPrefs;
     private static Gson gson;
@@ -41,6 +45,28 @@ public class ADNSharedPreferences {
         edit.commit();
     }
 
+    public static String getFullSyncCheckpointBeforeId(String channelId) {
+        return sPrefs.getString(FULL_SYNC_CHECKPOINT_BEFORE_ID + "_" + channelId, null);
+    }
+
+    public static String getFullSyncCheckpointSinceId(String channelId) {
+        return sPrefs.getString(FULL_SYNC_CHECKPOINT_SINCE_ID + "_" + channelId, null);
+    }
+
+    public static void setFullSyncCheckpoint(String channelId, String beforeId, String sinceId) {
+        SharedPreferences.Editor edit = sPrefs.edit();
+        edit.putString(FULL_SYNC_CHECKPOINT_BEFORE_ID + "_" + channelId, beforeId);
+        edit.putString(FULL_SYNC_CHECKPOINT_SINCE_ID + "_" + channelId, sinceId);
+        edit.commit();
+    }
+
+    public static void deleteFullSyncCheckpoint(String channelId) {
+        SharedPreferences.Editor edit = sPrefs.edit();
+        edit.remove(FULL_SYNC_CHECKPOINT_BEFORE_ID + "_" + channelId);
+        edit.remove(FULL_SYNC_CHECKPOINT_SINCE_ID + "_" + channelId);
+        edit.commit();
+    }
+
     public static boolean isLoggedIn() {
         return getAccessToken() != null;
     }
@@ -130,16 +156,31 @@ public class ADNSharedPreferences {
         return null;
     }
 
+    /**
+     * @param channelType the Channel type
+     * @return the date at which the private Channel of the provided type was last saved, or null
+     * if it has not been saved since save dates were introduced.
+     */
+    public static Date getPrivateChannelSaveDate(String channelType) {
+        final long saveTime = sPrefs.getLong(CHANNEL_SAVE_DATE + "_" + channelType, 0);
+        if(saveTime != 0) {
+            return new Date(saveTime);
+        }
+        return null;
+    }
+
     public static void savePrivateChannel(Channel channel) {
         final SharedPreferences.Editor editor = sPrefs.edit();
         final String json = gson.toJson(channel);
         editor.putString(CHANNEL_OBJECT + "_" + channel.getType(), json);
+        editor.putLong(CHANNEL_SAVE_DATE + "_" + channel.getType(), new Date().getTime());
         editor.commit();
     }
 
     public static void deletePrivateChannel(Channel channel) {
         final SharedPreferences.Editor editor = sPrefs.edit();
         editor.remove(CHANNEL_OBJECT + "_" + channel.getType());
+        editor.remove(CHANNEL_SAVE_DATE + "_" + channel.getType());
         editor.commit();
     }
 
@@ -151,16 +192,32 @@ public class ADNSharedPreferences {
         return null;
     }
 
+    /**
+     * @param actionType the action type of the Action Channel
+     * @param targetChannelId the id of the Action Channel's target Channel
+     * @return the date at which the Action Channel was last saved, or null if it has not been
+     * saved since save dates were introduced.
+     */
+    public static Date getActionChannelSaveDate(String actionType, String targetChannelId) {
+        final long saveTime = sPrefs.getLong(ACTION_CHANNEL_SAVE_DATE + "_" + actionType + "_" + targetChannelId, 0);
+        if(saveTime != 0) {
+            return new Date(saveTime);
+        }
+        return null;
+    }
+
     public static void saveActionChannel(Channel actionChannel, String actionType, String targetChannelId) {
         final SharedPreferences.Editor editor = sPrefs.edit();
         final String json = gson.toJson(actionChannel);
         editor.putString(ACTION_CHANNEL_OBJECT + "_" + actionType + "_" + targetChannelId, json);
+        editor.putLong(ACTION_CHANNEL_SAVE_DATE + "_" + actionType + "_" + targetChannelId, new Date().getTime());
         editor.commit();
     }
 
     public static void deleteActionChannel(String actionType, String targetChannelId) {
         final SharedPreferences.Editor editor = sPrefs.edit();
         editor.remove(ACTION_CHANNEL_OBJECT + "_" + actionType + "_" + targetChannelId);
+        editor.remove(ACTION_CHANNEL_SAVE_DATE + "_" + actionType + "_" + targetChannelId);
         editor.commit();
     }
 
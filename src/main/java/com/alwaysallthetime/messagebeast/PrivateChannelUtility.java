@@ -14,6 +14,7 @@ import com.alwaysallthetime.adnlib.response.ChannelResponseHandler;
 import com.alwaysallthetime.messagebeast.model.FullSyncState;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
@@ -44,8 +45,18 @@ public class PrivateChannelUtility {
     public static final String MESSAGE_ANNOTATION_TARGET_MESSAGE = "com.alwaysallthetime.action.target_message";
     public static final String TARGET_MESSAGE_KEY_ID = "id";
 
+    /**
+     * The default amount of time, in milliseconds, for which a saved Channel is used without
+     * being validated against the server.
+     */
+    public static final long DEFAULT_CHANNEL_VALIDATION_INTERVAL = 24 * 60 * 60 * 1000L;
+
     private static HashMap<String, Channel> sChannels = new HashMap<String, Channel>();
     private static HashMap<String, HashMap<String, Channel>> sActionChannels = new HashMap<String, HashMap<String, Channel>>();
+    private static long sChannelValidationInterval = DEFAULT_CHANNEL_VALIDATION_INTERVAL;
+
+    //handlers waiting on the subscribed Action Channels request that is in flight, or null if none is.
+    private static ArrayList<ChannelListHandler> sActionChannelListHandlers;
 
     public interface PrivateChannelHandler {
         public void onResponse(Channel channel);
@@ -57,6 +68,24 @@ public class PrivateChannelUtility {
         public void onError(Exception error);
     }
 
+    private interface ChannelListHandler {
+        public void onResponse(ChannelList channels);
+        public void onError(Exception error);
+    }
+
+    /**
+     * Set the amount of time for which a saved Channel is used by getOrCreateChannel() and
+     * getOrCreateActionChannel() without a server request. Once this has elapsed since a Channel
+     * was last saved, it is validated against the server again; if that request fails, the saved
+     * Channel is used anyway.
+     *
+     * @param validationInterval the validation interval, in milliseconds. The default is
+     *                           DEFAULT_CHANNEL_VALIDATION_INTERVAL.
+     */
+    public static void setChannelValidationInterval(long validationInterval) {
+        sChannelValidationInterval = validationInterval;
+    }
+
     /**
      * Clear Channels and Channel state from in-memory maps.
      */
@@ -79,8 +108,8 @@ public class PrivateChannelUtility {
      * @see <a href="https://github.com/appdotnet/object-metadata/blob/master/channel-types/net.app.ohai.journal.md#finding-the-journal">https://github.com/appdotnet/object-metadata/blob/master/channel-types/net.app.ohai.journal.md#finding-the-journal</a>
      */
     public static void getOrCreateChannel(final AppDotNetClient client, final String channelType, final PrivateChannelGetOrCreateHandler handler) {
-        Channel channel = getChannel(channelType);
-        if(channel == null) {
+        final Channel savedChannel = getChannel(channelType);
+        if(savedChannel == null || !isValidated(ADNSharedPreferences.getPrivateChannelSaveDate(channelType))) {
             retrieveChannel(client, channelType, new PrivateChannelHandler() {
                 @Override
                 public void onResponse(Channel channel) {
@@ -105,11 +134,16 @@ public class PrivateChannelUtility {
                 @Override
                 public void onError(Exception error) {
                     Log.e(TAG, error.getMessage(), error);
-                    handler.onError(error);
+                    if(savedChannel != null) {
+                        //it could not be validated, but it's the best we have.
+                        handler.onResponse(savedChannel, false);
+                    } else {
+                        handler.onError(error);
+                    }
                 }
             });
         } else {
-            handler.onResponse(channel, false);
+            handler.onResponse(savedChannel, false);
         }
     }
 
@@ -136,8 +170,8 @@ public class PrivateChannelUtility {
      * @see com.alwaysallthetime.messagebeast.manager.ActionMessageManager
      */
     public static void getOrCreateActionChannel(final AppDotNetClient client, final String actionType, final Channel targetChannel, final PrivateChannelGetOrCreateHandler handler) {
-        Channel actionChannel = getActionChannel(actionType, targetChannel.getId());
-        if(actionChannel == null) {
+        final Channel savedActionChannel = getActionChannel(actionType, targetChannel.getId());
+        if(savedActionChannel == null || !isValidated(ADNSharedPreferences.getActionChannelSaveDate(actionType, targetChannel.getId()))) {
             retrieveActionChannel(client, actionType, targetChannel.getId(), new PrivateChannelHandler() {
                 @Override
                 public void onResponse(Channel channel) {
@@ -162,11 +196,16 @@ public class PrivateChannelUtility {
                 @Override
                 public void onError(Exception error) {
                     Log.e(TAG, error.getMessage(), error);
-                    handler.onError(error);
+                    if(savedActionChannel != null) {
+                        //it could not be validated, but it's the best we have.
+                        handler.onResponse(savedActionChannel, false);
+                    } else {
+                        handler.onError(error);
+                    }
                 }
             });
         } else {
-            handler.onResponse(actionChannel, false);
+            handler.onResponse(savedActionChannel, false);
         }
     }
 
@@ -202,6 +241,10 @@ public class PrivateChannelUtility {
         });
     }
 
+    private static boolean isValidated(Date saveDate) {
+        return saveDate != null && System.currentTimeMillis() - saveDate.getTime() < sChannelValidationInterval;
+    }
+
     private static Channel getChannel(String channelType) {
         Channel c = sChannels.get(channelType);
         if(c == null) {
@@ -243,11 +286,9 @@ public class PrivateChannelUtility {
     }
 
     private static void retrieveActionChannel(AppDotNetClient client, final String actionType, final String targetChannelId, final PrivateChannelHandler handler) {
-        QueryParameters params = new QueryParameters(GeneralParameter.INCLUDE_CHANNEL_ANNOTATIONS);
-        params.put("channel_types", CHANNEL_TYPE_ACTION);
-        client.retrieveCurrentUserSubscribedChannels(params, new ChannelListResponseHandler() {
+        retrieveActionChannels(client, new ChannelListHandler() {
             @Override
-            public void onSuccess(ChannelList responseData) {
+            public void onResponse(ChannelList responseData) {
                 Channel theChannel = getOldestActionChannel(responseData, actionType, targetChannelId);
 
                 if(theChannel != null) {
@@ -264,6 +305,46 @@ public class PrivateChannelUtility {
         });
     }
 
+    /**
+     * Retrieve the current user's subscribed Action Channels. Every Action Channel lookup uses
+     * the same request, so lookups made while one is in flight share its response rather than
+     * making their own.
+     */
+    private static void retrieveActionChannels(AppDotNetClient client, ChannelListHandler handler) {
+        synchronized(PrivateChannelUtility.class) {
+            if(sActionChannelListHandlers != null) {
+                sActionChannelListHandlers.add(handler);
+                return;
+            }
+            sActionChannelListHandlers = new ArrayList<ChannelListHandler>(1);
+            sActionChannelListHandlers.add(handler);
+        }
+
+        QueryParameters params = new QueryParameters(GeneralParameter.INCLUDE_CHANNEL_ANNOTATIONS);
+        params.put("channel_types", CHANNEL_TYPE_ACTION);
+        client.retrieveCurrentUserSubscribedChannels(params, new ChannelListResponseHandler() {
+            @Override
+            public void onSuccess(ChannelList responseData) {
+                for(ChannelListHandler handler : takeActionChannelListHandlers()) {
+                    handler.onResponse(responseData);
+                }
+            }
+
+            @Override
+            public void onError(Exception error) {
+                for(ChannelListHandler handler : takeActionChannelListHandlers()) {
+                    handler.onError(error);
+                }
+            }
+        });
+    }
+
+    private static synchronized List<ChannelListHandler> takeActionChannelListHandlers() {
+        List<ChannelListHandler> handlers = sActionChannelListHandlers;
+        sActionChannelListHandlers = null;
+        return handlers;
+    }
+
     private static void createChannel(final AppDotNetClient client, final String channelType, final PrivateChannelHandler handler) {
         createChannel(client, channelType, new ArrayList<Annotation>(0), new PrivateChannelHandler() {
             @Override
@@ -1,5 +1,6 @@
 package com.alwaysallthetime.messagebeast.db;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -12,7 +13,9 @@ import com.alwaysallthetime.adnlib.data.Annotation;
 import com.alwaysallthetime.adnlib.data.Entities;
 import com.alwaysallthetime.adnlib.data.Message;
 import com.alwaysallthetime.adnlib.data.Place;
+import com.alwaysallthetime.adnlib.data.User;
 import com.alwaysallthetime.adnlib.gson.AppDotNetGson;
+import com.alwaysallthetime.messagebeast.filter.PredicateMessageFilter;
 import com.alwaysallthetime.messagebeast.manager.MinMaxPair;
 import com.alwaysallthetime.messagebeast.manager.ReverseChronologicalComparator;
 import com.alwaysallthetime.messagebeast.model.CustomPlace;
@@ -20,26 +23,38 @@ import com.alwaysallthetime.messagebeast.model.DisplayLocation;
 import com.alwaysallthetime.messagebeast.model.Geolocation;
 import com.alwaysallthetime.messagebeast.model.MessagePlus;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
 import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Inflater;
 
 public class ADNDatabase {
 
     private static final String TAG = "MessageBeast_ADNDatabase";
     private static final String DB_NAME = "aadndatabase.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 8;
 
     public static final String TABLE_MESSAGES = "messages";
     public static final String COL_MESSAGE_ID = "message_id";
@@ -50,6 +65,12 @@ public class ADNDatabase {
     public static final String COL_MESSAGE_TEXT = "message_text";
     public static final String COL_MESSAGE_UNSENT = "message_unsent";
     public static final String COL_MESSAGE_SEND_ATTEMPTS = "message_send_attempts";
+    public static final String COL_MESSAGE_USER_ID = "message_user_id";
+    public static final String COL_MESSAGE_USER_VERSION = "message_user_version";
+    public static final String COL_MESSAGE_PAYLOAD = "message_payload";
+    public static final String COL_MESSAGE_PAYLOAD_DICTIONARY_ID = "message_payload_dictionary_id";
+    public static final String INDEX_MESSAGES_CHANNEL_DATE = "messages_channel_date_index";
+    public static final String INDEX_MESSAGES_USER = "messages_user_index";
 
     public static final String TABLE_MESSAGE_DRAFTS = "message_drafts";
     public static final String COL_MESSAGE_DRAFT_ID = "message_draft_id";
@@ -81,6 +102,7 @@ public class ADNDatabase {
     public static final String COL_LOCATION_INSTANCE_LATITUDE = "location_latitude";
     public static final String COL_LOCATION_INSTANCE_LONGITUDE = "location_longitude";
     public static final String COL_LOCATION_INSTANCE_DATE = "location_date";
+    public static final String INDEX_LOCATION_INSTANCES_NAME = "locations_name_index";
 
     public static final String TABLE_LOCATION_INSTANCES_SEARCH = "locations_search";
 
@@ -99,6 +121,15 @@ public class ADNDatabase {
     public static final String COL_ANNOTATION_INSTANCE_COUNT = "annotation_instance_count";
     public static final String COL_ANNOTATION_INSTANCE_DATE = "annotation_instance_date";
 
+    public static final String TABLE_ANNOTATION_VALUES = "annotation_values";
+    public static final String COL_ANNOTATION_VALUE_TYPE = "annotation_value_type";
+    public static final String COL_ANNOTATION_VALUE_PATH = "annotation_value_path";
+    public static final String COL_ANNOTATION_VALUE_VALUE = "annotation_value_value";
+    public static final String COL_ANNOTATION_VALUE_MESSAGE_ID = "annotation_value_message_id";
+    public static final String COL_ANNOTATION_VALUE_CHANNEL_ID = "annotation_value_channel_id";
+    public static final String COL_ANNOTATION_VALUE_DATE = "annotation_value_date";
+    public static final String INDEX_ANNOTATION_VALUES_LOOKUP = "annotation_values_lookup_index";
+
     public static final String TABLE_PENDING_FILES = "pending_files";
     public static final String COL_PENDING_FILE_ID = "pending_file_id";
     public static final String COL_PENDING_FILE_URI = "pending_file_uri";
@@ -128,6 +159,30 @@ public class ADNDatabase {
     public static final String COL_ACTION_MESSAGE_TARGET_MESSAGE_ID = "action_target_message_id";
     public static final String COL_ACTION_MESSAGE_TARGET_CHANNEL_ID = "action_target_channel_id";
     public static final String COL_ACTION_MESSAGE_TARGET_MESSAGE_DISPLAY_DATE = "action_target_message_display_date";
+    public static final String INDEX_ACTION_MESSAGES_TARGET_DATE = "action_messages_target_date_index";
+
+    public static final String TABLE_ACTION_MESSAGE_COUNTS = "action_message_counts";
+    public static final String COL_ACTION_MESSAGE_COUNT_CHANNEL_ID = "action_message_count_channel_id";
+    public static final String COL_ACTION_MESSAGE_COUNT_COUNT = "action_message_count_count";
+    public static final String TRIGGER_ACTION_MESSAGE_COUNT_REPLACE = "action_message_count_replace";
+    public static final String TRIGGER_ACTION_MESSAGE_COUNT_INSERT = "action_message_count_insert";
+    public static final String TRIGGER_ACTION_MESSAGE_COUNT_DELETE = "action_message_count_delete";
+
+    public static final String TABLE_USERS = "users";
+    public static final String COL_USER_ID = "user_id";
+    public static final String COL_USER_VERSION = "user_version";
+    public static final String COL_USER_JSON = "user_json";
+
+    public static final String TABLE_PAYLOAD_DICTIONARIES = "payload_dictionaries";
+    public static final String COL_PAYLOAD_DICTIONARY_ID = "payload_dictionary_id";
+    public static final String COL_PAYLOAD_DICTIONARY_BYTES = "payload_dictionary_bytes";
+
+    public static final String TABLE_OUTBOUND_WORK = "outbound_work";
+    public static final String COL_OUTBOUND_WORK_TYPE = "outbound_work_type";
+    public static final String COL_OUTBOUND_WORK_ITEM_ID = "outbound_work_item_id";
+    public static final String COL_OUTBOUND_WORK_CHANNEL_ID = "outbound_work_channel_id";
+    public static final String COL_OUTBOUND_WORK_ATTEMPTS = "outbound_work_attempts";
+    public static final String COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME = "outbound_work_next_attempt_time";
 
     /**
      * Precision values to be used when retrieving location instances.
@@ -159,9 +214,34 @@ public class ADNDatabase {
             COL_MESSAGE_JSON + ", " +
             COL_MESSAGE_TEXT + ", " +
             COL_MESSAGE_UNSENT + ", " +
-            COL_MESSAGE_SEND_ATTEMPTS +
+            COL_MESSAGE_SEND_ATTEMPTS + ", " +
+            COL_MESSAGE_USER_ID + ", " +
+            COL_MESSAGE_USER_VERSION + ", " +
+            COL_MESSAGE_PAYLOAD + ", " +
+            COL_MESSAGE_PAYLOAD_DICTIONARY_ID +
             ") " +
-            "VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+            "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_OR_IGNORE_USER = "INSERT OR IGNORE INTO " + TABLE_USERS +
+            " (" +
+            COL_USER_ID + ", " +
+            COL_USER_VERSION + ", " +
+            COL_USER_JSON +
+            ") " +
+            "VALUES(?, ?, ?)";
+
+    //the number of distinct decoded User versions kept for sharing among decoded Messages.
+    private static final int MAX_SHARED_USERS = 256;
+
+    //User fields that change without the User changing (counts, and relationships to the
+    //current user). they are left out of the version so that they don't create a new version
+    //per Message; a version keeps the values of the first Message that stored it.
+    private static final String[] VOLATILE_USER_FIELDS = new String[] {
+            "counts", "follows_you", "you_follow", "you_muted", "you_can_subscribe", "you_can_follow"
+    };
+
+    private static final String DELETE_ORPHANED_USERS = "DELETE FROM " + TABLE_USERS + " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_MESSAGES +
+            " WHERE " + COL_MESSAGE_USER_ID + " = " + COL_USER_ID + " AND " + COL_MESSAGE_USER_VERSION + " = " + COL_USER_VERSION + ")";
 
     private static final String INSERT_OR_REPLACE_MESSAGE_DRAFT = "INSERT OR REPLACE INTO " + TABLE_MESSAGE_DRAFTS +
             " (" +
@@ -233,6 +313,17 @@ public class ADNDatabase {
             ") " +
             "VALUES(?, ?, ?, ?, ?)";
 
+    private static final String INSERT_OR_REPLACE_ANNOTATION_VALUE = "INSERT OR REPLACE INTO " + TABLE_ANNOTATION_VALUES +
+            " (" +
+            COL_ANNOTATION_VALUE_TYPE + ", " +
+            COL_ANNOTATION_VALUE_PATH + ", " +
+            COL_ANNOTATION_VALUE_VALUE + ", " +
+            COL_ANNOTATION_VALUE_MESSAGE_ID + ", " +
+            COL_ANNOTATION_VALUE_CHANNEL_ID + ", " +
+            COL_ANNOTATION_VALUE_DATE +
+            ") " +
+            "VALUES(?, ?, ?, ?, ?, ?)";
+
     private static final String INSERT_OR_REPLACE_PENDING_FILE = "INSERT OR REPLACE INTO " + TABLE_PENDING_FILES +
             " (" +
             COL_PENDING_FILE_ID + ", " +
@@ -278,6 +369,31 @@ public class ADNDatabase {
             ") " +
             "VALUES(?, ?, ?, ?, ?)";
 
+    private static final String INSERT_OR_REPLACE_OUTBOUND_WORK = "INSERT OR REPLACE INTO " + TABLE_OUTBOUND_WORK +
+            " (" +
+            COL_OUTBOUND_WORK_TYPE + ", " +
+            COL_OUTBOUND_WORK_ITEM_ID + ", " +
+            COL_OUTBOUND_WORK_CHANNEL_ID + ", " +
+            COL_OUTBOUND_WORK_ATTEMPTS + ", " +
+            COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME +
+            ") " +
+            "VALUES(?, ?, ?, ?, ?)";
+
+    /**
+     * A MessageWriteListener is notified after persisted Messages are inserted, replaced, or deleted.
+     * Listeners are used to invalidate in-memory copies of persisted Messages, and may be called
+     * on any thread that writes to the database.
+     */
+    public interface MessageWriteListener {
+        /**
+         * @param channelId the id of the Channel containing the written Messages, or null if
+         *                  Messages in any Channel may have been written
+         * @param messageId the id of the written Message, or null if any number of Messages
+         *                  may have been written
+         */
+        public void onMessagesWritten(String channelId, String messageId);
+    }
+
     private static ADNDatabase sInstance;
 
     private SQLiteDatabase mDatabase;
@@ -290,12 +406,26 @@ public class ADNDatabase {
     private SQLiteStatement mInsertOrReplaceLocationInstance;
     private SQLiteStatement mInsertLocationInstanceSearchText;
     private SQLiteStatement mInsertOrReplaceAnnotationInstance;
+    private SQLiteStatement mInsertOrReplaceAnnotationValue;
     private SQLiteStatement mInsertOrReplacePendingFile;
     private SQLiteStatement mInsertOrReplacePendingMessageDeletion;
     private SQLiteStatement mInsertOrReplacePendingFileDeletion;
     private SQLiteStatement mInsertOrReplacePendingFileAttachment;
     private SQLiteStatement mInsertOrReplaceActionMessageSpec;
+    private SQLiteStatement mInsertOrReplaceOutboundWork;
+    private SQLiteStatement mInsertOrIgnoreUser;
     private Gson mGson;
+    private CopyOnWriteArrayList<MessageWriteListener> mMessageWriteListeners;
+    private MessageCache mMessageCache;
+    private ArrayList<String[]> mUncommittedWrites;
+    private LinkedHashMap<String, User> mSharedUsers;
+    private StringPool mStringPool;
+    private volatile boolean mIsStringPoolingEnabled = true;
+    private Set<String> mCompressedChannelIds;
+    private HashMap<Long, byte[]> mPayloadDictionaries;
+    private Long mCurrentPayloadDictionaryId;
+    private HashMap<String, PayloadCompressionStats> mPayloadCompressionStats;
+    private static Field sUserField;
 
     /**
      * Get a singleton instance of ADNDatabase
@@ -320,6 +450,244 @@ public class ADNDatabase {
         ADNDatabaseOpenHelper openHelper = new ADNDatabaseOpenHelper(context, DB_NAME, null, DB_VERSION);
         mDatabase = openHelper.getWritableDatabase();
         mGson = AppDotNetGson.getPersistenceInstance();
+        mMessageWriteListeners = new CopyOnWriteArrayList<MessageWriteListener>();
+        mMessageCache = new MessageCache(MessageCache.DEFAULT_MAX_SIZE);
+        mUncommittedWrites = new ArrayList<String[]>();
+        mStringPool = new StringPool(StringPool.DEFAULT_MAX_SIZE);
+        mCompressedChannelIds = Collections.synchronizedSet(new HashSet<String>());
+        mPayloadDictionaries = new HashMap<Long, byte[]>();
+        mPayloadCompressionStats = new HashMap<String, PayloadCompressionStats>();
+        mSharedUsers = new LinkedHashMap<String, User>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                return size() > MAX_SHARED_USERS;
+            }
+        };
+    }
+
+    /**
+     * Enable or disable the StringPool for Messages decoded from now on. It is enabled by
+     * default; disabling it lets its effect on the heap be measured.
+     *
+     * @param enabled true if decoded Messages should share their repeated values, false otherwise
+     */
+    void setStringPoolingEnabled(boolean enabled) {
+        mIsStringPoolingEnabled = enabled;
+    }
+
+    /**
+     * Get the MessageCache that lookups by Message id read through, e.g. to read its hit rate.
+     *
+     * @return the MessageCache
+     */
+    public MessageCache getMessageCache() {
+        return mMessageCache;
+    }
+
+    /**
+     * Set the maximum number of decoded Messages kept in the MessageCache. The default is
+     * MessageCache.DEFAULT_MAX_SIZE.
+     *
+     * @param maxSize the maximum number of cached Messages, or 0 to disable caching.
+     */
+    public void setMessageCacheSize(int maxSize) {
+        mMessageCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Enable or disable compression of the JSON of Messages persisted in a Channel.<br><br>
+     *
+     * Compressed Messages take less space and less I/O to read, but more CPU to decode. Use
+     * getPayloadCompressionStats() to compare the two for a Channel. Compression only takes
+     * effect once a dictionary has been trained with trainPayloadDictionary(). It applies to
+     * Messages as they are written; Messages that were already persisted are read as they were
+     * stored.
+     *
+     * @param channelId the Channel id
+     * @param isEnabled true if the JSON of Messages in the Channel should be compressed.
+     */
+    public void setPayloadCompressionEnabled(String channelId, boolean isEnabled) {
+        if(isEnabled) {
+            mCompressedChannelIds.add(channelId);
+        } else {
+            mCompressedChannelIds.remove(channelId);
+        }
+    }
+
+    public boolean isPayloadCompressionEnabled(String channelId) {
+        return mCompressedChannelIds.contains(channelId);
+    }
+
+    /**
+     * Train a new compression dictionary from the JSON of the most recently persisted Messages,
+     * and store it in the database. Messages persisted afterwards in Channels with payload
+     * compression enabled are compressed against it; previously compressed Messages keep using
+     * the dictionary they were compressed against.
+     *
+     * @param numSampleMessages the maximum number of Messages to train the dictionary from
+     * @return the id of the new dictionary, or -1 if no dictionary could be trained.
+     */
+    public long trainPayloadDictionary(int numSampleMessages) {
+        ArrayList<String> samples = new ArrayList<String>(numSampleMessages);
+        Cursor cursor = null;
+        try {
+            String where = COL_MESSAGE_PAYLOAD + " IS NULL";
+            String orderBy = COL_MESSAGE_DATE + " DESC";
+            cursor = mDatabase.query(TABLE_MESSAGES, new String[] { COL_MESSAGE_JSON }, where, null, null, null, orderBy, String.valueOf(numSampleMessages));
+            while(cursor.moveToNext()) {
+                samples.add(cursor.getString(0));
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+
+        try {
+            byte[] dictionary = PayloadCompressor.trainDictionary(samples);
+            if(dictionary != null) {
+                ContentValues values = new ContentValues(1);
+                values.put(COL_PAYLOAD_DICTIONARY_BYTES, dictionary);
+                long dictionaryId = mDatabase.insert(TABLE_PAYLOAD_DICTIONARIES, null, values);
+                if(dictionaryId != -1) {
+                    synchronized(mPayloadDictionaries) {
+                        mPayloadDictionaries.put(dictionaryId, dictionary);
+                        mCurrentPayloadDictionaryId = dictionaryId;
+                    }
+                    Log.d(TAG, "trained payload dictionary " + dictionaryId + " (" + dictionary.length + " bytes) from " + samples.size() + " messages");
+                }
+                return dictionaryId;
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the statistics of reading persisted Messages in a Channel, with and without payload
+     * compression.
+     *
+     * @param channelId the Channel id
+     * @return the PayloadCompressionStats for the Channel
+     */
+    public PayloadCompressionStats getPayloadCompressionStats(String channelId) {
+        synchronized(mPayloadCompressionStats) {
+            PayloadCompressionStats stats = mPayloadCompressionStats.get(channelId);
+            if(stats == null) {
+                stats = new PayloadCompressionStats();
+                mPayloadCompressionStats.put(channelId, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * @return the id of the most recently trained dictionary, or null if none has been trained.
+     */
+    private Long getCurrentPayloadDictionaryId() {
+        synchronized(mPayloadDictionaries) {
+            if(mCurrentPayloadDictionaryId == null) {
+                Cursor cursor = null;
+                try {
+                    cursor = mDatabase.rawQuery("SELECT MAX(" + COL_PAYLOAD_DICTIONARY_ID + ") FROM " + TABLE_PAYLOAD_DICTIONARIES, null);
+                    if(cursor.moveToNext() && !cursor.isNull(0)) {
+                        mCurrentPayloadDictionaryId = cursor.getLong(0);
+                    }
+                } finally {
+                    if(cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+            return mCurrentPayloadDictionaryId;
+        }
+    }
+
+    private byte[] getPayloadDictionary(long dictionaryId) {
+        synchronized(mPayloadDictionaries) {
+            byte[] dictionary = mPayloadDictionaries.get(dictionaryId);
+            if(dictionary == null) {
+                Cursor cursor = null;
+                try {
+                    String where = COL_PAYLOAD_DICTIONARY_ID + " = ?";
+                    String[] args = new String[] { String.valueOf(dictionaryId) };
+                    cursor = mDatabase.query(TABLE_PAYLOAD_DICTIONARIES, new String[] { COL_PAYLOAD_DICTIONARY_BYTES }, where, args, null, null, null, null);
+                    if(cursor.moveToNext()) {
+                        dictionary = cursor.getBlob(0);
+                        mPayloadDictionaries.put(dictionaryId, dictionary);
+                    }
+                } finally {
+                    if(cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+            return dictionary;
+        }
+    }
+
+    public void addMessageWriteListener(MessageWriteListener listener) {
+        mMessageWriteListeners.addIfAbsent(listener);
+    }
+
+    public void removeMessageWriteListener(MessageWriteListener listener) {
+        mMessageWriteListeners.remove(listener);
+    }
+
+    /**
+     * Begin a transaction that groups several writes together. Every insert and delete in this
+     * class runs in its own transaction, and those nest inside this one, so that they are
+     * committed together when the outer transaction ends.<br><br>
+     *
+     * Use the same pattern as SQLiteDatabase: call setTransactionSuccessful() at the end of the
+     * try block, and endTransaction() in a finally block.<br><br>
+     *
+     * The MessageCache is only populated outside of transactions, and MessageWriteListeners are
+     * notified of the transaction's writes again when it ends – committed or not – so that
+     * nothing read before the outcome was known outlives it.
+     */
+    public void beginTransaction() {
+        mDatabase.beginTransaction();
+    }
+
+    public void setTransactionSuccessful() {
+        mDatabase.setTransactionSuccessful();
+    }
+
+    public void endTransaction() {
+        mDatabase.endTransaction();
+        if(!mDatabase.inTransaction()) {
+            ArrayList<String[]> writes;
+            synchronized(mUncommittedWrites) {
+                writes = new ArrayList<String[]>(mUncommittedWrites);
+                mUncommittedWrites.clear();
+            }
+            for(String[] write : writes) {
+                notifyMessagesWritten(write[0], write[1]);
+            }
+        }
+    }
+
+    private void notifyMessagesWritten(String channelId, String messageId) {
+        if(mDatabase.inTransaction()) {
+            synchronized(mUncommittedWrites) {
+                mUncommittedWrites.add(new String[] { channelId, messageId });
+            }
+        }
+        mMessageCache.invalidate(channelId, messageId);
+        for(MessageWriteListener listener : mMessageWriteListeners) {
+            listener.onMessagesWritten(channelId, messageId);
+        }
+    }
+
+    //only committed reads and writes may populate the cache; see beginTransaction().
+    private void putInMessageCache(MessagePlus messagePlus, long cacheGeneration) {
+        if(!mDatabase.inTransaction()) {
+            mMessageCache.putIfCurrent(messagePlus, cacheGeneration);
+        }
     }
 
     /**
@@ -337,6 +705,7 @@ public class ADNDatabase {
         }
         mDatabase.beginTransaction();
 
+        //failures propagate to insertOrReplaceMessage(), whose transaction this is part of.
         try {
             mInsertOrReplacePendingFileAttachment.bindString(1, pendingFileId);
             mInsertOrReplacePendingFileAttachment.bindString(2, messageId);
@@ -344,8 +713,6 @@ public class ADNDatabase {
             mInsertOrReplacePendingFileAttachment.bindLong(4, isOEmbed ? 1 : 0);
             mInsertOrReplacePendingFileAttachment.execute();
             mDatabase.setTransactionSuccessful();
-        } catch(Exception e) {
-            Log.e(TAG, e.getMessage(), e);
         } finally {
             mDatabase.endTransaction();
             mInsertOrReplacePendingFileAttachment.clearBindings();
@@ -353,11 +720,16 @@ public class ADNDatabase {
     }
 
     /**
-     * Insert a MessagePlus.
+     * Insert a MessagePlus.<br><br>
+     *
+     * Like all inserts that report their result, this must be checked when it is part of an
+     * outer transaction: a failed insert marks the outer transaction as failed, so it is rolled
+     * back even if setTransactionSuccessful() is called.
      *
      * @param messagePlus the MessagePlus to insert.
+     * @return true if the MessagePlus was written, false otherwise.
      */
-    public void insertOrReplaceMessage(MessagePlus messagePlus) {
+    public boolean insertOrReplaceMessage(MessagePlus messagePlus) {
         if(mInsertOrReplaceMessage == null) {
             mInsertOrReplaceMessage = mDatabase.compileStatement(INSERT_OR_REPLACE_MESSAGE);
             mInsertMessageSearchText = mDatabase.compileStatement(INSERT_MESSAGE_SEARCH_TEXT);
@@ -367,16 +739,39 @@ public class ADNDatabase {
         Date displayDate = messagePlus.getDisplayDate();
         Message message = messagePlus.getMessage();
         String text = message.getText();
-        message.setText(null);
+        User user = message.getUser();
 
         boolean success = false;
 
         try {
+            //the User is stored once per version in the users table, rather than in every Message.
+            String userVersion = null;
+            if(user != null) {
+                userVersion = insertOrIgnoreUser(user);
+            }
+
             mInsertOrReplaceMessage.bindNull(1);
             mInsertOrReplaceMessage.bindString(2, message.getId());
             mInsertOrReplaceMessage.bindString(3, message.getChannelId());
             mInsertOrReplaceMessage.bindLong(4, displayDate.getTime());
-            mInsertOrReplaceMessage.bindString(5, mGson.toJson(message));
+
+            //the text and User are stored in their own columns. they are dropped from a JSON copy
+            //rather than from the Message, which may be shared with other threads.
+            JsonObject messageJsonObject = mGson.toJsonTree(message).getAsJsonObject();
+            messageJsonObject.remove("text");
+            messageJsonObject.remove("user");
+            String messageJson = mGson.toJson(messageJsonObject);
+            Long dictionaryId = isPayloadCompressionEnabled(message.getChannelId()) ? getCurrentPayloadDictionaryId() : null;
+            byte[] dictionary = dictionaryId != null ? getPayloadDictionary(dictionaryId) : null;
+            if(dictionary != null) {
+                mInsertOrReplaceMessage.bindString(5, "");
+                mInsertOrReplaceMessage.bindBlob(11, PayloadCompressor.compress(messageJson, dictionary));
+                mInsertOrReplaceMessage.bindLong(12, dictionaryId);
+            } else {
+                mInsertOrReplaceMessage.bindString(5, messageJson);
+                mInsertOrReplaceMessage.bindNull(11);
+                mInsertOrReplaceMessage.bindNull(12);
+            }
             if(text != null) {
                 mInsertOrReplaceMessage.bindString(6, text);
             } else {
@@ -384,6 +779,13 @@ public class ADNDatabase {
             }
             mInsertOrReplaceMessage.bindLong(7, messagePlus.isUnsent() ? 1 : 0);
             mInsertOrReplaceMessage.bindLong(8, messagePlus.getNumSendAttempts());
+            if(user != null) {
+                mInsertOrReplaceMessage.bindString(9, user.getId());
+                mInsertOrReplaceMessage.bindString(10, userVersion);
+            } else {
+                mInsertOrReplaceMessage.bindNull(9);
+                mInsertOrReplaceMessage.bindNull(10);
+            }
             mInsertOrReplaceMessage.execute();
 
             insertPendingFileAttachments(messagePlus);
@@ -395,12 +797,174 @@ public class ADNDatabase {
         } finally {
             mDatabase.endTransaction();
             mInsertOrReplaceMessage.clearBindings();
-            message.setText(text);
 
             if(success) {
-                insertSearchableMessageText(getMaxMessageId(), message.getId(), message.getChannelId(), text);
+                success = insertSearchableMessageText(getMaxMessageId(), message.getId(), message.getChannelId(), text);
+                notifyMessagesWritten(message.getChannelId(), message.getId());
+                if(success) {
+                    putInMessageCache(messagePlus, mMessageCache.getGeneration());
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Insert a version of a User, if it is not already persisted.
+     *
+     * @param user the User
+     * @return the version of the User, derived from its contents except for VOLATILE_USER_FIELDS.
+     */
+    private String insertOrIgnoreUser(User user) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        if(mInsertOrIgnoreUser == null) {
+            mInsertOrIgnoreUser = mDatabase.compileStatement(INSERT_OR_IGNORE_USER);
+        }
+        JsonObject userJson = mGson.toJsonTree(user).getAsJsonObject();
+        String json = mGson.toJson(userJson);
+        for(String field : VOLATILE_USER_FIELDS) {
+            userJson.remove(field);
+        }
+        String version = getUserVersion(mGson.toJson(userJson));
+        try {
+            mInsertOrIgnoreUser.bindString(1, user.getId());
+            mInsertOrIgnoreUser.bindString(2, version);
+            mInsertOrIgnoreUser.bindString(3, json);
+            mInsertOrIgnoreUser.execute();
+        } finally {
+            mInsertOrIgnoreUser.clearBindings();
+        }
+        synchronized(mSharedUsers) {
+            String key = user.getId() + "/" + version;
+            if(!mSharedUsers.containsKey(key)) {
+                mSharedUsers.put(key, user);
+            }
+        }
+        return version;
+    }
+
+    private static String getUserVersion(String userJson) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        byte[] digest = MessageDigest.getInstance("MD5").digest(userJson.getBytes("UTF-8"));
+        StringBuilder version = new StringBuilder(digest.length * 2);
+        for(byte b : digest) {
+            version.append(Character.forDigit((b >> 4) & 0xF, 16));
+            version.append(Character.forDigit(b & 0xF, 16));
+        }
+        return version.toString();
+    }
+
+    /**
+     * Get a shared instance of a persisted User version. The same User instance is attached to
+     * all decoded Messages that reference the same version.
+     *
+     * @param userId the User id
+     * @param version the User version
+     * @return the User, or null if the version is not persisted.
+     */
+    private User getSharedUser(String userId, String version) {
+        String key = userId + "/" + version;
+        synchronized(mSharedUsers) {
+            User user = mSharedUsers.get(key);
+            if(user != null) {
+                return user;
+            }
+        }
+
+        User user = null;
+        Cursor cursor = null;
+        try {
+            String where = COL_USER_ID + " = ? AND " + COL_USER_VERSION + " = ?";
+            String[] args = new String[] { userId, version };
+            cursor = mDatabase.query(TABLE_USERS, new String[] { COL_USER_JSON }, where, args, null, null, null, null);
+            if(cursor.moveToNext()) {
+                user = mGson.fromJson(cursor.getString(0), User.class);
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
             }
         }
+
+        if(user != null) {
+            synchronized(mSharedUsers) {
+                //another thread may have decoded it in the meantime; keep a single instance.
+                User sharedUser = mSharedUsers.get(key);
+                if(sharedUser != null) {
+                    return sharedUser;
+                }
+                mSharedUsers.put(key, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Decode a persisted Message, sharing its User and its repeated String values with other
+     * decoded Messages.
+     *
+     * @param channelId the id of the Channel the Message is persisted in
+     * @param messageJson the Message JSON, if it is not compressed
+     * @param payload the compressed Message JSON, or null if it is not compressed
+     * @param dictionaryId the id of the dictionary the payload was compressed against, or null
+     * @param messageText the Message text, stored separately from the JSON
+     * @param userId the id of the Message's User if it is stored in the users table, or null
+     *               if the User is embedded in the JSON
+     * @param userVersion the version of the Message's User in the users table, or null
+     * @return the Message
+     */
+    private Message decodeMessage(String channelId, String messageJson, byte[] payload, Long dictionaryId, String messageText, String userId, String userVersion) throws IOException {
+        Message message;
+        long start = System.nanoTime();
+        if(payload != null) {
+            byte[] dictionary = getPayloadDictionary(dictionaryId);
+            if(dictionary == null) {
+                throw new IOException("missing payload dictionary " + dictionaryId);
+            }
+            Inflater inflater = PayloadCompressor.newInflater(dictionary);
+            try {
+                //inflate straight into the decoder rather than into an intermediate String.
+                Reader reader = new InputStreamReader(PayloadCompressor.newInputStream(payload, inflater), "UTF-8");
+                message = mGson.fromJson(reader, Message.class);
+                getPayloadCompressionStats(channelId).recordCompressedRead(payload.length, inflater.getBytesWritten(), System.nanoTime() - start);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            message = mGson.fromJson(messageJson, Message.class);
+            getPayloadCompressionStats(channelId).recordUncompressedRead(System.nanoTime() - start);
+        }
+        message.setText(messageText);
+        if(userId != null && userVersion != null) {
+            setUser(message, getSharedUser(userId, userVersion));
+        }
+
+        //share the values that repeat across Messages rather than keeping a copy per Message.
+        if(mIsStringPoolingEnabled) {
+            mStringPool.internField(message, "channelId");
+            mStringPool.internFields(message.getAnnotations(), "type");
+        }
+        return message;
+    }
+
+    private static void setUser(Message message, User user) {
+        try {
+            if(sUserField == null) {
+                //the field is declared by one of Message's superclasses.
+                Class<?> c = Message.class;
+                while(sUserField == null && c != null) {
+                    try {
+                        sUserField = c.getDeclaredField("user");
+                        sUserField.setAccessible(true);
+                    } catch(NoSuchFieldException e) {
+                        c = c.getSuperclass();
+                    }
+                }
+            }
+            sUserField.set(message, user);
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
     }
 
     /**
@@ -443,8 +1007,10 @@ public class ADNDatabase {
         }
     }
 
-    private void insertSearchableMessageText(long rowId, String messageId, String channelId, String text) {
+    private boolean insertSearchableMessageText(long rowId, String messageId, String channelId, String text) {
+        boolean success = true;
         if(isFullTextSearchAvailable() && text != null) {
+            success = false;
             mDatabase.beginTransaction();
             try {
                 mInsertMessageSearchText.bindLong(1, rowId);
@@ -453,6 +1019,7 @@ public class ADNDatabase {
                 mInsertMessageSearchText.bindString(4, text);
                 mInsertMessageSearchText.execute();
                 mDatabase.setTransactionSuccessful();
+                success = true;
             } catch(Exception e) {
                 Log.e(TAG, e.getMessage(), e);
             } finally {
@@ -460,6 +1027,7 @@ public class ADNDatabase {
                 mInsertMessageSearchText.clearBindings();
             }
         }
+        return success;
     }
 
     /**
@@ -467,7 +1035,8 @@ public class ADNDatabase {
      * instances.
      *
      * @param message
-     * @return a Map whose keys are hashtag names mapped to HashtagInstances objects.
+     * @return a Map whose keys are hashtag names mapped to HashtagInstances objects, or null if
+     * the hashtag instances could not be written.
      */
     public Map<String, HashtagInstances> insertOrReplaceHashtagInstances(MessagePlus message) {
         HashMap<String, HashtagInstances> instances = new HashMap<String, HashtagInstances>();
@@ -501,6 +1070,7 @@ public class ADNDatabase {
                 mDatabase.setTransactionSuccessful();
             } catch(Exception e) {
                 Log.e(TAG, e.getMessage(), e);
+                instances = null;
             } finally {
                 mDatabase.endTransaction();
                 mInsertOrReplaceHashtag.clearBindings();
@@ -518,25 +1088,40 @@ public class ADNDatabase {
      * @param geolocation the Geolocation to insert
      */
     public void insertOrReplaceGeolocation(Geolocation geolocation) {
+        insertOrReplaceGeolocations(Arrays.asList(geolocation));
+    }
+
+    /**
+     * Insert any number of Geolocations in a single transaction.
+     *
+     * The inserted latiitude and longitude values for the provided Geolocations are rounded to
+     * three decimal points.
+     *
+     * @param geolocations the Geolocations to insert
+     */
+    public void insertOrReplaceGeolocations(Collection<Geolocation> geolocations) {
         if(mInsertOrReplaceGeolocation == null) {
             mInsertOrReplaceGeolocation = mDatabase.compileStatement(INSERT_OR_REPLACE_GEOLOCATION);
         }
         mDatabase.beginTransaction();
         try {
-            double latitude = getRoundedValue(geolocation.getLatitude(), 3);
-            double longitude = getRoundedValue(geolocation.getLongitude(), 3);
+            for(Geolocation geolocation : geolocations) {
+                double latitude = getRoundedValue(geolocation.getLatitude(), 3);
+                double longitude = getRoundedValue(geolocation.getLongitude(), 3);
 
-            mInsertOrReplaceGeolocation.bindString(1, geolocation.getLocality());
+                mInsertOrReplaceGeolocation.bindString(1, geolocation.getLocality());
 
-            String subLocality = geolocation.getSubLocality();
-            if(subLocality != null) {
-                mInsertOrReplaceGeolocation.bindString(2, subLocality);
-            } else {
-                mInsertOrReplaceGeolocation.bindNull(2);
+                String subLocality = geolocation.getSubLocality();
+                if(subLocality != null) {
+                    mInsertOrReplaceGeolocation.bindString(2, subLocality);
+                } else {
+                    mInsertOrReplaceGeolocation.bindNull(2);
+                }
+                mInsertOrReplaceGeolocation.bindDouble(3, latitude);
+                mInsertOrReplaceGeolocation.bindDouble(4, longitude);
+                mInsertOrReplaceGeolocation.execute();
+                mInsertOrReplaceGeolocation.clearBindings();
             }
-            mInsertOrReplaceGeolocation.bindDouble(3, latitude);
-            mInsertOrReplaceGeolocation.bindDouble(4, longitude);
-            mInsertOrReplaceGeolocation.execute();
             mDatabase.setTransactionSuccessful();
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
@@ -578,6 +1163,33 @@ public class ADNDatabase {
         }
     }
 
+    /**
+     * Insert DisplayLocation instances for the provided MessagePlus objects, along with the
+     * provided Places, in a single transaction.
+     *
+     * @param messagePlusses the MessagePlus objects whose DisplayLocations should be inserted
+     * @param places the Places (or CustomPlaces) to insert
+     */
+    public void insertOrReplaceDisplayLocationInstances(Collection<MessagePlus> messagePlusses, Collection<Place> places) {
+        if(messagePlusses.size() == 0 && places.size() == 0) {
+            return;
+        }
+        mDatabase.beginTransaction();
+        try {
+            for(Place place : places) {
+                insertOrReplacePlace(place);
+            }
+            for(MessagePlus messagePlus : messagePlusses) {
+                insertOrReplaceDisplayLocationInstance(messagePlus);
+            }
+            mDatabase.setTransactionSuccessful();
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
     /**
      * Insert an instance of a DisplayLocation for the provided MessagePlus.
      *
@@ -662,32 +1274,78 @@ public class ADNDatabase {
      * @param messagePlus the MessagePlus form which Annotation instances will be stored.
      */
     public void insertOrReplaceAnnotationInstances(String annotationType, MessagePlus messagePlus) {
+        List<AnnotationValuePath> noValuePaths = Collections.emptyList();
+        insertOrReplaceAnnotationInstances(Arrays.asList(messagePlus), Arrays.asList(annotationType), noValuePaths);
+    }
+
+    /**
+     * Extract Annotation instances and Annotation values from a batch of MessagePlus objects, in
+     * a single transaction.<br><br>
+     *
+     * For each Annotation type, a row is inserted for each Message that has an Annotation of that
+     * type. For each AnnotationValuePath, a row is inserted for each distinct value that a Message
+     * has at that path, so that Messages can be looked up by value with
+     * getAnnotationValueInstances(), or with a MessageQuery.
+     *
+     * @param messagePlusses the MessagePlus objects from which Annotation instances will be stored.
+     * @param annotationTypes the types of Annotations to extract
+     * @param valuePaths the AnnotationValuePaths whose values should be extracted
+     * @return true if the Annotation instances and values were written, false otherwise.
+     */
+    public boolean insertOrReplaceAnnotationInstances(Collection<MessagePlus> messagePlusses, Collection<String> annotationTypes, Collection<AnnotationValuePath> valuePaths) {
         if(mInsertOrReplaceAnnotationInstance == null) {
             mInsertOrReplaceAnnotationInstance = mDatabase.compileStatement(INSERT_OR_REPLACE_ANNOTATION_INSTANCE);
         }
-        Message message = messagePlus.getMessage();
-        if(message.hasAnnotations()) {
-            List<Annotation> annotations = message.getAnnotationsOfType(annotationType);
+        if(mInsertOrReplaceAnnotationValue == null) {
+            mInsertOrReplaceAnnotationValue = mDatabase.compileStatement(INSERT_OR_REPLACE_ANNOTATION_VALUE);
+        }
+        boolean success = false;
+        mDatabase.beginTransaction();
 
-            if(annotations.size() > 0) {
-                mDatabase.beginTransaction();
+        try {
+            for(MessagePlus messagePlus : messagePlusses) {
+                Message message = messagePlus.getMessage();
+                if(!message.hasAnnotations()) {
+                    continue;
+                }
+                long displayDate = messagePlus.getDisplayDate().getTime();
+
+                for(String annotationType : annotationTypes) {
+                    List<Annotation> annotations = message.getAnnotationsOfType(annotationType);
+                    if(annotations.size() > 0) {
+                        mInsertOrReplaceAnnotationInstance.bindString(1, annotationType);
+                        mInsertOrReplaceAnnotationInstance.bindString(2, message.getId());
+                        mInsertOrReplaceAnnotationInstance.bindString(3, message.getChannelId());
+                        mInsertOrReplaceAnnotationInstance.bindLong(4, annotations.size());
+                        mInsertOrReplaceAnnotationInstance.bindLong(5, displayDate);
+                        mInsertOrReplaceAnnotationInstance.execute();
+                        mInsertOrReplaceAnnotationInstance.clearBindings();
+                    }
+                }
 
-                try {
-                    mInsertOrReplaceAnnotationInstance.bindString(1, annotationType);
-                    mInsertOrReplaceAnnotationInstance.bindString(2, message.getId());
-                    mInsertOrReplaceAnnotationInstance.bindString(3, message.getChannelId());
-                    mInsertOrReplaceAnnotationInstance.bindLong(4, annotations.size());
-                    mInsertOrReplaceAnnotationInstance.bindLong(5, messagePlus.getDisplayDate().getTime());
-                    mInsertOrReplaceAnnotationInstance.execute();
-                    mDatabase.setTransactionSuccessful();
-                } catch(Exception e) {
-                    Log.e(TAG, e.getMessage(), e);
-                } finally {
-                    mDatabase.endTransaction();
-                    mInsertOrReplaceAnnotationInstance.clearBindings();
+                for(AnnotationValuePath path : valuePaths) {
+                    for(String value : path.getValues(message)) {
+                        mInsertOrReplaceAnnotationValue.bindString(1, path.getType());
+                        mInsertOrReplaceAnnotationValue.bindString(2, path.getKeyPath());
+                        mInsertOrReplaceAnnotationValue.bindString(3, value);
+                        mInsertOrReplaceAnnotationValue.bindString(4, message.getId());
+                        mInsertOrReplaceAnnotationValue.bindString(5, message.getChannelId());
+                        mInsertOrReplaceAnnotationValue.bindLong(6, displayDate);
+                        mInsertOrReplaceAnnotationValue.execute();
+                        mInsertOrReplaceAnnotationValue.clearBindings();
+                    }
                 }
             }
+            mDatabase.setTransactionSuccessful();
+            success = true;
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+            mInsertOrReplaceAnnotationInstance.clearBindings();
+            mInsertOrReplaceAnnotationValue.clearBindings();
         }
+        return success;
     }
 
     /**
@@ -792,14 +1450,64 @@ public class ADNDatabase {
         }
     }
 
-    public void insertOrReplaceActionMessageSpec(MessagePlus actionMessagePlus, String targetMessageId, String targetChannelId, Date targetMessageDisplayDate) {
-        insertOrReplaceActionMessageSpec(actionMessagePlus.getMessage().getId(), actionMessagePlus.getMessage().getChannelId(), targetMessageId, targetChannelId, targetMessageDisplayDate);
+    /**
+     * Insert or replace the retry state of an item of outbound work.
+     *
+     * @param outboundWork the OutboundWork
+     */
+    public void insertOrReplaceOutboundWork(OutboundWork outboundWork) {
+        if(mInsertOrReplaceOutboundWork == null) {
+            mInsertOrReplaceOutboundWork = mDatabase.compileStatement(INSERT_OR_REPLACE_OUTBOUND_WORK);
+        }
+        mDatabase.beginTransaction();
+
+        try {
+            mInsertOrReplaceOutboundWork.bindString(1, outboundWork.getType().name());
+            mInsertOrReplaceOutboundWork.bindString(2, outboundWork.getItemId());
+            if(outboundWork.getChannelId() != null) {
+                mInsertOrReplaceOutboundWork.bindString(3, outboundWork.getChannelId());
+            } else {
+                mInsertOrReplaceOutboundWork.bindNull(3);
+            }
+            mInsertOrReplaceOutboundWork.bindLong(4, outboundWork.getNumAttempts());
+            mInsertOrReplaceOutboundWork.bindLong(5, outboundWork.getNextAttemptTime());
+            mInsertOrReplaceOutboundWork.execute();
+            mDatabase.setTransactionSuccessful();
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+            mInsertOrReplaceOutboundWork.clearBindings();
+        }
     }
 
-    public void insertOrReplaceActionMessageSpec(String actionMessageId, String actionMessageChannelId, String targetMessageId, String targetChannelId, Date targetMessageDisplayDate) {
+    /**
+     * Insert an ActionMessageSpec.
+     *
+     * @return true if the ActionMessageSpec was written, false otherwise.
+     *
+     * @see #insertOrReplaceActionMessageSpec(String, String, String, String, java.util.Date)
+     */
+    public boolean insertOrReplaceActionMessageSpec(MessagePlus actionMessagePlus, String targetMessageId, String targetChannelId, Date targetMessageDisplayDate) {
+        return insertOrReplaceActionMessageSpec(actionMessagePlus.getMessage().getId(), actionMessagePlus.getMessage().getChannelId(), targetMessageId, targetChannelId, targetMessageDisplayDate);
+    }
+
+    /**
+     * Insert an ActionMessageSpec. When this is part of an outer transaction, the result must be
+     * checked; see insertOrReplaceMessage().
+     *
+     * @param actionMessageId the id of the Action Message
+     * @param actionMessageChannelId the id of the Action Channel
+     * @param targetMessageId the id of the target Message
+     * @param targetChannelId the id of the target Message's Channel
+     * @param targetMessageDisplayDate the display date of the target Message
+     * @return true if the ActionMessageSpec was written, false otherwise.
+     */
+    public boolean insertOrReplaceActionMessageSpec(String actionMessageId, String actionMessageChannelId, String targetMessageId, String targetChannelId, Date targetMessageDisplayDate) {
         if(mInsertOrReplaceActionMessageSpec == null) {
             mInsertOrReplaceActionMessageSpec = mDatabase.compileStatement(INSERT_OR_REPLACE_ACTION_MESSAGE_SPEC);
         }
+        boolean success = false;
         mDatabase.beginTransaction();
 
         try {
@@ -811,12 +1519,41 @@ public class ADNDatabase {
             mInsertOrReplaceActionMessageSpec.bindLong(5, targetMessageDisplayDate.getTime());
             mInsertOrReplaceActionMessageSpec.execute();
             mDatabase.setTransactionSuccessful();
+            success = true;
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
         } finally {
             mDatabase.endTransaction();
             mInsertOrReplaceActionMessageSpec.clearBindings();
         }
+        return success;
+    }
+
+    /**
+     * Get the ids of all target Messages that have an ActionMessageSpec in an Action Channel.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @return the target Message ids
+     */
+    public Set<String> getTargetMessageIdsWithSpecs(String actionChannelId) {
+        Cursor cursor = null;
+        HashSet<String> targetMessageIds = new HashSet<String>();
+        try {
+            String where = COL_ACTION_MESSAGE_CHANNEL_ID + " = ?";
+            String[] args = new String[] { actionChannelId };
+            cursor = mDatabase.query(true, TABLE_ACTION_MESSAGES, new String[] { COL_ACTION_MESSAGE_TARGET_MESSAGE_ID }, where, args, null, null, null, null);
+
+            while(cursor.moveToNext()) {
+                targetMessageIds.add(cursor.getString(0));
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+        return targetMessageIds;
     }
 
     public Set<String> getTargetMessageIdsWithSpecs(String actionChannelId, Collection<String> targetMessageIds) {
@@ -874,16 +1611,21 @@ public class ADNDatabase {
         return false;
     }
 
+    /**
+     * Get the number of ActionMessageSpecs in an Action Channel. The count is kept up to date
+     * in its own table as specs are inserted and deleted, so this never scans the specs.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @return the number of ActionMessageSpecs in the Action Channel
+     */
     public int getActionMessageSpecCount(String actionChannelId) {
         Cursor cursor = null;
         try {
-            String where = COL_ACTION_MESSAGE_CHANNEL_ID + " = ? ";
+            String where = COL_ACTION_MESSAGE_COUNT_CHANNEL_ID + " = ?";
             String[] args = new String[] { actionChannelId };
-            cursor = mDatabase.query(TABLE_ACTION_MESSAGES, new String[] { COL_ACTION_MESSAGE_ID }, where, args, null, null, null, null);
+            cursor = mDatabase.query(TABLE_ACTION_MESSAGE_COUNTS, new String[] { COL_ACTION_MESSAGE_COUNT_COUNT }, where, args, null, null, null, null);
             if(cursor.moveToNext()) {
-                int count = cursor.getCount();
-                cursor.close();
-                return count;
+                return cursor.getInt(0);
             }
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
@@ -915,6 +1657,17 @@ public class ADNDatabase {
     }
 
     public List<ActionMessageSpec> getActionMessageSpecsForTargetMessages(String actionChannelId, List<String> targetMessageIds) {
+        //stay well under sqlite's 999 host parameters.
+        int chunkSize = 900;
+        if(targetMessageIds.size() > chunkSize) {
+            ArrayList<ActionMessageSpec> specs = new ArrayList<ActionMessageSpec>(targetMessageIds.size());
+            for(int start = 0; start < targetMessageIds.size(); start += chunkSize) {
+                int end = Math.min(start + chunkSize, targetMessageIds.size());
+                specs.addAll(getActionMessageSpecsForTargetMessages(actionChannelId, targetMessageIds.subList(start, end)));
+            }
+            return specs;
+        }
+
         String where = "";
         String[] args = null;
         int inStartIndex = 0;
@@ -955,7 +1708,8 @@ public class ADNDatabase {
         String limitTo = limit != null ? limitTo = String.valueOf(limit) : null;
 
         if(beforeDate != null) {
-            where += " AND " + "CAST(" + COL_ACTION_MESSAGE_TARGET_MESSAGE_DISPLAY_DATE + " AS INTEGER) < ?";
+            //no CAST here; it would keep the range from being served by the target date index.
+            where += " AND " + COL_ACTION_MESSAGE_TARGET_MESSAGE_DISPLAY_DATE + " < ?";
             args = new String[] { actionChannelId, String.valueOf(beforeDate.getTime()) };
         } else {
             args = new String[] { actionChannelId };
@@ -1074,35 +1828,82 @@ public class ADNDatabase {
      * Annotation of the specified type.
      *
      * @param channelId the Channel id
-     * @param type The Annotation type
-     * @param beforeDate a date that all display dates associated with the annotation instances must
+     * @param type The Annotation type
+     * @param beforeDate a date that all display dates associated with the annotation instances must
+     *                   come after. This is useful for paging. A null value is the same as passing
+     *                   the current date.
+     * @param limit The maximum number of instances to obtain. A null value means all will be returned.
+     *
+     * @return AnnotationInstances
+     */
+    public AnnotationInstances getAnnotationInstances(String channelId, String type, Date beforeDate, Integer limit) {
+        Cursor cursor = null;
+        AnnotationInstances instances = new AnnotationInstances(type);
+        try {
+            String where = COL_ANNOTATION_INSTANCE_CHANNEL_ID + " = ? AND " + COL_ANNOTATION_INSTANCE_TYPE + " = ?";
+            String[] args = null;
+            String limitTo = limit != null ? limitTo = String.valueOf(limit) : null;
+
+            if(beforeDate != null) {
+                where += " AND " + "CAST(" + COL_ANNOTATION_INSTANCE_DATE + " AS INTEGER) < ?";
+                args = new String[] { channelId, type, String.valueOf(beforeDate.getTime()) };
+            } else {
+                args = new String[] { channelId, type };
+            }
+
+            String orderBy = COL_ANNOTATION_INSTANCE_DATE + " DESC";
+            cursor = mDatabase.query(TABLE_ANNOTATION_INSTANCES, new String[] {COL_ANNOTATION_INSTANCE_MESSAGE_ID}, where, args, null, null, orderBy, limitTo);
+
+            while(cursor.moveToNext()) {
+                String messageId = cursor.getString(0);
+                instances.addInstance(messageId);
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Get an AnnotationValueInstances object representing the set of messages with an
+     * Annotation that has the specified value at an AnnotationValuePath. Values are only found
+     * if the path was indexed when the Messages were persisted.
+     *
+     * @param channelId the Channel id
+     * @param path the AnnotationValuePath
+     * @param value the value at the path
+     * @param beforeDate a date that all display dates associated with the annotation values must
      *                   come after. This is useful for paging. A null value is the same as passing
      *                   the current date.
      * @param limit The maximum number of instances to obtain. A null value means all will be returned.
      *
-     * @return AnnotationInstances
+     * @return AnnotationValueInstances
      */
-    public AnnotationInstances getAnnotationInstances(String channelId, String type, Date beforeDate, Integer limit) {
+    public AnnotationValueInstances getAnnotationValueInstances(String channelId, AnnotationValuePath path, String value, Date beforeDate, Integer limit) {
         Cursor cursor = null;
-        AnnotationInstances instances = new AnnotationInstances(type);
+        AnnotationValueInstances instances = new AnnotationValueInstances(path, value);
         try {
-            String where = COL_ANNOTATION_INSTANCE_CHANNEL_ID + " = ? AND " + COL_ANNOTATION_INSTANCE_TYPE + " = ?";
+            String where = COL_ANNOTATION_VALUE_CHANNEL_ID + " = ? AND " + COL_ANNOTATION_VALUE_TYPE + " = ? AND " +
+                    COL_ANNOTATION_VALUE_PATH + " = ? AND " + COL_ANNOTATION_VALUE_VALUE + " = ?";
             String[] args = null;
-            String limitTo = limit != null ? limitTo = String.valueOf(limit) : null;
+            String limitTo = limit != null ? String.valueOf(limit) : null;
 
             if(beforeDate != null) {
-                where += " AND " + "CAST(" + COL_ANNOTATION_INSTANCE_DATE + " AS INTEGER) < ?";
-                args = new String[] { channelId, type, String.valueOf(beforeDate.getTime()) };
+                where += " AND " + COL_ANNOTATION_VALUE_DATE + " < ?";
+                args = new String[] { channelId, path.getType(), path.getKeyPath(), value, String.valueOf(beforeDate.getTime()) };
             } else {
-                args = new String[] { channelId, type };
+                args = new String[] { channelId, path.getType(), path.getKeyPath(), value };
             }
 
-            String orderBy = COL_ANNOTATION_INSTANCE_DATE + " DESC";
-            cursor = mDatabase.query(TABLE_ANNOTATION_INSTANCES, new String[] {COL_ANNOTATION_INSTANCE_MESSAGE_ID}, where, args, null, null, orderBy, limitTo);
+            String orderBy = COL_ANNOTATION_VALUE_DATE + " DESC";
+            cursor = mDatabase.query(TABLE_ANNOTATION_VALUES, new String[] {COL_ANNOTATION_VALUE_MESSAGE_ID}, where, args, null, null, orderBy, limitTo);
 
             while(cursor.moveToNext()) {
-                String messageId = cursor.getString(0);
-                instances.addInstance(messageId);
+                instances.addInstance(cursor.getString(0));
             }
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
@@ -1330,6 +2131,72 @@ public class ADNDatabase {
         return null;
     }
 
+    /**
+     * Get the persisted Geolocations for many coordinates with a single query.
+     *
+     * The returned Map is keyed by getGeolocationKey(latitude, longitude). Coordinates that
+     * have no persisted Geolocation have no entry. The Geolocations in the map have rounded
+     * coordinates.
+     *
+     * @param latitudes the latitudes
+     * @param longitudes the longitudes, in the same order as the latitudes
+     * @return a Map of geolocation keys to Geolocations
+     */
+    public Map<String, Geolocation> getGeolocations(double[] latitudes, double[] longitudes) {
+        HashMap<String, Geolocation> geolocations = new HashMap<String, Geolocation>(latitudes.length);
+
+        //each coordinate pair uses two of sqlite's 999 host parameters.
+        int chunkSize = 400;
+        for(int start = 0; start < latitudes.length; start += chunkSize) {
+            int end = Math.min(start + chunkSize, latitudes.length);
+            LinkedHashSet<String> keys = new LinkedHashSet<String>(end - start);
+            ArrayList<String> args = new ArrayList<String>((end - start) * 2);
+            StringBuilder where = new StringBuilder();
+            for(int i = start; i < end; i++) {
+                double latitude = getRoundedValue(latitudes[i], 3);
+                double longitude = getRoundedValue(longitudes[i], 3);
+                if(keys.add(latitude + "," + longitude)) {
+                    if(where.length() > 0) {
+                        where.append(" OR ");
+                    }
+                    where.append("(" + COL_GEOLOCATION_LATITUDE + " = ? AND " + COL_GEOLOCATION_LONGITUDE + " = ?)");
+                    args.add(String.valueOf(latitude));
+                    args.add(String.valueOf(longitude));
+                }
+            }
+
+            Cursor cursor = null;
+            try {
+                String[] cols = new String[] { COL_GEOLOCATION_LOCALITY, COL_GEOLOCATION_SUBLOCALITY, COL_GEOLOCATION_LATITUDE, COL_GEOLOCATION_LONGITUDE };
+                cursor = mDatabase.query(TABLE_GEOLOCATIONS, cols, where.toString(), args.toArray(new String[0]), null, null, null, null);
+                while(cursor.moveToNext()) {
+                    double latitude = cursor.getDouble(2);
+                    double longitude = cursor.getDouble(3);
+                    geolocations.put(latitude + "," + longitude, new Geolocation(cursor.getString(0), cursor.getString(1), latitude, longitude));
+                }
+            } catch(Exception e) {
+                Log.e(TAG, e.getMessage(), e);
+            } finally {
+                if(cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return geolocations;
+    }
+
+    /**
+     * Get the key used by getGeolocations() for the provided coordinates. Coordinates that round
+     * to the same persisted Geolocation have the same key.
+     *
+     * @param latitude the latitude
+     * @param longitude the longitude
+     * @return the geolocation key
+     */
+    public String getGeolocationKey(double latitude, double longitude) {
+        return getRoundedValue(latitude, 3) + "," + getRoundedValue(longitude, 3);
+    }
+
     /**
      * Get a Place by id.
      *
@@ -1684,24 +2551,7 @@ public class ADNDatabase {
      * query.
      */
     public OrderedMessageBatch searchForMessages(String channelId, String query) {
-        String where = COL_MESSAGE_CHANNEL_ID + " = ? AND " + COL_MESSAGE_TEXT + " MATCH ?";
-        String[] args = new String[] { channelId, query };
-        Cursor cursor = null;
-        HashSet<String> messageIds = new HashSet<String>();
-        try {
-            cursor = mDatabase.query(TABLE_MESSAGES_SEARCH, new String[] { COL_MESSAGE_MESSAGE_ID }, where, args, null, null, null, null);
-            while(cursor.moveToNext()) {
-                messageIds.add(cursor.getString(0));
-            }
-        } catch(Exception e) {
-            Log.e(TAG, e.getMessage(), e);
-        } finally {
-            if(cursor != null) {
-                cursor.close();
-            }
-        }
-
-        return getMessages(messageIds);
+        return getMessages(MessageQuery.MessageQueryBuilder.newBuilder(channelId).setTextQuery(query).build());
     }
 
     /**
@@ -1714,24 +2564,7 @@ public class ADNDatabase {
      * query.
      */
     public OrderedMessageBatch searchForMessagesByDisplayLocation(String channelId, String query) {
-        String where = COL_LOCATION_INSTANCE_CHANNEL_ID + " = ? AND " + COL_LOCATION_INSTANCE_NAME + " MATCH ?";
-        String[] args = new String[] { channelId, query };
-        Cursor cursor = null;
-        HashSet<String> messageIds = new HashSet<String>();
-        try {
-            cursor = mDatabase.query(TABLE_LOCATION_INSTANCES_SEARCH, new String[] { COL_LOCATION_INSTANCE_MESSAGE_ID }, where, args, null, null, null, null);
-            while(cursor.moveToNext()) {
-                messageIds.add(cursor.getString(0));
-            }
-        } catch(Exception e) {
-            Log.e(TAG, e.getMessage(), e);
-        } finally {
-            if(cursor != null) {
-                cursor.close();
-            }
-        }
-
-        return getMessages(messageIds);
+        return getMessages(MessageQuery.MessageQueryBuilder.newBuilder(channelId).setDisplayLocationQuery(query).build());
     }
 
     /**
@@ -1752,29 +2585,57 @@ public class ADNDatabase {
     }
 
     /**
-     * Get Messages by id.
+     * Get Messages by id. Messages found in the MessageCache are not read from the database.
      *
      * @param messageIds The ids of the Messages to get.
      * @return OrderedMessageBatch
      */
     public OrderedMessageBatch getMessages(Collection<String> messageIds) {
-        String where = COL_MESSAGE_MESSAGE_ID + " IN (";
-        String[] args = new String[messageIds.size()];
-
-        int index = 0;
-        Iterator<String> iterator = messageIds.iterator();
-        while(iterator.hasNext()) {
-            args[index] = iterator.next();
-            if(index > 0) {
-                where += ", ?";
+        ArrayList<MessagePlus> cachedMessages = new ArrayList<MessagePlus>();
+        ArrayList<String> uncachedMessageIds = new ArrayList<String>(messageIds.size());
+        for(String messageId : messageIds) {
+            MessagePlus messagePlus = mMessageCache.get(messageId);
+            if(messagePlus != null) {
+                cachedMessages.add(messagePlus);
             } else {
-                where += " ?";
+                uncachedMessageIds.add(messageId);
             }
-            index++;
         }
-        where += ")";
-        String orderBy = COL_MESSAGE_DATE + " DESC";
-        return getMessages(where, args, orderBy, null);
+
+        OrderedMessageBatch batch;
+        if(uncachedMessageIds.size() > 0) {
+            String where = COL_MESSAGE_MESSAGE_ID + " IN (";
+            String[] args = new String[uncachedMessageIds.size()];
+            for(int i = 0; i < args.length; i++) {
+                args[i] = uncachedMessageIds.get(i);
+                where += i > 0 ? ", ?" : " ?";
+            }
+            where += ")";
+            String orderBy = COL_MESSAGE_DATE + " DESC";
+            batch = getMessages(where, args, orderBy, null);
+        } else {
+            batch = new OrderedMessageBatch(new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator()), new MinMaxPair());
+        }
+
+        //fold the cached Messages into the batch and its MinMaxPair.
+        TreeMap<Long, MessagePlus> messages = batch.getMessages();
+        MinMaxPair minMaxPair = batch.getMinMaxPair();
+        for(MessagePlus messagePlus : cachedMessages) {
+            long date = messagePlus.getDisplayDate().getTime();
+            messages.put(date, messagePlus);
+            minMaxPair.minDate = minMaxPair.minDate != null ? Math.min(minMaxPair.minDate, date) : date;
+            minMaxPair.maxDate = minMaxPair.maxDate != null ? Math.max(minMaxPair.maxDate, date) : date;
+            if(!messagePlus.isUnsent()) {
+                int id = Integer.parseInt(messagePlus.getMessage().getId());
+                if(minMaxPair.minId == null || id < Integer.parseInt(minMaxPair.minId)) {
+                    minMaxPair.minId = String.valueOf(id);
+                }
+                if(minMaxPair.maxId == null || id > Integer.parseInt(minMaxPair.maxId)) {
+                    minMaxPair.maxId = String.valueOf(id);
+                }
+            }
+        }
+        return batch;
     }
 
     /**
@@ -1789,17 +2650,240 @@ public class ADNDatabase {
     }
 
     public OrderedMessageBatch getMessages(String channelId, Date beforeDate, int limit) {
-        String where = COL_MESSAGE_CHANNEL_ID + " =?";
-        String[] args = null;
+        return getMessages(channelId, beforeDate, limit, null);
+    }
 
-        if(beforeDate != null) {
-            where += " AND " + "CAST(" + COL_MESSAGE_DATE + " AS INTEGER)" + " < ?";
-            args = new String[] { channelId,  String.valueOf(beforeDate.getTime()) };
-        } else {
-            args = new String[] { channelId };
+    /**
+     * Get Messages in a Channel, excluding those that don't satisfy a PredicateMessageFilter.
+     * This returns Messages in reverse chronological order.<br><br>
+     *
+     * The filter's predicates are compiled into the WHERE clause of the query where they can be,
+     * so that most excluded Messages are never decoded. Required annotation types, required
+     * hashtags, and the machine-only predicate are matched against the persisted Message JSON;
+     * excluded annotation types, excluded hashtags, and compressed Messages can't be decided this
+     * way, so every decoded Message is also checked with the filter, and further pages are read
+     * until limit Messages have matched (or the Channel is exhausted). Excluded Messages never
+     * count toward the limit and are not part of the returned batch.<br><br>
+     *
+     * The MinMaxPair of the returned batch covers every Message that was scanned, including the
+     * ones the filter excluded, so it can be used to page further back or to request newer
+     * Messages from the server.
+     *
+     * @param channelId the id of the Channel
+     * @param beforeDate the date before the display date of all returned messages. Can be null.
+     * @param limit the maximum number of Messages to return
+     * @param filter the PredicateMessageFilter to apply. Can be null.
+     * @return an OrderedMessagesBatch containing messages in the specified Channel.
+     */
+    public OrderedMessageBatch getMessages(String channelId, Date beforeDate, int limit, PredicateMessageFilter filter) {
+        MessageQuery query = MessageQuery.MessageQueryBuilder.newBuilder(channelId)
+                .setBeforeDate(beforeDate)
+                .setFilter(filter)
+                .setLimit(limit)
+                .build();
+        return getMessages(query);
+    }
+
+    /**
+     * Get the Messages matching a MessageQuery. This returns Messages in reverse chronological order.<br><br>
+     *
+     * All criteria are compiled into a single query against the messages table; criteria on the
+     * instances and search tables become indexed sub-selects, so no Message ids are collected
+     * in memory.
+     *
+     * @param query the MessageQuery
+     * @return an OrderedMessageBatch containing the Messages that match all criteria of the query.
+     *
+     * @see com.alwaysallthetime.messagebeast.db.MessageQuery
+     */
+    public OrderedMessageBatch getMessages(MessageQuery query) {
+        //message_date is compared uncast so that the (channel_id, message_date) index serves the range.
+        StringBuilder where = new StringBuilder(COL_MESSAGE_CHANNEL_ID + " =?");
+        ArrayList<String> args = new ArrayList<String>();
+        String channelId = query.getChannelId();
+        args.add(channelId);
+
+        if(query.getBeforeDate() != null) {
+            where.append(" AND " + COL_MESSAGE_DATE + " < ?");
+            args.add(String.valueOf(query.getBeforeDate().getTime()));
+        }
+        if(query.getSinceDate() != null) {
+            where.append(" AND " + COL_MESSAGE_DATE + " >= ?");
+            args.add(String.valueOf(query.getSinceDate().getTime()));
+        }
+        if(query.getTextQuery() != null) {
+            where.append(" AND " + COL_MESSAGE_ID + " IN (SELECT docid FROM " + TABLE_MESSAGES_SEARCH +
+                    " WHERE " + COL_MESSAGE_TEXT + " MATCH ?)");
+            args.add(query.getTextQuery());
+        }
+        for(String hashtag : query.getHashtags()) {
+            where.append(" AND " + COL_MESSAGE_MESSAGE_ID + " IN (SELECT " + COL_HASHTAG_INSTANCE_MESSAGE_ID + " FROM " + TABLE_HASHTAG_INSTANCES +
+                    " WHERE " + COL_HASHTAG_INSTANCE_NAME + " = ? AND " + COL_HASHTAG_INSTANCE_CHANNEL_ID + " = ?)");
+            args.add(hashtag);
+            args.add(channelId);
+        }
+        for(String type : query.getAnnotationTypes()) {
+            where.append(" AND " + COL_MESSAGE_MESSAGE_ID + " IN (SELECT " + COL_ANNOTATION_INSTANCE_MESSAGE_ID + " FROM " + TABLE_ANNOTATION_INSTANCES +
+                    " WHERE " + COL_ANNOTATION_INSTANCE_TYPE + " = ? AND " + COL_ANNOTATION_INSTANCE_CHANNEL_ID + " = ?)");
+            args.add(type);
+            args.add(channelId);
+        }
+        for(Map.Entry<AnnotationValuePath, String> entry : query.getAnnotationValues().entrySet()) {
+            AnnotationValuePath path = entry.getKey();
+            where.append(" AND " + COL_MESSAGE_MESSAGE_ID + " IN (SELECT " + COL_ANNOTATION_VALUE_MESSAGE_ID + " FROM " + TABLE_ANNOTATION_VALUES +
+                    " WHERE " + COL_ANNOTATION_VALUE_CHANNEL_ID + " = ? AND " + COL_ANNOTATION_VALUE_TYPE + " = ? AND " +
+                    COL_ANNOTATION_VALUE_PATH + " = ? AND " + COL_ANNOTATION_VALUE_VALUE + " = ?)");
+            args.add(channelId);
+            args.add(path.getType());
+            args.add(path.getKeyPath());
+            args.add(entry.getValue());
+        }
+        DisplayLocation location = query.getDisplayLocation();
+        if(location != null) {
+            int precisionDigits = LocationPrecision.getNumPrecisionDigits(query.getLocationPrecision());
+            where.append(" AND " + COL_MESSAGE_MESSAGE_ID + " IN (SELECT " + COL_LOCATION_INSTANCE_MESSAGE_ID + " FROM " + TABLE_LOCATION_INSTANCES +
+                    " WHERE " + COL_LOCATION_INSTANCE_CHANNEL_ID + " = ? AND " + COL_LOCATION_INSTANCE_NAME + " = ? AND " +
+                    COL_LOCATION_INSTANCE_LATITUDE + " LIKE ? AND " + COL_LOCATION_INSTANCE_LONGITUDE + " LIKE ?)");
+            args.add(channelId);
+            args.add(location.getName());
+            args.add(String.format("%s%%", String.valueOf(getRoundedValue(location.getLatitude(), precisionDigits))));
+            args.add(String.format("%s%%", String.valueOf(getRoundedValue(location.getLongitude(), precisionDigits))));
+        }
+        if(query.getDisplayLocationQuery() != null) {
+            where.append(" AND " + COL_MESSAGE_MESSAGE_ID + " IN (SELECT " + COL_LOCATION_INSTANCE_MESSAGE_ID + " FROM " + TABLE_LOCATION_INSTANCES_SEARCH +
+                    " WHERE " + COL_LOCATION_INSTANCE_NAME + " MATCH ?)");
+            args.add(query.getDisplayLocationQuery());
         }
         String orderBy = COL_MESSAGE_DATE + " DESC";
-        return getMessages(where, args, orderBy, String.valueOf(limit));
+        String limit = query.getLimit() != null ? String.valueOf(query.getLimit()) : null;
+        if(query.getFilter() == null) {
+            return getMessages(where.toString(), args.toArray(new String[args.size()]), orderBy, limit);
+        }
+
+        String unfilteredWhere = where.toString();
+        ArrayList<String> unfilteredArgs = new ArrayList<String>(args);
+        PredicateMessageFilter filter = query.getFilter();
+        appendFilterClause(filter, where, args);
+
+        //the WHERE clause only narrows the results, so every decoded Message is checked against
+        //the filter, and further pages are read until limit Messages have matched.
+        TreeMap<Long, MessagePlus> messages = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
+        Long oldestScannedDate = null;
+        while(true) {
+            String pageWhere = where.toString();
+            ArrayList<String> pageArgs = new ArrayList<String>(args);
+            if(oldestScannedDate != null) {
+                pageWhere += " AND " + COL_MESSAGE_DATE + " < ?";
+                pageArgs.add(String.valueOf(oldestScannedDate));
+            }
+            TreeMap<Long, MessagePlus> page = getMessages(pageWhere, pageArgs.toArray(new String[pageArgs.size()]), orderBy, limit).getMessages();
+            for(Map.Entry<Long, MessagePlus> entry : page.entrySet()) {
+                if(filter.matches(entry.getValue())) {
+                    messages.put(entry.getKey(), entry.getValue());
+                    if(query.getLimit() != null && messages.size() >= query.getLimit()) {
+                        break;
+                    }
+                }
+            }
+            if(query.getLimit() == null || messages.size() >= query.getLimit() || page.size() < query.getLimit()) {
+                break;
+            }
+            oldestScannedDate = page.lastKey();
+        }
+
+        //the Messages that were excluded by the filter were still scanned, so the bounds of the
+        //batch must cover them too – otherwise the next page (or the next server request) would
+        //start inside the range that was already covered. a full page covers everything down to
+        //its oldest Message; a partial page covers everything.
+        if(query.getLimit() != null && messages.size() >= query.getLimit()) {
+            unfilteredWhere += " AND " + COL_MESSAGE_DATE + " >= ?";
+            unfilteredArgs.add(String.valueOf(messages.lastKey()));
+        }
+        MinMaxPair unfilteredMinMaxPair = getMinMaxPair(unfilteredWhere, unfilteredArgs.toArray(new String[unfilteredArgs.size()]));
+        return new OrderedMessageBatch(messages, unfilteredMinMaxPair);
+    }
+
+    private MinMaxPair getMinMaxPair(String where, String[] args) {
+        MinMaxPair minMaxPair = new MinMaxPair();
+        Cursor cursor = null;
+        try {
+            String sentId = "CASE WHEN " + COL_MESSAGE_UNSENT + " = 0 THEN CAST(" + COL_MESSAGE_MESSAGE_ID + " AS INTEGER) END";
+            String select = "SELECT MIN(" + sentId + "), MAX(" + sentId + "), " +
+                    "MIN(" + COL_MESSAGE_DATE + "), MAX(" + COL_MESSAGE_DATE + ")" +
+                    " FROM " + TABLE_MESSAGES + " WHERE " + where;
+            cursor = mDatabase.rawQuery(select, args);
+            if(cursor.moveToNext()) {
+                minMaxPair.minId = !cursor.isNull(0) ? String.valueOf(cursor.getInt(0)) : null;
+                minMaxPair.maxId = !cursor.isNull(1) ? String.valueOf(cursor.getInt(1)) : null;
+                minMaxPair.minDate = !cursor.isNull(2) ? cursor.getLong(2) : null;
+                minMaxPair.maxDate = !cursor.isNull(3) ? cursor.getLong(3) : null;
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+        return minMaxPair;
+    }
+
+    private void appendFilterClause(PredicateMessageFilter filter, StringBuilder where, List<String> args) {
+        Boolean unsent = filter.getUnsent();
+        if(unsent != null) {
+            where.append(" AND " + COL_MESSAGE_UNSENT + " = " + (unsent ? 1 : 0));
+        }
+        if(filter.getSinceDate() != null) {
+            where.append(" AND " + COL_MESSAGE_DATE + " >= ?");
+            args.add(String.valueOf(filter.getSinceDate().getTime()));
+        }
+        if(filter.getBeforeDate() != null) {
+            where.append(" AND " + COL_MESSAGE_DATE + " < ?");
+            args.add(String.valueOf(filter.getBeforeDate().getTime()));
+        }
+
+        //a key/value pair can only appear unescaped in the JSON as an actual key/value pair,
+        //but it may belong to a nested object (e.g. an annotation value). requirements therefore
+        //only narrow the results here and are confirmed after decoding. excluding machine-only
+        //Messages assumes no nested object uses a machine_only key. compressed JSON can't be
+        //matched, so compressed Messages are always left to the check after decoding.
+        String compressed = COL_MESSAGE_PAYLOAD + " IS NOT NULL";
+        Boolean machineOnly = filter.getMachineOnly();
+        if(machineOnly != null) {
+            where.append(" AND (" + compressed + " OR " + COL_MESSAGE_JSON + (machineOnly ? " LIKE ?" : " NOT LIKE ?") + " ESCAPE '\\')");
+            args.add(getJsonLikePattern("machine_only", "true", false));
+        }
+        for(String type : filter.getRequiredAnnotationTypes()) {
+            String pattern = getJsonLikePattern("type", type, true);
+            if(pattern != null) {
+                where.append(" AND (" + compressed + " OR " + COL_MESSAGE_JSON + " LIKE ? ESCAPE '\\')");
+                args.add(pattern);
+            }
+        }
+        for(String hashtag : filter.getRequiredHashtags()) {
+            String pattern = getJsonLikePattern("name", hashtag, true);
+            if(pattern != null) {
+                where.append(" AND (" + compressed + " OR " + COL_MESSAGE_JSON + " LIKE ? ESCAPE '\\')");
+                args.add(pattern);
+            }
+        }
+    }
+
+    private static String getJsonLikePattern(String key, String value, boolean isStringValue) {
+        //skip values that Gson would escape; we can't predict how they are stored.
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c < 0x20 || c == '"' || c == '\\' || c == '<' || c == '>' || c == '&' || c == '=' || c == '\'') {
+                return null;
+            }
+        }
+        String quote = isStringValue ? "\"" : "";
+        return "%\"" + escapeLikePattern(key) + "\":" + quote + escapeLikePattern(value) + quote + "%";
+    }
+
+    //for use with ESCAPE '\\'; keys such as machine_only contain the _ wildcard, too.
+    private static String escapeLikePattern(String string) {
+        return string.replace("%", "\\%").replace("_", "\\_");
     }
 
     private OrderedMessageBatch getMessages(String where, String[] args, String orderBy, String limit) {
@@ -1807,6 +2891,7 @@ public class ADNDatabase {
         ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>();
         Long maxDate = null, minDate = null;
         Integer maxId = null, minId = null;
+        long cacheGeneration = mMessageCache.getGeneration();
 
         Cursor cursor = null;
         try {
@@ -1822,8 +2907,9 @@ public class ADNDatabase {
                 String messageText = cursor.getString(5);
                 boolean isUnsent = cursor.getInt(6) == 1;
                 int numSendAttempts = cursor.getInt(7);
-                Message message = mGson.fromJson(messageJson, Message.class);
-                message.setText(messageText);
+                byte[] payload = cursor.getBlob(10);
+                Long dictionaryId = !cursor.isNull(11) ? cursor.getLong(11) : null;
+                Message message = decodeMessage(cursor.getString(2), messageJson, payload, dictionaryId, messageText, cursor.getString(8), cursor.getString(9));
 
                 MessagePlus messagePlus = new MessagePlus(message);
                 messagePlus.setDisplayDate(new Date(date));
@@ -1868,6 +2954,9 @@ public class ADNDatabase {
             }
         }
         populatePendingFileAttachments(messagePlusses);
+        for(MessagePlus messagePlus : messages.values()) {
+            putInMessageCache(messagePlus, cacheGeneration);
+        }
         String minIdString = minId != null ? String.valueOf(minId) : null;
         String maxIdString = maxId != null ? String.valueOf(maxId) : null;
         return new OrderedMessageBatch(messages, new MinMaxPair(minIdString, maxIdString, minDate, maxDate));
@@ -1954,7 +3043,7 @@ public class ADNDatabase {
         try {
             String where = COL_MESSAGE_CHANNEL_ID + " = ? AND " + COL_MESSAGE_UNSENT + " = ?";
             String[] args = new String[] { channelId, String.valueOf(1) };
-            String[] cols = new String[] {COL_MESSAGE_DATE, COL_MESSAGE_JSON, COL_MESSAGE_TEXT, COL_MESSAGE_SEND_ATTEMPTS };
+            String[] cols = new String[] {COL_MESSAGE_DATE, COL_MESSAGE_JSON, COL_MESSAGE_TEXT, COL_MESSAGE_SEND_ATTEMPTS, COL_MESSAGE_USER_ID, COL_MESSAGE_USER_VERSION, COL_MESSAGE_PAYLOAD, COL_MESSAGE_PAYLOAD_DICTIONARY_ID };
             String orderBy = COL_MESSAGE_DATE + " ASC";
 
             cursor = mDatabase.query(TABLE_MESSAGES, cols, where, args, null, null, orderBy, null);
@@ -1964,8 +3053,9 @@ public class ADNDatabase {
                 String messageText = cursor.getString(2);
                 int sendAttempts = cursor.getInt(3);
 
-                Message message = mGson.fromJson(messageJson, Message.class);
-                message.setText(messageText);
+                byte[] payload = cursor.getBlob(6);
+                Long dictionaryId = !cursor.isNull(7) ? cursor.getLong(7) : null;
+                Message message = decodeMessage(channelId, messageJson, payload, dictionaryId, messageText, cursor.getString(4), cursor.getString(5));
 
                 MessagePlus messagePlus = new MessagePlus(message);
                 messagePlus.setDisplayDate(new Date(date));
@@ -2064,12 +3154,113 @@ public class ADNDatabase {
         return deletions;
     }
 
+    /**
+     * Get the retry state of an item of outbound work.
+     *
+     * @param type the type of work
+     * @param itemId the id of the item
+     * @return the OutboundWork, or null if the item has no retry state.
+     */
+    public OutboundWork getOutboundWork(OutboundWork.Type type, String itemId) {
+        String where = COL_OUTBOUND_WORK_TYPE + " = ? AND " + COL_OUTBOUND_WORK_ITEM_ID + " = ?";
+        String[] args = new String[] { type.name(), itemId };
+        List<OutboundWork> work = getOutboundWork(where, args, null);
+        return work.size() > 0 ? work.get(0) : null;
+    }
+
+    /**
+     * Get the retry state of all items of outbound work of a type in a Channel.
+     *
+     * @param type the type of work
+     * @param channelId the Channel id
+     * @return a List of OutboundWork
+     */
+    public List<OutboundWork> getChannelOutboundWork(OutboundWork.Type type, String channelId) {
+        String where = COL_OUTBOUND_WORK_TYPE + " = ? AND " + COL_OUTBOUND_WORK_CHANNEL_ID + " = ?";
+        String[] args = new String[] { type.name(), channelId };
+        return getOutboundWork(where, args, null);
+    }
+
+    /**
+     * Get all outbound work that is due to be attempted at or before the provided time, ordered by
+     * next attempt time.
+     *
+     * @param time the time in millis
+     * @return a List of OutboundWork
+     */
+    public List<OutboundWork> getDueOutboundWork(long time) {
+        String where = COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME + " <= ?";
+        String[] args = new String[] { String.valueOf(time) };
+        return getOutboundWork(where, args, COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME + " ASC");
+    }
+
+    private List<OutboundWork> getOutboundWork(String where, String[] args, String orderBy) {
+        ArrayList<OutboundWork> work = new ArrayList<OutboundWork>();
+
+        Cursor cursor = null;
+        try {
+            String[] cols = new String[] { COL_OUTBOUND_WORK_TYPE, COL_OUTBOUND_WORK_ITEM_ID, COL_OUTBOUND_WORK_CHANNEL_ID, COL_OUTBOUND_WORK_ATTEMPTS, COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME };
+            cursor = mDatabase.query(TABLE_OUTBOUND_WORK, cols, where, args, null, null, orderBy, null);
+            while(cursor.moveToNext()) {
+                OutboundWork.Type type = OutboundWork.Type.valueOf(cursor.getString(0));
+                work.add(new OutboundWork(type, cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getLong(4)));
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+        return work;
+    }
+
+    /**
+     * Get the earliest time at which any outbound work should next be attempted.
+     *
+     * @return the time in millis, or null if there is no outbound work.
+     */
+    public Long getNextOutboundWorkTime() {
+        Long time = null;
+        Cursor cursor = null;
+        try {
+            String select = "SELECT MIN(" + COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME + ") FROM " + TABLE_OUTBOUND_WORK;
+            cursor = mDatabase.rawQuery(select, null);
+            if(cursor.moveToNext() && !cursor.isNull(0)) {
+                time = cursor.getLong(0);
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Make all outbound work that is scheduled after the provided time due at that time.
+     * The number of attempts made for each item is left unchanged.
+     *
+     * @param time the time in millis
+     */
+    public void setAllOutboundWorkDue(long time) {
+        ContentValues values = new ContentValues(1);
+        values.put(COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME, time);
+        String where = COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME + " > ?";
+        String[] args = new String[] { String.valueOf(time) };
+        mDatabase.update(TABLE_OUTBOUND_WORK, values, where, args);
+    }
+
     /**
      * Delete all rows from all tables.
      */
     public void deleteAll() {
         mDatabase.delete(TABLE_ACTION_MESSAGES, null, null);
+        mDatabase.delete(TABLE_ACTION_MESSAGE_COUNTS, null, null);
         mDatabase.delete(TABLE_ANNOTATION_INSTANCES, null, null);
+        mDatabase.delete(TABLE_ANNOTATION_VALUES, null, null);
         mDatabase.delete(TABLE_GEOLOCATIONS, null, null);
         mDatabase.delete(TABLE_HASHTAG_INSTANCES, null, null);
         mDatabase.delete(TABLE_LOCATION_INSTANCES, null, null);
@@ -2081,7 +3272,19 @@ public class ADNDatabase {
         mDatabase.delete(TABLE_PENDING_FILE_DELETIONS, null, null);
         mDatabase.delete(TABLE_PENDING_FILES, null, null);
         mDatabase.delete(TABLE_PENDING_MESSAGE_DELETIONS, null, null);
+        mDatabase.delete(TABLE_OUTBOUND_WORK, null, null);
         mDatabase.delete(TABLE_PLACES, null, null);
+        mDatabase.delete(TABLE_USERS, null, null);
+        synchronized(mSharedUsers) {
+            mSharedUsers.clear();
+        }
+        mDatabase.delete(TABLE_PAYLOAD_DICTIONARIES, null, null);
+        synchronized(mPayloadDictionaries) {
+            mPayloadDictionaries.clear();
+            mCurrentPayloadDictionaryId = null;
+        }
+        mStringPool.clear();
+        notifyMessagesWritten(null, null);
     }
 
     public void deleteMessage(MessagePlus messagePlus) {
@@ -2090,6 +3293,7 @@ public class ADNDatabase {
         try {
             Message message = messagePlus.getMessage();
             String messageId = message.getId();
+            String userId = getMessageUserId(messageId);
             mDatabase.delete(TABLE_MESSAGES_SEARCH, COL_MESSAGE_MESSAGE_ID + " = '" + messageId + "'", null);
             mDatabase.delete(TABLE_LOCATION_INSTANCES_SEARCH, COL_LOCATION_INSTANCE_MESSAGE_ID + " = '" + messageId + "'", null);
             mDatabase.delete(TABLE_MESSAGES, COL_MESSAGE_MESSAGE_ID + " = '" + messageId + "'", null);
@@ -2110,12 +3314,33 @@ public class ADNDatabase {
 
             deleteAssociatedPendingFileAttachments(messagePlus);
 
+            if(userId != null) {
+                mDatabase.execSQL(DELETE_ORPHANED_USERS + " AND " + COL_USER_ID + " = ?", new Object[] { userId });
+            }
+
             mDatabase.setTransactionSuccessful();
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
         } finally {
             mDatabase.endTransaction();
+            notifyMessagesWritten(messagePlus.getMessage().getChannelId(), messagePlus.getMessage().getId());
+        }
+    }
+
+    private String getMessageUserId(String messageId) {
+        Cursor cursor = null;
+        try {
+            String where = COL_MESSAGE_MESSAGE_ID + " = ?";
+            cursor = mDatabase.query(TABLE_MESSAGES, new String[] { COL_MESSAGE_USER_ID }, where, new String[] { messageId }, null, null, null, null);
+            if(cursor.moveToNext() && !cursor.isNull(0)) {
+                return cursor.getString(0);
+            }
+        } finally {
+            if(cursor != null) {
+                cursor.close();
+            }
         }
+        return null;
     }
 
     public void deleteMessageDraft(MessagePlus messagePlus) {
@@ -2142,10 +3367,39 @@ public class ADNDatabase {
         mDatabase.delete(TABLE_PENDING_MESSAGE_DELETIONS, COL_PENDING_MESSAGE_DELETION_MESSAGE_ID + " = '" + messageId + "'", null);
     }
 
+    /**
+     * Delete the pending Message deletions for the provided Message ids in a single transaction.
+     *
+     * @param messageIds the ids of the Messages that were deleted
+     */
+    public void deletePendingMessageDeletions(Collection<String> messageIds) {
+        if(messageIds.size() == 0) {
+            return;
+        }
+        mDatabase.beginTransaction();
+
+        try {
+            String where = COL_PENDING_MESSAGE_DELETION_MESSAGE_ID + " = ?";
+            for(String messageId : messageIds) {
+                mDatabase.delete(TABLE_PENDING_MESSAGE_DELETIONS, where, new String[] { messageId });
+            }
+            mDatabase.setTransactionSuccessful();
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
     public void deletePendingFileDeletion(String fileId) {
         mDatabase.delete(TABLE_PENDING_FILE_DELETIONS, COL_PENDING_FILE_DELETION_FILE_ID + " = '" + fileId + "'", null);
     }
 
+    public void deleteOutboundWork(OutboundWork.Type type, String itemId) {
+        String where = COL_OUTBOUND_WORK_TYPE + " = ? AND " + COL_OUTBOUND_WORK_ITEM_ID + " = ?";
+        mDatabase.delete(TABLE_OUTBOUND_WORK, where, new String[] { type.name(), itemId });
+    }
+
     private void deleteAnnotationInstances(String type, String messageId) {
         String where = COL_ANNOTATION_INSTANCE_TYPE + " = " + "'" + type + "' AND " + COL_ANNOTATION_INSTANCE_MESSAGE_ID + " = " + "'" + messageId + "'";
         mDatabase.delete(TABLE_ANNOTATION_INSTANCES, where, null);
@@ -2154,6 +3408,7 @@ public class ADNDatabase {
     private void deleteAnnotationInstances(String messageId) {
         String where = COL_ANNOTATION_INSTANCE_MESSAGE_ID + " = " + "'" + messageId + "'";
         mDatabase.delete(TABLE_ANNOTATION_INSTANCES, where, null);
+        mDatabase.delete(TABLE_ANNOTATION_VALUES, COL_ANNOTATION_VALUE_MESSAGE_ID + " = '" + messageId + "'", null);
     }
 
     public void deleteMessages(String channelId) {
@@ -2162,11 +3417,15 @@ public class ADNDatabase {
         try {
             mDatabase.delete(TABLE_MESSAGES, COL_MESSAGE_CHANNEL_ID + " = '" + channelId + "'", null);
             mDatabase.delete(TABLE_HASHTAG_INSTANCES, COL_HASHTAG_INSTANCE_CHANNEL_ID + " = '" + channelId + "'", null);
+            mDatabase.delete(TABLE_ANNOTATION_INSTANCES, COL_ANNOTATION_INSTANCE_CHANNEL_ID + " = '" + channelId + "'", null);
+            mDatabase.delete(TABLE_ANNOTATION_VALUES, COL_ANNOTATION_VALUE_CHANNEL_ID + " = '" + channelId + "'", null);
+            mDatabase.execSQL(DELETE_ORPHANED_USERS);
             mDatabase.setTransactionSuccessful();
         } catch(Exception e) {
             Log.e(TAG, e.getMessage(), e);
         } finally {
             mDatabase.endTransaction();
+            notifyMessagesWritten(channelId, null);
         }
     }
 
@@ -2175,6 +3434,29 @@ public class ADNDatabase {
         mDatabase.delete(TABLE_ACTION_MESSAGES, where, null);
     }
 
+    /**
+     * Delete the ActionMessageSpecs for many target Messages in one Action Channel, in a
+     * single transaction.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @param targetMessageIds the ids of the target Messages
+     */
+    public void deleteActionMessageSpecs(String actionChannelId, Collection<String> targetMessageIds) {
+        mDatabase.beginTransaction();
+
+        try {
+            String where = COL_ACTION_MESSAGE_CHANNEL_ID + " = ? AND " + COL_ACTION_MESSAGE_TARGET_MESSAGE_ID + " = ?";
+            for(String targetMessageId : targetMessageIds) {
+                mDatabase.delete(TABLE_ACTION_MESSAGES, where, new String[] { actionChannelId, targetMessageId });
+            }
+            mDatabase.setTransactionSuccessful();
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
     public void deleteActionMessageSpec(String actionMessageId) {
         String where = COL_ACTION_MESSAGE_ID + " = '" + actionMessageId + "'";
         mDatabase.delete(TABLE_ACTION_MESSAGES, where, null);
@@ -2206,6 +3488,8 @@ public class ADNDatabase {
             Log.e(TAG, e.getMessage(), e);
         } finally {
             mDatabase.endTransaction();
+            //pending file attachments are part of a persisted MessagePlus.
+            notifyMessagesWritten(null, messageId);
         }
     }
 
@@ -17,7 +17,11 @@ public class ADNDatabaseOpenHelper extends SQLiteOpenHelper {
             ADNDatabase.COL_MESSAGE_JSON + " TEXT NOT NULL, " +
             ADNDatabase.COL_MESSAGE_TEXT + " TEXT, " +
             ADNDatabase.COL_MESSAGE_UNSENT + " BOOLEAN, " +
-            ADNDatabase.COL_MESSAGE_SEND_ATTEMPTS + " INTEGER " +
+            ADNDatabase.COL_MESSAGE_SEND_ATTEMPTS + " INTEGER, " +
+            ADNDatabase.COL_MESSAGE_USER_ID + " TEXT, " +
+            ADNDatabase.COL_MESSAGE_USER_VERSION + " TEXT, " +
+            ADNDatabase.COL_MESSAGE_PAYLOAD + " BLOB, " +
+            ADNDatabase.COL_MESSAGE_PAYLOAD_DICTIONARY_ID + " INTEGER " +
             ")";
 
     private static final String CREATE_MESSAGE_DRAFTS_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_MESSAGE_DRAFTS + "(" +
@@ -120,6 +124,93 @@ public class ADNDatabaseOpenHelper extends SQLiteOpenHelper {
             ADNDatabase.COL_ACTION_MESSAGE_TARGET_MESSAGE_DISPLAY_DATE + " INTEGER NOT NULL " +
             ")";
 
+    private static final String CREATE_ACTION_MESSAGE_COUNTS_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS + "(" +
+            ADNDatabase.COL_ACTION_MESSAGE_COUNT_CHANNEL_ID + " TEXT PRIMARY KEY, " +
+            ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " INTEGER NOT NULL " +
+            ")";
+
+    //
+    //the action message counts are maintained by triggers, so that no write path can miss them.
+    //an INSERT OR REPLACE that replaces a spec does not fire the delete trigger, so the
+    //replaced spec is uncounted before the insert. the increment is a single INSERT OR REPLACE
+    //because the conflict clause of the outer statement would override one in the trigger.
+    //
+    private static final String CREATE_ACTION_MESSAGE_COUNT_REPLACE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ADNDatabase.TRIGGER_ACTION_MESSAGE_COUNT_REPLACE +
+            " BEFORE INSERT ON " + ADNDatabase.TABLE_ACTION_MESSAGES + " BEGIN " +
+            "UPDATE " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS + " SET " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " = " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " - 1" +
+            " WHERE " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_CHANNEL_ID + " = (SELECT " + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + " FROM " + ADNDatabase.TABLE_ACTION_MESSAGES +
+            " WHERE " + ADNDatabase.COL_ACTION_MESSAGE_ID + " = NEW." + ADNDatabase.COL_ACTION_MESSAGE_ID + "); " +
+            "END";
+
+    private static final String CREATE_ACTION_MESSAGE_COUNT_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ADNDatabase.TRIGGER_ACTION_MESSAGE_COUNT_INSERT +
+            " AFTER INSERT ON " + ADNDatabase.TABLE_ACTION_MESSAGES + " BEGIN " +
+            "INSERT OR REPLACE INTO " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS + " VALUES (NEW." + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + ", " +
+            "COALESCE((SELECT " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " FROM " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS +
+            " WHERE " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_CHANNEL_ID + " = NEW." + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + "), 0) + 1); " +
+            "END";
+
+    private static final String CREATE_ACTION_MESSAGE_COUNT_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + ADNDatabase.TRIGGER_ACTION_MESSAGE_COUNT_DELETE +
+            " AFTER DELETE ON " + ADNDatabase.TABLE_ACTION_MESSAGES + " BEGIN " +
+            "UPDATE " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS + " SET " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " = " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_COUNT + " - 1" +
+            " WHERE " + ADNDatabase.COL_ACTION_MESSAGE_COUNT_CHANNEL_ID + " = OLD." + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + "; " +
+            "END";
+
+    private static final String POPULATE_ACTION_MESSAGE_COUNTS = "INSERT OR REPLACE INTO " + ADNDatabase.TABLE_ACTION_MESSAGE_COUNTS +
+            " SELECT " + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + ", COUNT(*) FROM " + ADNDatabase.TABLE_ACTION_MESSAGES +
+            " GROUP BY " + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID;
+
+    private static final String CREATE_OUTBOUND_WORK_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_OUTBOUND_WORK + "(" +
+            ADNDatabase.COL_OUTBOUND_WORK_TYPE + " TEXT NOT NULL, " +
+            ADNDatabase.COL_OUTBOUND_WORK_ITEM_ID + " TEXT NOT NULL, " +
+            ADNDatabase.COL_OUTBOUND_WORK_CHANNEL_ID + " TEXT, " +
+            ADNDatabase.COL_OUTBOUND_WORK_ATTEMPTS + " INTEGER NOT NULL, " +
+            ADNDatabase.COL_OUTBOUND_WORK_NEXT_ATTEMPT_TIME + " INTEGER NOT NULL, " +
+            "PRIMARY KEY(" + ADNDatabase.COL_OUTBOUND_WORK_TYPE + ", " + ADNDatabase.COL_OUTBOUND_WORK_ITEM_ID + ")" +
+            ")";
+
+    private static final String CREATE_USERS_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_USERS + "(" +
+            ADNDatabase.COL_USER_ID + " TEXT NOT NULL, " +
+            ADNDatabase.COL_USER_VERSION + " TEXT NOT NULL, " +
+            ADNDatabase.COL_USER_JSON + " TEXT NOT NULL, " +
+            "PRIMARY KEY(" + ADNDatabase.COL_USER_ID + ", " + ADNDatabase.COL_USER_VERSION + ")" +
+            ")";
+
+    private static final String CREATE_ANNOTATION_VALUES_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_ANNOTATION_VALUES + "(" +
+            ADNDatabase.COL_ANNOTATION_VALUE_TYPE + " TEXT NOT NULL, " +
+            ADNDatabase.COL_ANNOTATION_VALUE_PATH + " TEXT NOT NULL, " +
+            ADNDatabase.COL_ANNOTATION_VALUE_VALUE + " TEXT NOT NULL, " +
+            ADNDatabase.COL_ANNOTATION_VALUE_MESSAGE_ID + " TEXT NOT NULL, " +
+            ADNDatabase.COL_ANNOTATION_VALUE_CHANNEL_ID + " TEXT NOT NULL, " +
+            ADNDatabase.COL_ANNOTATION_VALUE_DATE + " INTEGER NOT NULL, " +
+            "PRIMARY KEY(" + ADNDatabase.COL_ANNOTATION_VALUE_TYPE + ", " + ADNDatabase.COL_ANNOTATION_VALUE_PATH + ", " +
+                             ADNDatabase.COL_ANNOTATION_VALUE_VALUE + ", " + ADNDatabase.COL_ANNOTATION_VALUE_MESSAGE_ID + ")" +
+            ")";
+
+    private static final String CREATE_PAYLOAD_DICTIONARIES_TABLE = "CREATE TABLE IF NOT EXISTS " + ADNDatabase.TABLE_PAYLOAD_DICTIONARIES + "(" +
+            ADNDatabase.COL_PAYLOAD_DICTIONARY_ID + " INTEGER PRIMARY KEY, " +
+            ADNDatabase.COL_PAYLOAD_DICTIONARY_BYTES + " BLOB NOT NULL " +
+            ")";
+
+    //serves Channel paging, and Channel-scoped MessageQueries, in display date order.
+    private static final String CREATE_MESSAGES_CHANNEL_DATE_INDEX = "CREATE INDEX IF NOT EXISTS " + ADNDatabase.INDEX_MESSAGES_CHANNEL_DATE +
+            " ON " + ADNDatabase.TABLE_MESSAGES + "(" + ADNDatabase.COL_MESSAGE_CHANNEL_ID + ", " + ADNDatabase.COL_MESSAGE_DATE + ")";
+
+    //serves the removal of User versions that are no longer referenced by any Message.
+    private static final String CREATE_MESSAGES_USER_INDEX = "CREATE INDEX IF NOT EXISTS " + ADNDatabase.INDEX_MESSAGES_USER +
+            " ON " + ADNDatabase.TABLE_MESSAGES + "(" + ADNDatabase.COL_MESSAGE_USER_ID + ", " + ADNDatabase.COL_MESSAGE_USER_VERSION + ")";
+
+    private static final String CREATE_LOCATION_INSTANCES_NAME_INDEX = "CREATE INDEX IF NOT EXISTS " + ADNDatabase.INDEX_LOCATION_INSTANCES_NAME +
+            " ON " + ADNDatabase.TABLE_LOCATION_INSTANCES + "(" + ADNDatabase.COL_LOCATION_INSTANCE_CHANNEL_ID + ", " + ADNDatabase.COL_LOCATION_INSTANCE_NAME + ")";
+
+    //serves lookups of Messages by Annotation value, in display date order.
+    private static final String CREATE_ANNOTATION_VALUES_LOOKUP_INDEX = "CREATE INDEX IF NOT EXISTS " + ADNDatabase.INDEX_ANNOTATION_VALUES_LOOKUP +
+            " ON " + ADNDatabase.TABLE_ANNOTATION_VALUES + "(" + ADNDatabase.COL_ANNOTATION_VALUE_CHANNEL_ID + ", " + ADNDatabase.COL_ANNOTATION_VALUE_TYPE + ", " +
+            ADNDatabase.COL_ANNOTATION_VALUE_PATH + ", " + ADNDatabase.COL_ANNOTATION_VALUE_VALUE + ", " + ADNDatabase.COL_ANNOTATION_VALUE_DATE + ")";
+
+    //serves paging through the target Messages of an Action Channel, in target display date order.
+    private static final String CREATE_ACTION_MESSAGES_TARGET_DATE_INDEX = "CREATE INDEX IF NOT EXISTS " + ADNDatabase.INDEX_ACTION_MESSAGES_TARGET_DATE +
+            " ON " + ADNDatabase.TABLE_ACTION_MESSAGES + "(" + ADNDatabase.COL_ACTION_MESSAGE_CHANNEL_ID + ", " + ADNDatabase.COL_ACTION_MESSAGE_TARGET_MESSAGE_DISPLAY_DATE + ")";
+
     public ADNDatabaseOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         super(context, name, factory, version);
     }
@@ -141,6 +232,19 @@ public class ADNDatabaseOpenHelper extends SQLiteOpenHelper {
             db.execSQL(CREATE_PENDING_FILE_DELETIONS_TABLE);
             db.execSQL(CREATE_PENDING_FILE_ATTACHMENTS_TABLE);
             db.execSQL(CREATE_ACTION_MESSAGES_TABLE);
+            db.execSQL(CREATE_OUTBOUND_WORK_TABLE);
+            db.execSQL(CREATE_USERS_TABLE);
+            db.execSQL(CREATE_PAYLOAD_DICTIONARIES_TABLE);
+            db.execSQL(CREATE_ANNOTATION_VALUES_TABLE);
+            db.execSQL(CREATE_MESSAGES_CHANNEL_DATE_INDEX);
+            db.execSQL(CREATE_LOCATION_INSTANCES_NAME_INDEX);
+            db.execSQL(CREATE_ANNOTATION_VALUES_LOOKUP_INDEX);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNTS_TABLE);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_REPLACE_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_INSERT_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_DELETE_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGES_TARGET_DATE_INDEX);
+            db.execSQL(CREATE_MESSAGES_USER_INDEX);
 
             if(ADNDatabase.isFullTextSearchAvailable()) {
                 db.execSQL(CREATE_MESSAGES_SEARCH_TABLE);
@@ -158,6 +262,41 @@ public class ADNDatabaseOpenHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if(oldVersion < 2) {
+            db.execSQL(CREATE_OUTBOUND_WORK_TABLE);
+        }
+        if(oldVersion < 3) {
+            db.execSQL(CREATE_MESSAGES_CHANNEL_DATE_INDEX);
+            db.execSQL(CREATE_LOCATION_INSTANCES_NAME_INDEX);
+        }
+        if(oldVersion < 4) {
+            //previously persisted Messages keep their embedded User; these columns remain null for them.
+            db.execSQL("ALTER TABLE " + ADNDatabase.TABLE_MESSAGES + " ADD COLUMN " + ADNDatabase.COL_MESSAGE_USER_ID + " TEXT");
+            db.execSQL("ALTER TABLE " + ADNDatabase.TABLE_MESSAGES + " ADD COLUMN " + ADNDatabase.COL_MESSAGE_USER_VERSION + " TEXT");
+            db.execSQL(CREATE_USERS_TABLE);
+        }
+        if(oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + ADNDatabase.TABLE_MESSAGES + " ADD COLUMN " + ADNDatabase.COL_MESSAGE_PAYLOAD + " BLOB");
+            db.execSQL("ALTER TABLE " + ADNDatabase.TABLE_MESSAGES + " ADD COLUMN " + ADNDatabase.COL_MESSAGE_PAYLOAD_DICTIONARY_ID + " INTEGER");
+            db.execSQL(CREATE_PAYLOAD_DICTIONARIES_TABLE);
+        }
+        if(oldVersion < 6) {
+            db.execSQL(CREATE_ANNOTATION_VALUES_TABLE);
+            db.execSQL(CREATE_ANNOTATION_VALUES_LOOKUP_INDEX);
+        }
+        if(oldVersion < 7) {
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNTS_TABLE);
+            db.execSQL(POPULATE_ACTION_MESSAGE_COUNTS);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_REPLACE_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_INSERT_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGE_COUNT_DELETE_TRIGGER);
+            db.execSQL(CREATE_ACTION_MESSAGES_TARGET_DATE_INDEX);
+        }
+        if(oldVersion < 8) {
+            //existing versions still include volatile fields; they remain valid, and are removed
+            //with the last Message that references them.
+            db.execSQL(CREATE_MESSAGES_USER_INDEX);
+        }
 
     }
 }
@@ -0,0 +1,40 @@
+package com.alwaysallthetime.messagebeast.db;
+
+/**
+ * AnnotationValueInstances is a MessageInstances in which all associated Messages have
+ * an Annotation with a common value at a given AnnotationValuePath.
+ */
+public class AnnotationValueInstances extends MessageInstances {
+    private AnnotationValuePath mPath;
+    private String mValue;
+
+    /**
+     * Construct a new AnnotationValueInstances.
+     *
+     * @param path the AnnotationValuePath associated with this AnnotationValueInstances
+     * @param value the value at the path that all associated Messages have in common
+     */
+    public AnnotationValueInstances(AnnotationValuePath path, String value) {
+        super();
+        mPath = path;
+        mValue = value;
+    }
+
+    public AnnotationValuePath getPath() {
+        return mPath;
+    }
+
+    /**
+     * Get the value that all of the associated Messages have in common.
+     *
+     * @return the value that all of the associated Messages have in common.
+     */
+    public String getValue() {
+        return mValue;
+    }
+
+    @Override
+    public String getName() {
+        return mPath + "=" + mValue;
+    }
+}
@@ -0,0 +1,121 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import com.alwaysallthetime.adnlib.data.Annotation;
+import com.alwaysallthetime.adnlib.data.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An AnnotationValuePath identifies a value within the Annotations of a given type: the
+ * Annotation type, plus the sequence of keys that lead from the Annotation's value to it. For
+ * example, the Factual id of a checkin is at type net.app.core.checkin, keys [factual_id].<br><br>
+ *
+ * When a path leads through a list, every element of the list is followed, so a path may match
+ * several values in one Annotation. Only String, number, and boolean values are matched.
+ *
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#addAnnotationValueIndex(String, String...)
+ */
+public class AnnotationValuePath {
+    private String mType;
+    private List<String> mKeys;
+
+    /**
+     * Construct a new AnnotationValuePath.
+     *
+     * @param annotationType the Annotation type
+     * @param keys the keys that lead from the Annotation's value to the value of interest
+     */
+    public AnnotationValuePath(String annotationType, String... keys) {
+        if(keys.length == 0) {
+            throw new IllegalArgumentException("an AnnotationValuePath requires at least one key");
+        }
+        mType = annotationType;
+        mKeys = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(keys)));
+    }
+
+    public String getType() {
+        return mType;
+    }
+
+    public List<String> getKeys() {
+        return mKeys;
+    }
+
+    /**
+     * @return the keys of this path, joined by periods. This is how the path is persisted.
+     */
+    public String getKeyPath() {
+        StringBuilder path = new StringBuilder();
+        for(String key : mKeys) {
+            if(path.length() > 0) {
+                path.append('.');
+            }
+            path.append(key);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Get the values at this path in all Annotations of this path's type in a Message.
+     *
+     * @param message the Message
+     * @return the values, as Strings. Numbers without a fractional part are written as integers.
+     */
+    public List<String> getValues(Message message) {
+        List<String> values = new ArrayList<String>(1);
+        if(message.hasAnnotations()) {
+            for(Annotation annotation : message.getAnnotationsOfType(mType)) {
+                collectValues(annotation.getValue(), 0, values);
+            }
+        }
+        return values;
+    }
+
+    private void collectValues(Object node, int keyIndex, List<String> values) {
+        if(node instanceof List) {
+            for(Object element : (List<?>) node) {
+                collectValues(element, keyIndex, values);
+            }
+        } else if(keyIndex < mKeys.size()) {
+            if(node instanceof Map) {
+                collectValues(((Map<?, ?>) node).get(mKeys.get(keyIndex)), keyIndex + 1, values);
+            }
+        } else if(node instanceof String || node instanceof Boolean) {
+            values.add(node.toString());
+        } else if(node instanceof Number) {
+            //Gson decodes all JSON numbers as doubles.
+            double number = ((Number) node).doubleValue();
+            if(number == Math.rint(number) && !Double.isInfinite(number)) {
+                values.add(String.valueOf((long) number));
+            } else {
+                values.add(String.valueOf(number));
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof AnnotationValuePath)) {
+            return false;
+        }
+        AnnotationValuePath other = (AnnotationValuePath) o;
+        return mType.equals(other.mType) && mKeys.equals(other.mKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mType.hashCode() + mKeys.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mType + ":" + getKeyPath();
+    }
+}
@@ -0,0 +1,136 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A MessageCache is a size-bounded, least-recently-used cache of decoded MessagePlus objects,
+ * keyed by Message id. The ADNDatabase reads through it for all lookups by Message id, and
+ * evicts entries whenever the corresponding persisted Messages are written.<br><br>
+ *
+ * MessagePlus objects in the cache are shared by everyone who looks them up.
+ */
+public class MessageCache {
+
+    public static final int DEFAULT_MAX_SIZE = 512;
+
+    private int mMaxSize;
+    private LinkedHashMap<String, MessagePlus> mMessages;
+
+    private long mGeneration;
+
+    private int mNumHits;
+    private int mNumMisses;
+
+    MessageCache(int maxSize) {
+        mMaxSize = maxSize;
+        mMessages = new LinkedHashMap<String, MessagePlus>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MessagePlus> eldest) {
+                return size() > mMaxSize;
+            }
+        };
+    }
+
+    synchronized MessagePlus get(String messageId) {
+        MessagePlus messagePlus = mMessages.get(messageId);
+        if(messagePlus != null) {
+            mNumHits++;
+        } else {
+            mNumMisses++;
+        }
+        return messagePlus;
+    }
+
+    synchronized void put(MessagePlus messagePlus) {
+        if(mMaxSize > 0) {
+            mMessages.put(messagePlus.getMessage().getId(), messagePlus);
+        }
+    }
+
+    /**
+     * @return a value that changes whenever cached Messages are invalidated.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache a MessagePlus that was decoded from the database, unless Messages were written
+     * since the read began (in which case it may already be stale).
+     *
+     * @param messagePlus the MessagePlus
+     * @param generation the value of getGeneration() before the read began
+     */
+    synchronized void putIfCurrent(MessagePlus messagePlus, long generation) {
+        if(generation == mGeneration) {
+            put(messagePlus);
+        }
+    }
+
+    /**
+     * Evict cached Messages.
+     *
+     * @param channelId the id of the Channel whose Messages should be evicted, or null if
+     *                  Messages in any Channel should be evicted
+     * @param messageId the id of the Message to evict, or null if all Messages (in the specified
+     *                  Channel, if any) should be evicted
+     */
+    synchronized void invalidate(String channelId, String messageId) {
+        mGeneration++;
+        if(messageId != null) {
+            mMessages.remove(messageId);
+        } else if(channelId != null) {
+            Iterator<MessagePlus> iterator = mMessages.values().iterator();
+            while(iterator.hasNext()) {
+                if(channelId.equals(iterator.next().getMessage().getChannelId())) {
+                    iterator.remove();
+                }
+            }
+        } else {
+            mMessages.clear();
+        }
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        Iterator<String> iterator = mMessages.keySet().iterator();
+        while(mMessages.size() > mMaxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the number of Messages currently in the cache.
+     */
+    public synchronized int size() {
+        return mMessages.size();
+    }
+
+    /**
+     * @return the number of lookups by Message id that were served from the cache.
+     */
+    public synchronized int getNumHits() {
+        return mNumHits;
+    }
+
+    /**
+     * @return the number of lookups by Message id that had to read from the database.
+     */
+    public synchronized int getNumMisses() {
+        return mNumMisses;
+    }
+
+    /**
+     * @return the fraction of lookups by Message id that were served from the cache,
+     * or 0 if there have been no lookups.
+     */
+    public synchronized float getHitRate() {
+        int numLookups = mNumHits + mNumMisses;
+        return numLookups > 0 ? (float) mNumHits / numLookups : 0;
+    }
+}
@@ -0,0 +1,257 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import com.alwaysallthetime.messagebeast.filter.PredicateMessageFilter;
+import com.alwaysallthetime.messagebeast.model.DisplayLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MessageQuery describes a lookup of persisted Messages in a Channel by any combination of
+ * criteria: full-text search, hashtags, Annotation types and values, DisplayLocation, and
+ * display date.
+ * All criteria must be satisfied by a Message for it to be returned.<br><br>
+ *
+ * The ADNDatabase compiles a MessageQuery into a single statement against the messages table,
+ * so that Messages are decoded directly, in reverse chronological order, without first
+ * collecting ids from the instances tables.<br><br>
+ *
+ * Hashtag and Annotation type criteria are matched against the hashtag and Annotation instances
+ * that were extracted when the Messages were persisted, so the corresponding extraction must be
+ * enabled in the MessageManagerConfiguration. Likewise, DisplayLocation criteria require location
+ * lookup to be enabled.
+ *
+ * @see com.alwaysallthetime.messagebeast.db.ADNDatabase#getMessages(MessageQuery)
+ */
+public class MessageQuery {
+    private String mChannelId;
+    private String mTextQuery;
+    private String mDisplayLocationQuery;
+    private List<String> mHashtags;
+    private List<String> mAnnotationTypes;
+    private LinkedHashMap<AnnotationValuePath, String> mAnnotationValues;
+    private DisplayLocation mDisplayLocation;
+    private ADNDatabase.LocationPrecision mLocationPrecision;
+    private Date mSinceDate;
+    private Date mBeforeDate;
+    private PredicateMessageFilter mFilter;
+    private Integer mLimit;
+
+    private MessageQuery(String channelId) {
+        mChannelId = channelId;
+        mHashtags = new ArrayList<String>(1);
+        mAnnotationTypes = new ArrayList<String>(1);
+        mAnnotationValues = new LinkedHashMap<AnnotationValuePath, String>(1);
+    }
+
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    /**
+     * @return the full-text search query matched against Message text, or null if there is none.
+     */
+    public String getTextQuery() {
+        return mTextQuery;
+    }
+
+    /**
+     * @return the full-text search query matched against DisplayLocation names, or null if there is none.
+     */
+    public String getDisplayLocationQuery() {
+        return mDisplayLocationQuery;
+    }
+
+    /**
+     * @return the names of the hashtags that a Message must have.
+     */
+    public List<String> getHashtags() {
+        return Collections.unmodifiableList(mHashtags);
+    }
+
+    /**
+     * @return the Annotation types that a Message must have.
+     */
+    public List<String> getAnnotationTypes() {
+        return Collections.unmodifiableList(mAnnotationTypes);
+    }
+
+    /**
+     * @return the values that a Message must have at AnnotationValuePaths.
+     */
+    public Map<AnnotationValuePath, String> getAnnotationValues() {
+        return Collections.unmodifiableMap(mAnnotationValues);
+    }
+
+    /**
+     * @return the DisplayLocation that a Message must be associated with, or null if there is none.
+     */
+    public DisplayLocation getDisplayLocation() {
+        return mDisplayLocation;
+    }
+
+    public ADNDatabase.LocationPrecision getLocationPrecision() {
+        return mLocationPrecision;
+    }
+
+    /**
+     * @return the earliest display date (inclusive) of a returned Message, or null if there is none.
+     */
+    public Date getSinceDate() {
+        return mSinceDate;
+    }
+
+    /**
+     * @return the date before the display date (exclusive) of all returned Messages, or null if there is none.
+     */
+    public Date getBeforeDate() {
+        return mBeforeDate;
+    }
+
+    /**
+     * @return a PredicateMessageFilter whose predicates are added to the query, or null if there is none.
+     */
+    public PredicateMessageFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return the maximum number of Messages to return, or null if all should be returned.
+     */
+    public Integer getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * MessageQueryBuilder is used to construct MessageQuery objects.
+     */
+    public static class MessageQueryBuilder {
+        private String channelId;
+        private String textQuery;
+        private String displayLocationQuery;
+        private List<String> hashtags = new ArrayList<String>(1);
+        private List<String> annotationTypes = new ArrayList<String>(1);
+        private LinkedHashMap<AnnotationValuePath, String> annotationValues = new LinkedHashMap<AnnotationValuePath, String>(1);
+        private DisplayLocation displayLocation;
+        private ADNDatabase.LocationPrecision locationPrecision;
+        private Date sinceDate;
+        private Date beforeDate;
+        private PredicateMessageFilter filter;
+        private Integer limit;
+
+        public static MessageQueryBuilder newBuilder(String channelId) {
+            MessageQueryBuilder builder = new MessageQueryBuilder();
+            builder.channelId = channelId;
+            return builder;
+        }
+
+        /**
+         * Match Message text against a full-text search query. Requires
+         * ADNDatabase.isFullTextSearchAvailable().
+         */
+        public MessageQueryBuilder setTextQuery(String query) {
+            textQuery = query;
+            return this;
+        }
+
+        /**
+         * Match DisplayLocation names against a full-text search query. Requires
+         * ADNDatabase.isFullTextSearchAvailable().
+         */
+        public MessageQueryBuilder setDisplayLocationQuery(String query) {
+            displayLocationQuery = query;
+            return this;
+        }
+
+        public MessageQueryBuilder addHashtag(String hashtagName) {
+            hashtags.add(hashtagName);
+            return this;
+        }
+
+        public MessageQueryBuilder addAnnotationType(String annotationType) {
+            annotationTypes.add(annotationType);
+            return this;
+        }
+
+        /**
+         * Match Messages that have a value at an AnnotationValuePath. The path must be indexed
+         * in the MessageManagerConfiguration.
+         *
+         * @param path the AnnotationValuePath
+         * @param value the value, as a String. Numbers without a fractional part are written as integers.
+         *
+         * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#addAnnotationValueIndex(String, String...)
+         */
+        public MessageQueryBuilder addAnnotationValue(AnnotationValuePath path, String value) {
+            annotationValues.put(path, value);
+            return this;
+        }
+
+        /**
+         * Match Messages associated with a DisplayLocation.
+         *
+         * @param location the DisplayLocation
+         * @param precision the precision to use when comparing coordinates.
+         *
+         * @see com.alwaysallthetime.messagebeast.db.ADNDatabase#getDisplayLocationInstances(String, com.alwaysallthetime.messagebeast.model.DisplayLocation, com.alwaysallthetime.messagebeast.db.ADNDatabase.LocationPrecision)
+         */
+        public MessageQueryBuilder setDisplayLocation(DisplayLocation location, ADNDatabase.LocationPrecision precision) {
+            displayLocation = location;
+            locationPrecision = precision;
+            return this;
+        }
+
+        /**
+         * @param date the earliest display date (inclusive) of returned Messages. Can be null.
+         */
+        public MessageQueryBuilder setSinceDate(Date date) {
+            sinceDate = date;
+            return this;
+        }
+
+        /**
+         * @param date the date before the display date of all returned Messages. This is useful
+         *             for paging. Can be null.
+         */
+        public MessageQueryBuilder setBeforeDate(Date date) {
+            beforeDate = date;
+            return this;
+        }
+
+        /**
+         * @param messageFilter a PredicateMessageFilter whose predicates should be added to the query.
+         */
+        public MessageQueryBuilder setFilter(PredicateMessageFilter messageFilter) {
+            filter = messageFilter;
+            return this;
+        }
+
+        /**
+         * @param maxMessages the maximum number of Messages to return. Can be null.
+         */
+        public MessageQueryBuilder setLimit(Integer maxMessages) {
+            limit = maxMessages;
+            return this;
+        }
+
+        public MessageQuery build() {
+            MessageQuery query = new MessageQuery(channelId);
+            query.mTextQuery = textQuery;
+            query.mDisplayLocationQuery = displayLocationQuery;
+            query.mHashtags.addAll(hashtags);
+            query.mAnnotationTypes.addAll(annotationTypes);
+            query.mAnnotationValues.putAll(annotationValues);
+            query.mDisplayLocation = displayLocation;
+            query.mLocationPrecision = locationPrecision;
+            query.mSinceDate = sinceDate;
+            query.mBeforeDate = beforeDate;
+            query.mFilter = filter;
+            query.mLimit = limit;
+            return query;
+        }
+    }
+}
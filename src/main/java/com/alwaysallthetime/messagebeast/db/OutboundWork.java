@@ -0,0 +1,67 @@
+package com.alwaysallthetime.messagebeast.db;
+
+/**
+ * An OutboundWork describes the retry state of a single item of outbound work – an unsent
+ * Message, a pending Message deletion, a pending file upload, or a pending file deletion – that
+ * previously failed to reach the App.net servers.
+ *
+ * The item itself remains persisted in its own table; an OutboundWork only tracks when, and how
+ * many times, it should be retried.
+ */
+public class OutboundWork {
+
+    public enum Type {
+        UNSENT_MESSAGE,
+        MESSAGE_DELETION,
+        FILE_UPLOAD,
+        FILE_DELETION
+    }
+
+    private final Type mType;
+    private final String mItemId;
+    private final String mChannelId;
+    private final int mNumAttempts;
+    private final long mNextAttemptTime;
+
+    /**
+     * Construct an OutboundWork.
+     *
+     * @param type the type of work
+     * @param itemId the id of the Message, pending file, or file that the work applies to
+     * @param channelId the id of the Channel associated with the work, or null if there is none
+     * @param numAttempts the number of failed attempts made so far
+     * @param nextAttemptTime the time in millis at which the work should next be attempted
+     */
+    public OutboundWork(Type type, String itemId, String channelId, int numAttempts, long nextAttemptTime) {
+        mType = type;
+        mItemId = itemId;
+        mChannelId = channelId;
+        mNumAttempts = numAttempts;
+        mNextAttemptTime = nextAttemptTime;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public String getItemId() {
+        return mItemId;
+    }
+
+    /**
+     * Get the id of the Channel associated with the work.
+     *
+     * @return the id of the Channel associated with the work, or null if there is none.
+     */
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    public int getNumAttempts() {
+        return mNumAttempts;
+    }
+
+    public long getNextAttemptTime() {
+        return mNextAttemptTime;
+    }
+}
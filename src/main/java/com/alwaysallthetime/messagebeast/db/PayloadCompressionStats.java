@@ -0,0 +1,83 @@
+package com.alwaysallthetime.messagebeast.db;
+
+/**
+ * PayloadCompressionStats records, for one Channel, what reading its persisted Messages costs
+ * with and without payload compression: the bytes that compression saved, and the time spent
+ * decoding compressed and uncompressed Messages. Comparing the two indicates whether I/O or CPU
+ * is the bottleneck for the Channel.
+ *
+ * @see com.alwaysallthetime.messagebeast.db.ADNDatabase#setPayloadCompressionEnabled(String, boolean)
+ */
+public class PayloadCompressionStats {
+
+    private int mNumCompressedReads;
+    private int mNumUncompressedReads;
+    private long mNumCompressedBytes;
+    private long mNumInflatedBytes;
+    private long mCompressedDecodeNanos;
+    private long mUncompressedDecodeNanos;
+
+    PayloadCompressionStats() {
+    }
+
+    synchronized void recordCompressedRead(long numCompressedBytes, long numInflatedBytes, long decodeNanos) {
+        mNumCompressedReads++;
+        mNumCompressedBytes += numCompressedBytes;
+        mNumInflatedBytes += numInflatedBytes;
+        mCompressedDecodeNanos += decodeNanos;
+    }
+
+    synchronized void recordUncompressedRead(long decodeNanos) {
+        mNumUncompressedReads++;
+        mUncompressedDecodeNanos += decodeNanos;
+    }
+
+    /**
+     * @return the number of Messages read whose payload was compressed.
+     */
+    public synchronized int getNumCompressedReads() {
+        return mNumCompressedReads;
+    }
+
+    /**
+     * @return the number of Messages read whose payload was not compressed.
+     */
+    public synchronized int getNumUncompressedReads() {
+        return mNumUncompressedReads;
+    }
+
+    /**
+     * @return the number of bytes that were not read from the database because
+     * payloads were compressed.
+     */
+    public synchronized long getNumBytesSaved() {
+        return mNumInflatedBytes - mNumCompressedBytes;
+    }
+
+    /**
+     * @return the average time, in nanoseconds, to inflate and decode a compressed Message,
+     * or 0 if none have been read.
+     */
+    public synchronized long getAverageCompressedDecodeNanos() {
+        return mNumCompressedReads > 0 ? mCompressedDecodeNanos / mNumCompressedReads : 0;
+    }
+
+    /**
+     * @return the average time, in nanoseconds, to decode an uncompressed Message,
+     * or 0 if none have been read.
+     */
+    public synchronized long getAverageUncompressedDecodeNanos() {
+        return mNumUncompressedReads > 0 ? mUncompressedDecodeNanos / mNumUncompressedReads : 0;
+    }
+
+    /**
+     * @return the average extra time, in nanoseconds, that decoding a compressed Message took
+     * compared to an uncompressed one, or 0 if either kind has not been read.
+     */
+    public synchronized long getAverageExtraDecodeNanos() {
+        if(mNumCompressedReads == 0 || mNumUncompressedReads == 0) {
+            return 0;
+        }
+        return getAverageCompressedDecodeNanos() - getAverageUncompressedDecodeNanos();
+    }
+}
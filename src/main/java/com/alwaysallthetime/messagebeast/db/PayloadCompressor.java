@@ -0,0 +1,164 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * PayloadCompressor deflates persisted Message JSON against a preset dictionary that is
+ * trained from sample Messages. Because Message JSON is dominated by the same keys, Annotation
+ * types and values, a dictionary lets even a single short row compress well.<br><br>
+ *
+ * Payloads are raw deflate streams (no zlib header or checksum), so that the dictionary can be
+ * set up front and the payload can be inflated as a stream, directly into the JSON decoder.
+ */
+class PayloadCompressor {
+
+    /**
+     * The maximum size of a dictionary; deflate can only refer back this far.
+     */
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    //the shortest and longest JSON tokens worth putting in a dictionary.
+    private static final int MIN_TOKEN_LENGTH = 4;
+    private static final int MAX_TOKEN_LENGTH = 256;
+
+    /**
+     * Train a dictionary from sample Message JSON.<br><br>
+     *
+     * The dictionary is made of the JSON tokens (keys with their separators, and quoted values)
+     * that occur in more than one sample, weighted by the number of bytes they account for. The
+     * most valuable tokens are placed at the end of the dictionary, where deflate can refer to
+     * them with the shortest distances.
+     *
+     * @param samples the sample Message JSON
+     * @return the dictionary, or null if the samples have nothing in common.
+     */
+    static byte[] trainDictionary(List<String> samples) throws UnsupportedEncodingException {
+        final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for(String sample : samples) {
+            int tokenStart = -1;
+            boolean isEscaped = false;
+            for(int i = 0; i < sample.length(); i++) {
+                char c = sample.charAt(i);
+                if(tokenStart >= 0) {
+                    if(isEscaped) {
+                        isEscaped = false;
+                    } else if(c == '\\') {
+                        isEscaped = true;
+                    } else if(c == '"') {
+                        //include the separator that follows a key.
+                        int tokenEnd = i + 1 < sample.length() && sample.charAt(i + 1) == ':' ? i + 2 : i + 1;
+                        int length = tokenEnd - tokenStart;
+                        if(length >= MIN_TOKEN_LENGTH && length <= MAX_TOKEN_LENGTH) {
+                            String token = sample.substring(tokenStart, tokenEnd);
+                            Integer count = counts.get(token);
+                            counts.put(token, count != null ? count + 1 : 1);
+                        }
+                        tokenStart = -1;
+                    }
+                } else if(c == '"') {
+                    tokenStart = i;
+                }
+            }
+        }
+
+        List<String> tokens = new ArrayList<String>(counts.size());
+        for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if(entry.getValue() > 1) {
+                tokens.add(entry.getKey());
+            }
+        }
+        if(tokens.isEmpty()) {
+            return null;
+        }
+        Collections.sort(tokens, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                long lhsWeight = (long) counts.get(lhs) * lhs.length();
+                long rhsWeight = (long) counts.get(rhs) * rhs.length();
+                return lhsWeight < rhsWeight ? 1 : (lhsWeight > rhsWeight ? -1 : lhs.compareTo(rhs));
+            }
+        });
+
+        //take the most valuable tokens that fit, then reverse them so the best come last.
+        List<byte[]> selected = new ArrayList<byte[]>();
+        int size = 0;
+        for(String token : tokens) {
+            byte[] bytes = token.getBytes("UTF-8");
+            if(size + bytes.length <= MAX_DICTIONARY_SIZE) {
+                selected.add(bytes);
+                size += bytes.length;
+            }
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for(int i = selected.size() - 1; i >= 0; i--) {
+            byte[] bytes = selected.get(i);
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Compress Message JSON.
+     *
+     * @param json the Message JSON
+     * @param dictionary the dictionary to compress against
+     * @return the compressed payload
+     */
+    static byte[] compress(String json, byte[] dictionary) throws UnsupportedEncodingException {
+        byte[] input = json.getBytes("UTF-8");
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(dictionary);
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while(!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            //a raw inflater needs one byte past the end of the stream to detect the end.
+            output.write(0);
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Create an Inflater for a payload that was compressed against a dictionary. The caller
+     * must end() it when done.
+     *
+     * @param dictionary the dictionary the payload was compressed against
+     * @return the Inflater
+     */
+    static Inflater newInflater(byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        inflater.setDictionary(dictionary);
+        return inflater;
+    }
+
+    /**
+     * Get a stream of the inflated JSON of a compressed payload.
+     *
+     * @param payload the compressed payload
+     * @param inflater an Inflater obtained from newInflater()
+     * @return the stream of JSON bytes
+     */
+    static InputStream newInputStream(byte[] payload, Inflater inflater) {
+        return new InflaterInputStream(new ByteArrayInputStream(payload), inflater, Math.max(512, Math.min(payload.length, 8192)));
+    }
+}
@@ -0,0 +1,135 @@
+package com.alwaysallthetime.messagebeast.db;
+
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StringPool canonicalizes the values that repeat across decoded Messages: Channel ids and
+ * Annotation types, so that every decoded Message refers to a single shared String instance
+ * instead of its own copy.<br><br>
+ *
+ * Unlike String.intern(), the pool is scoped to the ADNDatabase that owns it and is bounded;
+ * the least recently used values are dropped when it is full, and the whole pool is dropped
+ * when the database is cleared.
+ */
+class StringPool {
+
+    private static final String TAG = "MessageBeast_StringPool";
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final LinkedHashMap<String, String> mValues;
+    private final HashMap<String, Field> mFields;
+
+    StringPool(final int maxSize) {
+        mValues = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+        mFields = new HashMap<String, Field>();
+    }
+
+    /**
+     * Get the canonical instance of a String.
+     *
+     * @param value the String. Can be null.
+     * @return the canonical instance that is equal to value, or null if value is null.
+     */
+    synchronized String intern(String value) {
+        if(value == null) {
+            return null;
+        }
+        String canonical = mValues.get(value);
+        if(canonical == null) {
+            mValues.put(value, value);
+            canonical = value;
+        }
+        return canonical;
+    }
+
+    /**
+     * Replace the value of a String field of an object with its canonical instance.
+     *
+     * @param object the object. Can be null.
+     * @param fieldName the name of a String field declared by the object's class or one of its
+     *                  superclasses
+     */
+    void internField(Object object, String fieldName) {
+        if(object == null) {
+            return;
+        }
+        Field field = getField(object.getClass(), fieldName);
+        if(field != null) {
+            try {
+                String value = (String) field.get(object);
+                if(value != null) {
+                    field.set(object, intern(value));
+                }
+            } catch(Exception e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Replace the value of a String field of each object in a List with its canonical instance.
+     *
+     * @param objects the objects. Can be null.
+     * @param fieldName the name of a String field declared by the objects' class or one of its
+     *                  superclasses
+     */
+    void internFields(List<?> objects, String fieldName) {
+        if(objects != null) {
+            for(Object object : objects) {
+                internField(object, fieldName);
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mValues.clear();
+    }
+
+    /**
+     * @return the number of canonical Strings currently in the pool.
+     */
+    synchronized int size() {
+        return mValues.size();
+    }
+
+    private synchronized Field getField(Class<?> objectClass, String fieldName) {
+        String key = objectClass.getName() + "#" + fieldName;
+        if(mFields.containsKey(key)) {
+            return mFields.get(key);
+        }
+
+        Field field = null;
+        Class<?> c = objectClass;
+        while(field == null && c != null) {
+            try {
+                field = c.getDeclaredField(fieldName);
+                if(field.getType() == String.class) {
+                    field.setAccessible(true);
+                } else {
+                    field = null;
+                    break;
+                }
+            } catch(NoSuchFieldException e) {
+                c = c.getSuperclass();
+            }
+        }
+        if(field == null) {
+            Log.w(TAG, "no String field " + fieldName + " in " + objectClass.getName());
+        }
+        //cache misses as well, so the hierarchy is only searched once.
+        mFields.put(key, field);
+        return field;
+    }
+}
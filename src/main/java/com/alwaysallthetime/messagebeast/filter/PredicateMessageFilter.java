@@ -0,0 +1,253 @@
+package com.alwaysallthetime.messagebeast.filter;
+
+import com.alwaysallthetime.adnlib.data.Entities;
+import com.alwaysallthetime.adnlib.data.Message;
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A PredicateMessageFilter is a MessageFilter described declaratively, by a set of predicates
+ * that a Message must satisfy in order to be kept.<br><br>
+ *
+ * Because the predicates are known up front, the ADNDatabase can compile most of them into the
+ * WHERE clause used to load persisted Messages, so that most Messages that would be excluded are
+ * never decoded; the rest are checked with matches() as they are read. The same predicates are also evaluated in Java by getExcludedResults(), so a
+ * PredicateMessageFilter can be used anywhere a MessageFilter is accepted (e.g. when retrieving
+ * Messages from the App.net servers).<br><br>
+ *
+ * Use a PredicateMessageFilterBuilder to construct a PredicateMessageFilter.
+ *
+ * @see com.alwaysallthetime.messagebeast.db.ADNDatabase#getMessages(String, java.util.Date, int, PredicateMessageFilter)
+ */
+public class PredicateMessageFilter extends MessageFilter {
+
+    private List<String> mRequiredAnnotationTypes;
+    private List<String> mExcludedAnnotationTypes;
+    private List<String> mRequiredHashtags;
+    private List<String> mExcludedHashtags;
+    private Boolean mMachineOnly;
+    private Boolean mUnsent;
+    private Date mSinceDate;
+    private Date mBeforeDate;
+
+    private PredicateMessageFilter() {
+        mRequiredAnnotationTypes = new ArrayList<String>(1);
+        mExcludedAnnotationTypes = new ArrayList<String>(1);
+        mRequiredHashtags = new ArrayList<String>(1);
+        mExcludedHashtags = new ArrayList<String>(1);
+    }
+
+    @Override
+    public TreeMap<Long, MessagePlus> getExcludedResults(TreeMap<Long, MessagePlus> messages) {
+        TreeMap<Long, MessagePlus> excludedResults = new TreeMap<Long, MessagePlus>(messages.comparator());
+        for(Map.Entry<Long, MessagePlus> entry : messages.entrySet()) {
+            if(!matches(entry.getValue())) {
+                excludedResults.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return excludedResults;
+    }
+
+    /**
+     * Evaluate the predicates of this filter against a MessagePlus.
+     *
+     * @param messagePlus the MessagePlus
+     * @return true if the MessagePlus satisfies all predicates and should be kept, false otherwise.
+     */
+    public boolean matches(MessagePlus messagePlus) {
+        Message message = messagePlus.getMessage();
+        if(mUnsent != null && mUnsent.booleanValue() != messagePlus.isUnsent()) {
+            return false;
+        }
+        if(mMachineOnly != null && mMachineOnly.booleanValue() != message.isMachineOnly()) {
+            return false;
+        }
+
+        long time = messagePlus.getDisplayDate().getTime();
+        if(mSinceDate != null && time < mSinceDate.getTime()) {
+            return false;
+        }
+        if(mBeforeDate != null && time >= mBeforeDate.getTime()) {
+            return false;
+        }
+
+        for(String type : mRequiredAnnotationTypes) {
+            if(message.getFirstAnnotationOfType(type) == null) {
+                return false;
+            }
+        }
+        for(String type : mExcludedAnnotationTypes) {
+            if(message.getFirstAnnotationOfType(type) != null) {
+                return false;
+            }
+        }
+        for(String hashtag : mRequiredHashtags) {
+            if(!hasHashtag(message, hashtag)) {
+                return false;
+            }
+        }
+        for(String hashtag : mExcludedHashtags) {
+            if(hasHashtag(message, hashtag)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasHashtag(Message message, String hashtag) {
+        Entities entities = message.getEntities();
+        if(entities != null && entities.getHashtags() != null) {
+            for(Entities.Hashtag h : entities.getHashtags()) {
+                if(hashtag.equalsIgnoreCase(h.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the annotation types that a Message must have, each at least once.
+     */
+    public List<String> getRequiredAnnotationTypes() {
+        return Collections.unmodifiableList(mRequiredAnnotationTypes);
+    }
+
+    /**
+     * @return the annotation types that a Message must not have.
+     */
+    public List<String> getExcludedAnnotationTypes() {
+        return Collections.unmodifiableList(mExcludedAnnotationTypes);
+    }
+
+    /**
+     * @return the hashtag names (without #) that a Message must have.
+     */
+    public List<String> getRequiredHashtags() {
+        return Collections.unmodifiableList(mRequiredHashtags);
+    }
+
+    /**
+     * @return the hashtag names (without #) that a Message must not have.
+     */
+    public List<String> getExcludedHashtags() {
+        return Collections.unmodifiableList(mExcludedHashtags);
+    }
+
+    /**
+     * @return true if only machine-only Messages are kept, false if machine-only Messages
+     * are excluded, or null if either is kept.
+     */
+    public Boolean getMachineOnly() {
+        return mMachineOnly;
+    }
+
+    /**
+     * @return true if only unsent Messages are kept, false if unsent Messages are excluded,
+     * or null if either is kept.
+     */
+    public Boolean getUnsent() {
+        return mUnsent;
+    }
+
+    /**
+     * @return the earliest display date (inclusive) of a kept Message, or null if there is none.
+     */
+    public Date getSinceDate() {
+        return mSinceDate;
+    }
+
+    /**
+     * @return the display date that all kept Messages are before (exclusive), or null if there is none.
+     */
+    public Date getBeforeDate() {
+        return mBeforeDate;
+    }
+
+    /**
+     * PredicateMessageFilterBuilder is used to construct PredicateMessageFilters. All added
+     * predicates must be satisfied for a Message to be kept.
+     */
+    public static class PredicateMessageFilterBuilder {
+        private List<String> requiredAnnotationTypes = new ArrayList<String>(1);
+        private List<String> excludedAnnotationTypes = new ArrayList<String>(1);
+        private List<String> requiredHashtags = new ArrayList<String>(1);
+        private List<String> excludedHashtags = new ArrayList<String>(1);
+        private Boolean machineOnly;
+        private Boolean unsent;
+        private Date sinceDate;
+        private Date beforeDate;
+
+        public static PredicateMessageFilterBuilder newBuilder() {
+            return new PredicateMessageFilterBuilder();
+        }
+
+        public PredicateMessageFilterBuilder requireAnnotation(String annotationType) {
+            requiredAnnotationTypes.add(annotationType);
+            return this;
+        }
+
+        public PredicateMessageFilterBuilder excludeAnnotation(String annotationType) {
+            excludedAnnotationTypes.add(annotationType);
+            return this;
+        }
+
+        public PredicateMessageFilterBuilder requireHashtag(String hashtagName) {
+            requiredHashtags.add(hashtagName);
+            return this;
+        }
+
+        public PredicateMessageFilterBuilder excludeHashtag(String hashtagName) {
+            excludedHashtags.add(hashtagName);
+            return this;
+        }
+
+        /**
+         * @param isMachineOnly true to keep only machine-only Messages, false to exclude them.
+         */
+        public PredicateMessageFilterBuilder setMachineOnly(boolean isMachineOnly) {
+            machineOnly = isMachineOnly;
+            return this;
+        }
+
+        /**
+         * @param isUnsent true to keep only unsent Messages, false to exclude them.
+         */
+        public PredicateMessageFilterBuilder setUnsent(boolean isUnsent) {
+            unsent = isUnsent;
+            return this;
+        }
+
+        /**
+         * Keep only Messages with a display date in a range.
+         *
+         * @param since the earliest display date (inclusive), or null for no lower bound.
+         * @param before the display date that all Messages must be before (exclusive), or null
+         *               for no upper bound.
+         */
+        public PredicateMessageFilterBuilder setDisplayDateRange(Date since, Date before) {
+            sinceDate = since;
+            beforeDate = before;
+            return this;
+        }
+
+        public PredicateMessageFilter build() {
+            PredicateMessageFilter filter = new PredicateMessageFilter();
+            filter.mRequiredAnnotationTypes.addAll(requiredAnnotationTypes);
+            filter.mExcludedAnnotationTypes.addAll(excludedAnnotationTypes);
+            filter.mRequiredHashtags.addAll(requiredHashtags);
+            filter.mExcludedHashtags.addAll(excludedHashtags);
+            filter.mMachineOnly = machineOnly;
+            filter.mUnsent = unsent;
+            filter.mSinceDate = sinceDate;
+            filter.mBeforeDate = beforeDate;
+            return filter;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.alwaysallthetime.messagebeast.geocoder;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import com.alwaysallthetime.asyncgeocoder.AsyncGeocoder;
+import com.alwaysallthetime.asyncgeocoder.response.AsyncGeocoderResponseHandler;
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+
+import java.util.List;
+
+/**
+ * A ReverseGeocoder backed by the platform's android.location.Geocoder. This is the ReverseGeocoder
+ * used by MessageManager when none is configured. It requires a network connection, and is only
+ * available on devices for which Geocoder.isPresent() returns true.
+ */
+public class AndroidReverseGeocoder implements ReverseGeocoder {
+
+    private Context mContext;
+
+    public AndroidReverseGeocoder(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return Geocoder.isPresent();
+    }
+
+    @Override
+    public void getGeolocation(final double latitude, final double longitude, final ReverseGeocoderResponseHandler handler) {
+        AsyncGeocoder.getInstance(mContext).getFromLocation(latitude, longitude, 5, new AsyncGeocoderResponseHandler() {
+            @Override
+            public void onSuccess(final List<Address> addresses) {
+                handler.onSuccess(Geolocation.getGeolocation(addresses, latitude, longitude));
+            }
+
+            @Override
+            public void onException(Exception exception) {
+                handler.onException(exception);
+            }
+        });
+    }
+}
@@ -0,0 +1,286 @@
+package com.alwaysallthetime.messagebeast.geocoder;
+
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A ReverseGeocoder that resolves coordinates against a gazetteer of localities stored in a
+ * file on disk. It works offline and answers synchronously.<br><br>
+ *
+ * The gazetteer file is memory-mapped, and its localities are bucketed into a grid of
+ * cellSizeDegrees x cellSizeDegrees cells, so a lookup only reads the localities in the few cells
+ * surrounding the coordinates. The nearest locality within the maximum distance wins.<br><br>
+ *
+ * Gazetteer files are created with writeGazetteer(). The format (all values big-endian) is:
+ *
+ * <pre>
+ * int    magic ("GZT1")
+ * int    number of grid rows (latitude)
+ * int    number of grid columns (longitude)
+ * float  cell size, in degrees
+ * int    number of localities
+ * int[]  cell index: rows * columns + 1 offsets into the locality table
+ * entry[] locality table, ordered by cell: float latitude, float longitude,
+ *         int locality string offset, int sub-locality string offset (or -1)
+ * string table: unsigned short byte length + UTF-8 bytes, per string
+ * </pre>
+ */
+public class GazetteerReverseGeocoder implements ReverseGeocoder {
+
+    public static final float DEFAULT_CELL_SIZE_DEGREES = 1.0f;
+    public static final double DEFAULT_MAX_DISTANCE_KM = 25;
+
+    private static final int MAGIC = 0x475A5431;
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 16;
+    private static final double KM_PER_DEGREE = 111.32;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mNumRows;
+    private final int mNumColumns;
+    private final float mCellSize;
+    private final int mNumEntries;
+    private final int mEntriesOffset;
+    private final int mStringsOffset;
+    private final double mMaxDistanceKm;
+
+    /**
+     * Open a gazetteer file, using DEFAULT_MAX_DISTANCE_KM.
+     *
+     * @param gazetteerFile a file created with writeGazetteer()
+     * @throws IOException if the file can't be read or is not a gazetteer
+     */
+    public GazetteerReverseGeocoder(File gazetteerFile) throws IOException {
+        this(gazetteerFile, DEFAULT_MAX_DISTANCE_KM);
+    }
+
+    /**
+     * Open a gazetteer file.
+     *
+     * @param gazetteerFile a file created with writeGazetteer()
+     * @param maxDistanceKm the maximum distance between coordinates and the locality they
+     *                      resolve to. Coordinates farther than this from every locality
+     *                      resolve to no Geolocation.
+     * @throws IOException if the file can't be read or is not a gazetteer
+     */
+    public GazetteerReverseGeocoder(File gazetteerFile, double maxDistanceKm) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(gazetteerFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            //the mapping stays valid after the file is closed.
+            file.close();
+        }
+
+        if(mBuffer.capacity() < HEADER_SIZE || mBuffer.getInt(0) != MAGIC) {
+            throw new IOException(gazetteerFile + " is not a gazetteer file");
+        }
+        mNumRows = mBuffer.getInt(4);
+        mNumColumns = mBuffer.getInt(8);
+        mCellSize = mBuffer.getFloat(12);
+        mNumEntries = mBuffer.getInt(16);
+        mEntriesOffset = HEADER_SIZE + (mNumRows * mNumColumns + 1) * 4;
+        mStringsOffset = mEntriesOffset + mNumEntries * ENTRY_SIZE;
+        mMaxDistanceKm = maxDistanceKm;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public void getGeolocation(double latitude, double longitude, ReverseGeocoderResponseHandler handler) {
+        Geolocation geolocation;
+        try {
+            geolocation = getGeolocation(latitude, longitude);
+        } catch(Exception e) {
+            handler.onException(e);
+            return;
+        }
+        handler.onSuccess(geolocation);
+    }
+
+    /**
+     * Synchronously get the Geolocation of the nearest locality.
+     *
+     * @param latitude the latitude
+     * @param longitude the longitude
+     * @return the Geolocation of the nearest locality within the maximum distance, or null if
+     * there is none. The Geolocation has the provided coordinates.
+     */
+    public Geolocation getGeolocation(double latitude, double longitude) {
+        int row = getRow(latitude);
+        int column = getColumn(longitude);
+        double cosLatitude = Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+
+        double cellKm = mCellSize * KM_PER_DEGREE;
+        int rowRadius = (int) Math.ceil(mMaxDistanceKm / cellKm);
+        int columnRadius = Math.min((int) Math.ceil(mMaxDistanceKm / (cellKm * cosLatitude)), mNumColumns / 2);
+
+        int bestEntry = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for(int r = Math.max(0, row - rowRadius); r <= Math.min(mNumRows - 1, row + rowRadius); r++) {
+            for(int c = column - columnRadius; c <= column + columnRadius; c++) {
+                //wrap around the antimeridian.
+                int cell = r * mNumColumns + ((c % mNumColumns) + mNumColumns) % mNumColumns;
+                int start = mBuffer.getInt(HEADER_SIZE + cell * 4);
+                int end = mBuffer.getInt(HEADER_SIZE + (cell + 1) * 4);
+                for(int entry = start; entry < end; entry++) {
+                    int offset = mEntriesOffset + entry * ENTRY_SIZE;
+                    double distance = getDistanceKm(latitude, longitude, cosLatitude, mBuffer.getFloat(offset), mBuffer.getFloat(offset + 4));
+                    if(distance < bestDistance) {
+                        bestDistance = distance;
+                        bestEntry = entry;
+                    }
+                }
+            }
+        }
+
+        if(bestEntry == -1 || bestDistance > mMaxDistanceKm) {
+            return null;
+        }
+        int offset = mEntriesOffset + bestEntry * ENTRY_SIZE;
+        String locality = getString(mBuffer.getInt(offset + 8));
+        int subLocalityOffset = mBuffer.getInt(offset + 12);
+        String subLocality = subLocalityOffset >= 0 ? getString(subLocalityOffset) : null;
+        return new Geolocation(locality, subLocality, latitude, longitude);
+    }
+
+    private int getRow(double latitude) {
+        return getRow(latitude, mCellSize, mNumRows);
+    }
+
+    private int getColumn(double longitude) {
+        return getColumn(longitude, mCellSize, mNumColumns);
+    }
+
+    private static int getRow(double latitude, float cellSize, int numRows) {
+        int row = (int) Math.floor((latitude + 90) / cellSize);
+        return Math.max(0, Math.min(numRows - 1, row));
+    }
+
+    private static int getColumn(double longitude, float cellSize, int numColumns) {
+        int column = (int) Math.floor((longitude + 180) / cellSize);
+        return ((column % numColumns) + numColumns) % numColumns;
+    }
+
+    private static double getDistanceKm(double latitude, double longitude, double cosLatitude, double otherLatitude, double otherLongitude) {
+        //equirectangular approximation; plenty for distances of a few dozen km.
+        double deltaLongitude = Math.abs(otherLongitude - longitude);
+        if(deltaLongitude > 180) {
+            deltaLongitude = 360 - deltaLongitude;
+        }
+        double x = deltaLongitude * cosLatitude;
+        double y = otherLatitude - latitude;
+        return Math.sqrt(x * x + y * y) * KM_PER_DEGREE;
+    }
+
+    private String getString(int stringOffset) {
+        int offset = mStringsOffset + stringOffset;
+        int length = mBuffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset + 2);
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a gazetteer file that can be opened by a GazetteerReverseGeocoder.
+     *
+     * @param localities the localities, as Geolocations. The sub-locality may be null.
+     * @param cellSizeDegrees the size of a grid cell, in degrees. Smaller cells mean fewer
+     *                        localities are examined per lookup, at the cost of a larger index.
+     * @param gazetteerFile the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void writeGazetteer(Collection<Geolocation> localities, final float cellSizeDegrees, File gazetteerFile) throws IOException {
+        final int numRows = (int) Math.ceil(180 / cellSizeDegrees);
+        final int numColumns = (int) Math.ceil(360 / cellSizeDegrees);
+
+        List<Geolocation> sorted = new ArrayList<Geolocation>(localities);
+        Collections.sort(sorted, new Comparator<Geolocation>() {
+            @Override
+            public int compare(Geolocation lhs, Geolocation rhs) {
+                int lhsCell = getRow(lhs.getLatitude(), cellSizeDegrees, numRows) * numColumns + getColumn(lhs.getLongitude(), cellSizeDegrees, numColumns);
+                int rhsCell = getRow(rhs.getLatitude(), cellSizeDegrees, numRows) * numColumns + getColumn(rhs.getLongitude(), cellSizeDegrees, numColumns);
+                return lhsCell < rhsCell ? -1 : (lhsCell == rhsCell ? 0 : 1);
+            }
+        });
+
+        int numCells = numRows * numColumns;
+        int[] cellStarts = new int[numCells + 1];
+        for(Geolocation geolocation : sorted) {
+            int cell = getRow(geolocation.getLatitude(), cellSizeDegrees, numRows) * numColumns + getColumn(geolocation.getLongitude(), cellSizeDegrees, numColumns);
+            cellStarts[cell + 1]++;
+        }
+        for(int i = 0; i < numCells; i++) {
+            cellStarts[i + 1] += cellStarts[i];
+        }
+
+        HashMap<String, Integer> stringOffsets = new HashMap<String, Integer>();
+        ArrayList<byte[]> strings = new ArrayList<byte[]>();
+        int[] stringTableSize = new int[1];
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(gazetteerFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(numRows);
+            out.writeInt(numColumns);
+            out.writeFloat(cellSizeDegrees);
+            out.writeInt(sorted.size());
+            for(int cellStart : cellStarts) {
+                out.writeInt(cellStart);
+            }
+            for(Geolocation geolocation : sorted) {
+                out.writeFloat((float) geolocation.getLatitude());
+                out.writeFloat((float) geolocation.getLongitude());
+                out.writeInt(addString(geolocation.getLocality(), stringOffsets, strings, stringTableSize));
+                String subLocality = geolocation.getSubLocality();
+                out.writeInt(subLocality != null ? addString(subLocality, stringOffsets, strings, stringTableSize) : -1);
+            }
+            for(byte[] string : strings) {
+                out.writeShort(string.length);
+                out.write(string);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int addString(String string, HashMap<String, Integer> stringOffsets, ArrayList<byte[]> strings, int[] stringTableSize) throws IOException {
+        Integer offset = stringOffsets.get(string);
+        if(offset == null) {
+            byte[] bytes = string.getBytes("UTF-8");
+            if(bytes.length > 0xFFFF) {
+                throw new IOException("locality name too long: " + string);
+            }
+            offset = stringTableSize[0];
+            stringOffsets.put(string, offset);
+            strings.add(bytes);
+            stringTableSize[0] += 2 + bytes.length;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,34 @@
+package com.alwaysallthetime.messagebeast.geocoder;
+
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+
+/**
+ * A ReverseGeocoder resolves latitude/longitude coordinates to a Geolocation.
+ *
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setReverseGeocoder(ReverseGeocoder)
+ */
+public interface ReverseGeocoder {
+
+    public interface ReverseGeocoderResponseHandler {
+        /**
+         * @param geolocation the Geolocation for the coordinates, or null if none was found.
+         */
+        public void onSuccess(Geolocation geolocation);
+        public void onException(Exception exception);
+    }
+
+    /**
+     * @return true if this ReverseGeocoder can currently be used, false otherwise.
+     */
+    public boolean isAvailable();
+
+    /**
+     * Get the Geolocation for the provided coordinates. The handler may be called before this
+     * method returns, or at a later time on any thread.
+     *
+     * @param latitude the latitude
+     * @param longitude the longitude
+     * @param handler the ReverseGeocoderResponseHandler
+     */
+    public void getGeolocation(double latitude, double longitude, ReverseGeocoderResponseHandler handler);
+}
@@ -21,6 +21,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
@@ -42,11 +44,21 @@ import java.util.TreeMap;
  * The ActionMessageManager abstracts away this hack by providing simple applyChannelAction()
  * and removeChannelAction() methods. Before performing either of these actions, you must call
  * initActionChannel() to create or get an existing Channel to host the Action Messages.
- * To check if an action has been performed on a specific target message, use the isActioned() method.
+ * To check if an action has been performed on a specific target message, use the isActioned() method.<br><br>
+ *
+ * An Action Message must never be sent before its target Message. Each unsent Action Message whose
+ * target is still unsent is held back, and is released as soon as its own target is sent; all
+ * other Action Messages in the Channel are free to be sent in the meantime.<br><br>
+ *
+ * Lock order: the ActionMessageManager's lock is always taken before the MessageManager's. Methods
+ * here may hold both (e.g. applyChannelAction()), but the MessageManager never calls back into the
+ * ActionMessageManager while holding its own lock.
  */
-public class ActionMessageManager {
+public class ActionMessageManager implements ADNDatabase.MessageWriteListener {
     private static final String TAG = "MessageBeast_ActionMessageManager";
 
+    private static final int MAX_ACTION_MESSAGE_DELETIONS_IN_FLIGHT = 4;
+
     public static final QueryParameters ACTION_MESSAGE_QUERY_PARAMETERS = new QueryParameters(GeneralParameter.INCLUDE_MACHINE,
             GeneralParameter.INCLUDE_MESSAGE_ANNOTATIONS, GeneralParameter.EXCLUDE_DELETED);
 
@@ -54,6 +66,8 @@ public class ActionMessageManager {
     private ADNDatabase mDatabase;
 
     private HashMap<String, Channel> mActionChannels;
+    private final HashMap<String, ActionedMessageIndex> mActionedMessageIndexes;
+    private HashMap<String, HashSet<String>> mHeldActionMessageIds;
 
     public interface ActionChannelInitializedHandler {
         public void onInitialized(Channel channel);
@@ -64,7 +78,10 @@ public class ActionMessageManager {
         mMessageManager = messageManager;
         mMessageManager.attachActionMessageManager(this);
         mActionChannels = new HashMap<String, Channel>(1);
+        mActionedMessageIndexes = new HashMap<String, ActionedMessageIndex>(1);
+        mHeldActionMessageIds = new HashMap<String, HashSet<String>>(1);
         mDatabase = ADNDatabase.getInstance(ADNApplication.getContext());
+        mDatabase.addMessageWriteListener(this);
     }
 
     /**
@@ -121,15 +138,14 @@ public class ActionMessageManager {
      * @return true if the specified target Message has had an action performed on it.
      */
     public boolean isActioned(String actionChannelId, String targetMessageId) {
-        return mDatabase.hasActionMessageSpec(actionChannelId, targetMessageId);
+        return getActionedMessageIndex(actionChannelId).contains(targetMessageId);
     }
 
     /**
      * Given a Collection of message Ids, return those which are associated with Messages that
      * have had an action performed on them (the action associated with the provided Action Channel id).
      *
-     * This is more efficient than looping through message ids and calling isActioned() on them one
-     * at a time because a single database query is used in this case.
+     * Like isActioned(), this is answered from memory, without a database query.
      *
      * @param actionChannelId the id of the Action Channel
      * @param messageIds the ids of the target messages
@@ -137,7 +153,7 @@ public class ActionMessageManager {
      * which the action has been applied.
      */
     public Set<String> getActionedMessageIds(String actionChannelId, Collection<String> messageIds) {
-        return mDatabase.getTargetMessageIdsWithSpecs(actionChannelId, messageIds);
+        return getActionedMessageIndex(actionChannelId).retain(messageIds);
     }
 
     /**
@@ -148,7 +164,108 @@ public class ActionMessageManager {
      * false otherwise.
      */
     public boolean hasActionedMessages(String actionChannelId) {
-        return mDatabase.getActionMessageSpecCount(actionChannelId) > 0;
+        return getActionMessageSpecCount(actionChannelId) > 0;
+    }
+
+    /**
+     * Get the number of ActionMessageSpecs persisted for an Action Channel. The count is
+     * maintained by the database as ActionMessageSpecs are added and removed, so getting it
+     * does not depend on the number of actioned Messages.<br><br>
+     *
+     * This counts specs, not distinct target Messages: a target Message that has more than one
+     * Action Message in the Action Channel (e.g. one that had the action applied from more than
+     * one device) is counted once per spec. It is zero exactly when no
+     * Message has the action applied.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @return the number of ActionMessageSpecs persisted for the provided Action Channel id.
+     */
+    public int getActionMessageSpecCount(String actionChannelId) {
+        return mDatabase.getActionMessageSpecCount(actionChannelId);
+    }
+
+    /**
+     * Get the in-memory index of the target Messages that have the action of an Action Channel
+     * applied. The index is loaded from the ActionMessageSpecs the first time it is needed, and is
+     * kept up to date as specs are added, removed, and replaced by this ActionMessageManager.
+     */
+    private ActionedMessageIndex getActionedMessageIndex(String actionChannelId) {
+        synchronized(mActionedMessageIndexes) {
+            ActionedMessageIndex index = mActionedMessageIndexes.get(actionChannelId);
+            if(index == null) {
+                index = new ActionedMessageIndex(mDatabase.getTargetMessageIdsWithSpecs(actionChannelId));
+                mActionedMessageIndexes.put(actionChannelId, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Used by MessageManager when retrying unsent Action Messages on behalf of the
+     * OutboundWorkScheduler.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @return a copy of the ids of the Action Messages that are held back in the Action Channel.
+     */
+    synchronized Set<String> copyHeldActionMessageIds(String actionChannelId) {
+        return new HashSet<String>(getHeldActionMessageIds(actionChannelId));
+    }
+
+    /**
+     * Get the ids of the unsent Action Messages in an Action Channel that are being held back
+     * because their target Messages have not been sent yet. The set is loaded from the unsent
+     * Messages the first time it is needed; after that, Action Messages are added as they are
+     * created for unsent targets, and removed when their targets are sent.
+     */
+    private synchronized HashSet<String> getHeldActionMessageIds(String actionChannelId) {
+        HashSet<String> heldActionMessageIds = mHeldActionMessageIds.get(actionChannelId);
+        if(heldActionMessageIds == null) {
+            List<MessagePlus> unsentActionMessages = mMessageManager.getUnsentMessageList(actionChannelId);
+            HashMap<String, List<String>> targetMessageIdToActionMessageIds = new HashMap<String, List<String>>(unsentActionMessages.size());
+            for(MessagePlus unsentActionMessage : unsentActionMessages) {
+                String targetMessageId = AnnotationUtility.getTargetMessageId(unsentActionMessage.getMessage());
+                if(targetMessageId != null) {
+                    List<String> actionMessageIds = targetMessageIdToActionMessageIds.get(targetMessageId);
+                    if(actionMessageIds == null) {
+                        actionMessageIds = new ArrayList<String>(1);
+                        targetMessageIdToActionMessageIds.put(targetMessageId, actionMessageIds);
+                    }
+                    actionMessageIds.add(unsentActionMessage.getMessage().getId());
+                }
+            }
+
+            heldActionMessageIds = new HashSet<String>();
+            if(targetMessageIdToActionMessageIds.size() > 0) {
+                OrderedMessageBatch targetMessages = mDatabase.getMessages(targetMessageIdToActionMessageIds.keySet());
+                for(MessagePlus targetMessage : targetMessages.getMessages().values()) {
+                    if(targetMessage.isUnsent()) {
+                        heldActionMessageIds.addAll(targetMessageIdToActionMessageIds.get(targetMessage.getMessage().getId()));
+                    }
+                }
+            }
+            mHeldActionMessageIds.put(actionChannelId, heldActionMessageIds);
+        }
+        return heldActionMessageIds;
+    }
+
+    private synchronized void releaseHeldActionMessage(String actionChannelId, String actionMessageId) {
+        HashSet<String> heldActionMessageIds = mHeldActionMessageIds.get(actionChannelId);
+        if(heldActionMessageIds != null) {
+            heldActionMessageIds.remove(actionMessageId);
+        }
+    }
+
+    @Override
+    public void onMessagesWritten(String channelId, String messageId) {
+        //the whole database was cleared.
+        if(channelId == null && messageId == null) {
+            synchronized(mActionedMessageIndexes) {
+                mActionedMessageIndexes.clear();
+            }
+            synchronized(this) {
+                mHeldActionMessageIds.clear();
+            }
+        }
     }
 
     /**
@@ -191,6 +308,9 @@ public class ActionMessageManager {
     /**
      * Get persisted Messages that have an action applied.
      *
+     * The ActionMessageSpecs are indexed by target display date, so paging with beforeDate reads
+     * only the specs in the requested page.
+     *
      * @param actionChannelId the the id of the Action Channel associated with the action of interest
      * @param beforeDate a date before the display date of all returned messages. Can be null.
      * @param limit the maximum number of Messages to get
@@ -215,6 +335,15 @@ public class ActionMessageManager {
      * @return false if unsent Messages are preventing more Messages from being retrieved, true otherwise.
      */
     public synchronized boolean retrieveNewestMessages(final String actionChannelId, final MessageManager.MessageManagerResponseHandler responseHandler) {
+        return retrieveNewestMessages(actionChannelId, true, responseHandler);
+    }
+
+    /**
+     * Retrieve the newest Messages in an Action Channel, optionally leaving the Action Messages
+     * unprocessed so that the responses from several Action Channels can be handed to
+     * processNewActionMessages() together.
+     */
+    synchronized boolean retrieveNewestMessages(final String actionChannelId, final boolean processActionMessages, final MessageManager.MessageManagerResponseHandler responseHandler) {
         TreeMap<Long, MessagePlus> channelMessages = mMessageManager.getMessageMap(actionChannelId);
         if(channelMessages == null || channelMessages.size() == 0) {
             //we do this so that the max id is known.
@@ -223,7 +352,9 @@ public class ActionMessageManager {
         boolean canRetrieve = mMessageManager.retrieveNewestMessages(actionChannelId, new MessageManager.MessageManagerResponseHandler() {
             @Override
             public void onSuccess(List<MessagePlus> responseData) {
-                processNewActionMessages(responseData);
+                if(processActionMessages) {
+                    processNewActionMessages(responseData);
+                }
                 responseHandler.onSuccess(responseData);
             }
 
@@ -245,16 +376,90 @@ public class ActionMessageManager {
      * @param targetMessagePlus the Message to have the action applied.
      */
     public synchronized void applyChannelAction(String actionChannelId, MessagePlus targetMessagePlus) {
-        if(!isActioned(actionChannelId, targetMessagePlus.getMessage().getId())) {
-            Message message = targetMessagePlus.getMessage();
-            String targetMessageId = message.getId();
-            //create machine only message in action channel that points to the target message id.
+        ArrayList<MessagePlus> targetMessagePlusses = new ArrayList<MessagePlus>(1);
+        targetMessagePlusses.add(targetMessagePlus);
+        applyChannelAction(actionChannelId, targetMessagePlusses);
+    }
+
+    /**
+     * Apply an Action Channel action to many target Messages.
+     *
+     * The unsent Action Messages and their ActionMessageSpecs are all persisted in a single
+     * transaction. Action Messages whose target Messages have been sent are sent immediately; the
+     * others are held back until their own target Message is sent. Target Messages that already
+     * have the action applied are skipped.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @param targetMessagePlusses the Messages to have the action applied.
+     */
+    public synchronized void applyChannelAction(String actionChannelId, Collection<MessagePlus> targetMessagePlusses) {
+        ActionedMessageIndex index = getActionedMessageIndex(actionChannelId);
+        LinkedHashMap<String, MessagePlus> targets = new LinkedHashMap<String, MessagePlus>(targetMessagePlusses.size());
+        for(MessagePlus targetMessagePlus : targetMessagePlusses) {
+            String targetMessageId = targetMessagePlus.getMessage().getId();
+            if(!index.contains(targetMessageId) && !targets.containsKey(targetMessageId)) {
+                targets.put(targetMessageId, targetMessagePlus);
+            }
+        }
+        if(targets.size() == 0) {
+            return;
+        }
+
+        //create machine only messages in action channel that point to the target message ids.
+        ArrayList<Message> actionMessages = new ArrayList<Message>(targets.size());
+        for(String targetMessageId : targets.keySet()) {
             Message m = new Message(true);
             Annotation a = AnnotationFactory.getSingleValueAnnotation(PrivateChannelUtility.MESSAGE_ANNOTATION_TARGET_MESSAGE, PrivateChannelUtility.TARGET_MESSAGE_KEY_ID, targetMessageId);
             m.addAnnotation(a);
+            actionMessages.add(m);
+        }
 
-            MessagePlus unsentActionMessage = mMessageManager.createUnsentMessage(actionChannelId, m, !targetMessagePlus.isUnsent());
-            mDatabase.insertOrReplaceActionMessageSpec(unsentActionMessage, targetMessageId, message.getChannelId(), targetMessagePlus.getDisplayDate());
+        //the MessageManager lock is taken after ours (see the lock order in the class comment)
+        //and before the transaction begins, so that we never wait on it while holding the database.
+        HashSet<String> heldActionMessageIds = getHeldActionMessageIds(actionChannelId);
+        synchronized(mMessageManager) {
+            ArrayList<String> newHeldActionMessageIds = new ArrayList<String>();
+            boolean hasActionMessagesToSend = false;
+            List<MessagePlus> unsentActionMessages = mMessageManager.newUnsentMessages(actionChannelId, actionMessages);
+
+            //a failed inner write rolls back the whole transaction, so nothing in memory may
+            //change until it is known to have committed.
+            boolean isCommitted = false;
+            mDatabase.beginTransaction();
+            try {
+                boolean isWritten = mMessageManager.insertUnsentMessages(unsentActionMessages);
+                int i = 0;
+                for(MessagePlus targetMessagePlus : targets.values()) {
+                    Message message = targetMessagePlus.getMessage();
+                    MessagePlus unsentActionMessage = unsentActionMessages.get(i);
+                    isWritten &= mDatabase.insertOrReplaceActionMessageSpec(unsentActionMessage, message.getId(), message.getChannelId(), targetMessagePlus.getDisplayDate());
+                    if(targetMessagePlus.isUnsent()) {
+                        newHeldActionMessageIds.add(unsentActionMessage.getMessage().getId());
+                    } else {
+                        hasActionMessagesToSend = true;
+                    }
+                    i++;
+                }
+                if(isWritten) {
+                    mDatabase.setTransactionSuccessful();
+                    isCommitted = true;
+                }
+            } finally {
+                mDatabase.endTransaction();
+            }
+            if(!isCommitted) {
+                Log.e(TAG, "Failed to apply action in channel " + actionChannelId + " to " + targets.size() + " messages");
+                return;
+            }
+
+            mMessageManager.addUnsentMessages(actionChannelId, unsentActionMessages);
+            for(String targetMessageId : targets.keySet()) {
+                index.add(targetMessageId);
+            }
+            heldActionMessageIds.addAll(newHeldActionMessageIds);
+            if(hasActionMessagesToSend) {
+                mMessageManager.sendUnsentMessages(actionChannelId, new HashSet<String>(heldActionMessageIds));
+            }
         }
     }
 
@@ -269,116 +474,212 @@ public class ActionMessageManager {
     public synchronized void removeChannelAction(final String actionChannelId, final String targetMessageId) {
         ArrayList<String> targetMessageIds = new ArrayList<String>(1);
         targetMessageIds.add(targetMessageId);
-        final List<ActionMessageSpec> actionMessageSpecs = mDatabase.getActionMessageSpecsForTargetMessages(actionChannelId, targetMessageIds);
+        removeChannelAction(actionChannelId, targetMessageIds);
+    }
+
+    /**
+     * Remove an Action Channel action from many target Messages.
+     *
+     * The ActionMessageSpecs are deleted in a single transaction, and the associated Action
+     * Messages are then deleted with a bounded number of server requests in flight. Target
+     * Messages that do not have the action applied are skipped.
+     *
+     * @param actionChannelId the id of the Action Channel
+     * @param targetMessageIds the ids of the target Messages
+     */
+    public synchronized void removeChannelAction(final String actionChannelId, Collection<String> targetMessageIds) {
+        ArrayList<String> uniqueTargetMessageIds = new ArrayList<String>(new LinkedHashSet<String>(targetMessageIds));
+        List<ActionMessageSpec> actionMessageSpecs = mDatabase.getActionMessageSpecsForTargetMessages(actionChannelId, uniqueTargetMessageIds);
 
         if(actionMessageSpecs.size() > 0) {
-            mDatabase.deleteActionMessageSpec(actionChannelId, targetMessageId);
+            LinkedHashSet<String> actionedTargetMessageIds = new LinkedHashSet<String>(actionMessageSpecs.size());
+            for(ActionMessageSpec actionMessageSpec : actionMessageSpecs) {
+                actionedTargetMessageIds.add(actionMessageSpec.getTargetMessageId());
+            }
+            mDatabase.deleteActionMessageSpecs(actionChannelId, actionedTargetMessageIds);
 
-            deleteActionMessages(actionMessageSpecs, 0, new Runnable() {
-                @Override
-                public void run() {
-                    Log.d(TAG, "Finished deleting " + actionMessageSpecs.size() + " action messages in channel " + actionChannelId);
-                }
-            });
+            ActionedMessageIndex index = getActionedMessageIndex(actionChannelId);
+            for(String targetMessageId : actionedTargetMessageIds) {
+                index.remove(targetMessageId);
+            }
+            for(ActionMessageSpec actionMessageSpec : actionMessageSpecs) {
+                releaseHeldActionMessage(actionChannelId, actionMessageSpec.getActionMessageId());
+            }
+
+            new ActionMessageDeletionBatch(actionChannelId, actionMessageSpecs).fill();
         } else {
-            Log.e(TAG, "Calling removeChannelAction, but actionChannelId " + actionChannelId + " and targetMessageId " + targetMessageId + " yielded 0 db results. wtf.");
+            Log.e(TAG, "Calling removeChannelAction, but actionChannelId " + actionChannelId + " and " + uniqueTargetMessageIds.size() + " target message ids yielded 0 db results. wtf.");
         }
     }
 
-    private synchronized void deleteActionMessages(final List<ActionMessageSpec> actionMessageSpecs, final int currentIndex, final Runnable completionRunnable) {
-        final ActionMessageSpec actionMessageSpec = actionMessageSpecs.get(0);
-        MessagePlus actionMessagePlus = mDatabase.getMessage(actionMessageSpec.getActionMessageId());
+    /**
+     * Deletes the Action Messages of removed ActionMessageSpecs, keeping at most
+     * MAX_ACTION_MESSAGE_DELETIONS_IN_FLIGHT deletions in flight at a time.
+     */
+    private class ActionMessageDeletionBatch {
+        private String mActionChannelId;
+        private List<ActionMessageSpec> mActionMessageSpecs;
+        private int mNextToDelete;
+        private int mNumInFlight;
+        private boolean mIsFilling;
+
+        ActionMessageDeletionBatch(String actionChannelId, List<ActionMessageSpec> actionMessageSpecs) {
+            mActionChannelId = actionChannelId;
+            mActionMessageSpecs = actionMessageSpecs;
+        }
+
+        void fill() {
+            //unsent Action Messages are deleted synchronously, so a deletion can complete
+            //(and call back into fill()) before delete() returns.
+            if(mIsFilling) {
+                return;
+            }
+            mIsFilling = true;
+            try {
+                while(mNumInFlight < MAX_ACTION_MESSAGE_DELETIONS_IN_FLIGHT && mNextToDelete < mActionMessageSpecs.size()) {
+                    ActionMessageSpec actionMessageSpec = mActionMessageSpecs.get(mNextToDelete);
+                    mNextToDelete++;
+                    mNumInFlight++;
+                    delete(actionMessageSpec);
+                }
+            } finally {
+                mIsFilling = false;
+            }
+        }
+
+        private void delete(final ActionMessageSpec actionMessageSpec) {
+            MessagePlus actionMessagePlus = mDatabase.getMessage(actionMessageSpec.getActionMessageId());
+            if(actionMessagePlus == null) {
+                Log.e(TAG, "could not delete action message " + actionMessageSpec.getActionMessageId() + "; no persisted MessagePlus exists");
+                onDeletionComplete();
+                return;
+            }
 
-        if(actionMessagePlus != null) {
             //the success/failure of this should not matter - on failure, it will be a pending deletion
             mMessageManager.deleteMessage(actionMessagePlus, new MessageManager.MessageDeletionResponseHandler() {
                 @Override
                 public void onSuccess() {
-                    deleteNext();
+                    synchronized(ActionMessageManager.this) {
+                        onDeletionComplete();
+                    }
                 }
 
                 @Override
                 public void onError(Exception exception) {
-                    Log.e(TAG, "Failed to delete action message " + actionMessageSpec.getActionMessageId() + " for target message " + actionMessageSpec.getTargetMessageId());
-                    deleteNext();
-                }
-
-                private void deleteNext() {
-                    int nextIndex = currentIndex + 1;
-                    if(nextIndex < actionMessageSpecs.size()) {
-                        deleteActionMessages(actionMessageSpecs, nextIndex, completionRunnable);
-                    } else {
-                        completionRunnable.run();
+                    synchronized(ActionMessageManager.this) {
+                        Log.e(TAG, "Failed to delete action message " + actionMessageSpec.getActionMessageId() + " for target message " + actionMessageSpec.getTargetMessageId());
+                        onDeletionComplete();
                     }
                 }
             });
-        } else {
-            Log.e(TAG, "could not delete action message " + actionMessageSpec.getActionMessageId() + "; no persisted MessagePlus exists");
+        }
+
+        private void onDeletionComplete() {
+            mNumInFlight--;
+            if(mNextToDelete < mActionMessageSpecs.size()) {
+                fill();
+            } else if(mNumInFlight == 0) {
+                Log.d(TAG, "Finished deleting " + mActionMessageSpecs.size() + " action messages in channel " + mActionChannelId);
+            }
         }
     }
 
-    private synchronized void processNewActionMessages(List<MessagePlus> actionMessages) {
-        HashMap<String, MessagePlus> targetMessageIdToActionMessage = new HashMap<String, MessagePlus>(actionMessages.size());
+    /**
+     * Insert ActionMessageSpecs for newly retrieved Action Messages. The Action Messages may come
+     * from any number of Action Channels; their specs are written in a single transaction.
+     *
+     * @param actionMessages the new Action Messages
+     */
+    synchronized void processNewActionMessages(List<MessagePlus> actionMessages) {
+        //a target Message can have Action Messages in more than one Action Channel.
+        HashMap<String, List<MessagePlus>> targetMessageIdToActionMessages = new HashMap<String, List<MessagePlus>>(actionMessages.size());
 
         for(MessagePlus actionMessage : actionMessages) {
             String targetMessageId = AnnotationUtility.getTargetMessageId(actionMessage.getMessage());
             if(targetMessageId != null) {
-                targetMessageIdToActionMessage.put(targetMessageId, actionMessage);
+                List<MessagePlus> targetActionMessages = targetMessageIdToActionMessages.get(targetMessageId);
+                if(targetActionMessages == null) {
+                    targetActionMessages = new ArrayList<MessagePlus>(1);
+                    targetMessageIdToActionMessages.put(targetMessageId, targetActionMessages);
+                }
+                targetActionMessages.add(actionMessage);
             } else {
                 Log.e(TAG, "action message " + actionMessage.getMessage().getId() + " is missing target message metadata!");
             }
         }
 
-        TreeMap<Long, MessagePlus> targetMessages = mMessageManager.getMessages(targetMessageIdToActionMessage.keySet());
+        if(targetMessageIdToActionMessages.size() == 0) {
+            return;
+        }
+
+        TreeMap<Long, MessagePlus> targetMessages = mMessageManager.getMessages(targetMessageIdToActionMessages.keySet());
+        boolean isCommitted = false;
+        mDatabase.beginTransaction();
+        try {
+            boolean isWritten = true;
+            for(MessagePlus targetMessage : targetMessages.values()) {
+                String targetMessageId = targetMessage.getMessage().getId();
+                String targetChannelId = targetMessage.getMessage().getChannelId();
+                Date targetMessageDisplayDate = targetMessage.getDisplayDate();
+                for(MessagePlus actionMessage : targetMessageIdToActionMessages.get(targetMessageId)) {
+                    isWritten &= mDatabase.insertOrReplaceActionMessageSpec(actionMessage, targetMessageId, targetChannelId, targetMessageDisplayDate);
+                }
+            }
+            if(isWritten) {
+                mDatabase.setTransactionSuccessful();
+                isCommitted = true;
+            }
+        } catch(Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            mDatabase.endTransaction();
+        }
+        if(!isCommitted) {
+            Log.e(TAG, "Failed to store action message specs for " + targetMessages.size() + " target messages");
+            return;
+        }
+
         for(MessagePlus targetMessage : targetMessages.values()) {
             String targetMessageId = targetMessage.getMessage().getId();
-            String targetChannelId = targetMessage.getMessage().getChannelId();
-            MessagePlus actionMessage = targetMessageIdToActionMessage.get(targetMessageId);
-            Date targetMessageDisplayDate = targetMessage.getDisplayDate();
-            mDatabase.insertOrReplaceActionMessageSpec(actionMessage, targetMessageId, targetChannelId, targetMessageDisplayDate);
+            for(MessagePlus actionMessage : targetMessageIdToActionMessages.get(targetMessageId)) {
+                getActionedMessageIndex(actionMessage.getMessage().getChannelId()).add(targetMessageId);
+            }
         }
     }
 
+    synchronized boolean isActionChannel(String channelId) {
+        return mActionChannels.containsKey(channelId);
+    }
+
     /**
-     * Send unsent messages in an Action Channel, provided all of them
-     * correspond to target messages that have already been sent.
-     *
-     * The idea is that it is only safe to send action messages after their target messages have been
-     * sent. But because MessageManager only provides sendAllUnsent(channelId), we will only send
-     * the Action Messages when *all* of them in a given channel fulfill this safety restriction.
+     * Send pending deletions and unsent messages in an Action Channel. Unsent Action Messages
+     * whose target messages have not been sent yet are held back; they are sent as soon as their
+     * own target messages are sent.
      *
      * @param actionChannelId The id of the Action Channel
      * @return true if Action Messages will be sent for the provided channel, false otherwise.
      */
     public synchronized boolean sendUnsentActionMessages(String actionChannelId) {
         if(mActionChannels.containsKey(actionChannelId)) {
-            TreeMap<Long, MessagePlus> unsentActionMessages = mDatabase.getUnsentMessages(actionChannelId);
-            HashSet<String> targetMessageIds = new HashSet<String>(unsentActionMessages.size());
-
-            for(MessagePlus unsentActionMessage : unsentActionMessages.values()) {
-                String targetMessageId = AnnotationUtility.getTargetMessageId(unsentActionMessage.getMessage());
-                targetMessageIds.add(targetMessageId);
-            }
-
-            //
-            //check to see if all target messages associated with messages in this action channel have
-            //been sent. if so, we are good to call sendAllUnsent(actionChanelId).
-            //
-            boolean allSent = true;
-            OrderedMessageBatch targetMessages = mDatabase.getMessages(targetMessageIds);
-            TreeMap<Long, MessagePlus> messages = targetMessages.getMessages();
-            for(MessagePlus targetMessage : messages.values()) {
-                allSent &= !targetMessage.isUnsent();
+            HashSet<String> heldActionMessageIds = getHeldActionMessageIds(actionChannelId);
+            boolean hasActionMessagesToSend = false;
+            for(MessagePlus unsentActionMessage : mMessageManager.getUnsentMessageList(actionChannelId)) {
+                if(!heldActionMessageIds.contains(unsentActionMessage.getMessage().getId())) {
+                    hasActionMessagesToSend = true;
+                    break;
+                }
             }
 
-            if(allSent) {
-                mMessageManager.sendAllUnsent(actionChannelId);
-                return true;
+            //removed actions are still sent when every unsent Action Message is held back.
+            if(!hasActionMessagesToSend) {
+                mMessageManager.sendPendingDeletions(actionChannelId, null);
+                return false;
             }
+            mMessageManager.sendAllUnsent(actionChannelId, new HashSet<String>(heldActionMessageIds));
+            return true;
         } else {
             throw new IllegalStateException("Calling sendUnsentActionMessages() for a channel that ActionMessageManager is unaware of. Did you forget to call initActionChannel() first?");
         }
-        return false;
     }
 
     /**
@@ -400,8 +701,8 @@ public class ActionMessageManager {
             //we now need to create a new action message spec that points to the NEW message id
             //to replace the former one.
             //
-            //additionally, we need to make sure to send unsent action messages now that their
-            //associated target messages have been sent.
+            //additionally, we need to release the held action messages that targeted the
+            //unsent message, and send them now that it has been sent.
             //
             HashSet<String> actionChannelIds = new HashSet<String>();
             List<ActionMessageSpec> actionMessageSpecs = mDatabase.getActionMessageSpecsForTargetMessages(sentMessageIds);
@@ -414,6 +715,10 @@ public class ActionMessageManager {
                 Date targetMessageDisplayDate = actionMessageSpec.getTargetMessageDisplayDate();
                 //TODO: this target message display date should be updated here (?)
                 mDatabase.insertOrReplaceActionMessageSpec(actionMessageId, actionChannelId, newTargetMessageId, targetMessageChannelId, targetMessageDisplayDate);
+                ActionedMessageIndex index = getActionedMessageIndex(actionChannelId);
+                index.remove(oldTargetMessageId);
+                index.add(newTargetMessageId);
+                releaseHeldActionMessage(actionChannelId, actionMessageId);
                 Log.d(TAG, "Updating action message spec; target id change: " + oldTargetMessageId + " --> " + newTargetMessageId);
 
                 MessagePlus actionMessage = mDatabase.getMessage(actionMessageId);
@@ -433,8 +738,8 @@ public class ActionMessageManager {
             }
 
             for(String actionChannelId : actionChannelIds) {
-                mMessageManager.sendAllUnsent(actionChannelId);
-                Log.d(TAG, "onUnsentMessagesSentPrivate() - sending all unsent messages for action channel " + actionChannelId);
+                mMessageManager.sendAllUnsent(actionChannelId, new HashSet<String>(getHeldActionMessageIds(actionChannelId)));
+                Log.d(TAG, "onUnsentMessagesSentPrivate() - sending unsent messages that are no longer held for action channel " + actionChannelId);
             }
             mMessageManager.sendUnsentMessagesSentBroadcast(channelId, sentMessageIds, replacementMessageIds);
         } else {
@@ -443,6 +748,7 @@ public class ActionMessageManager {
 
             for(int i = 0; i < sentMessageIds.size(); i++) {
                 String actionMessageId = sentMessageIds.get(i);
+                releaseHeldActionMessage(channelId, actionMessageId);
                 ActionMessageSpec oldSpec = mDatabase.getActionMessageSpec(actionMessageId);
                 if(oldSpec != null) {
                     String newActionMessageId = replacementMessageIds.get(i);
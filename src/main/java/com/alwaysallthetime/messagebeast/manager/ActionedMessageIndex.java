@@ -0,0 +1,109 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An ActionedMessageIndex is the in-memory set of target Message ids that have an action
+ * applied in one Action Channel.<br><br>
+ *
+ * Sent Messages have numeric ids, which are kept in a sorted array of longs so that membership
+ * is a binary search with no per-id object overhead. The ids of unsent Messages (which are not
+ * numeric) are kept in a regular Set; there are only ever a handful of those.
+ */
+class ActionedMessageIndex {
+
+    private long[] mNumericIds;
+    private int mNumNumericIds;
+    private HashSet<String> mOtherIds;
+
+    ActionedMessageIndex(Collection<String> targetMessageIds) {
+        mNumericIds = new long[Math.max(16, targetMessageIds.size())];
+        mOtherIds = new HashSet<String>(1);
+        for(String targetMessageId : targetMessageIds) {
+            Long numericId = toNumericId(targetMessageId);
+            if(numericId != null) {
+                mNumericIds[mNumNumericIds++] = numericId;
+            } else {
+                mOtherIds.add(targetMessageId);
+            }
+        }
+        Arrays.sort(mNumericIds, 0, mNumNumericIds);
+    }
+
+    synchronized boolean contains(String targetMessageId) {
+        Long numericId = toNumericId(targetMessageId);
+        if(numericId != null) {
+            return Arrays.binarySearch(mNumericIds, 0, mNumNumericIds, numericId) >= 0;
+        }
+        return mOtherIds.contains(targetMessageId);
+    }
+
+    /**
+     * @param targetMessageIds target Message ids
+     * @return the subset of targetMessageIds that are in this index.
+     */
+    synchronized Set<String> retain(Collection<String> targetMessageIds) {
+        HashSet<String> actioned = new HashSet<String>(targetMessageIds.size());
+        for(String targetMessageId : targetMessageIds) {
+            if(contains(targetMessageId)) {
+                actioned.add(targetMessageId);
+            }
+        }
+        return actioned;
+    }
+
+    synchronized void add(String targetMessageId) {
+        Long numericId = toNumericId(targetMessageId);
+        if(numericId == null) {
+            mOtherIds.add(targetMessageId);
+            return;
+        }
+        int index = Arrays.binarySearch(mNumericIds, 0, mNumNumericIds, numericId);
+        if(index < 0) {
+            int insertionPoint = -(index + 1);
+            if(mNumNumericIds == mNumericIds.length) {
+                mNumericIds = Arrays.copyOf(mNumericIds, mNumericIds.length * 2);
+            }
+            System.arraycopy(mNumericIds, insertionPoint, mNumericIds, insertionPoint + 1, mNumNumericIds - insertionPoint);
+            mNumericIds[insertionPoint] = numericId;
+            mNumNumericIds++;
+        }
+    }
+
+    synchronized void remove(String targetMessageId) {
+        Long numericId = toNumericId(targetMessageId);
+        if(numericId == null) {
+            mOtherIds.remove(targetMessageId);
+            return;
+        }
+        int index = Arrays.binarySearch(mNumericIds, 0, mNumNumericIds, numericId);
+        if(index >= 0) {
+            System.arraycopy(mNumericIds, index + 1, mNumericIds, index, mNumNumericIds - index - 1);
+            mNumNumericIds--;
+        }
+    }
+
+    synchronized int size() {
+        return mNumNumericIds + mOtherIds.size();
+    }
+
+    private static Long toNumericId(String messageId) {
+        int length = messageId.length();
+        //ids with leading zeros would not survive the round trip.
+        if(length == 0 || length > 18 || (length > 1 && messageId.charAt(0) == '0')) {
+            return null;
+        }
+        long id = 0;
+        for(int i = 0; i < length; i++) {
+            char c = messageId.charAt(i);
+            if(c < '0' || c > '9') {
+                return null;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+}
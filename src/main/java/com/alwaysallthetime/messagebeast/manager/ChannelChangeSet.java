@@ -0,0 +1,204 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A ChannelChangeSet describes the changes made to the in-memory Messages of a Channel between
+ * two ChannelSnapshots.<br><br>
+ *
+ * Changes are ordered so that they can be applied directly to a list that mirrors the previous
+ * snapshot: all REMOVED changes come first, in descending order of their position in the previous
+ * snapshot, followed by INSERTED changes in ascending order of their position in the new snapshot.
+ * REPLACED and LOCATION_RESOLVED changes refer to positions in the new snapshot.
+ *
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager#addChannelChangeListener(String, com.alwaysallthetime.messagebeast.manager.MessageManager.ChannelChangeListener)
+ */
+public class ChannelChangeSet {
+
+    public enum ChangeType {
+        /**
+         * A Message was added to the Channel's in-memory Messages.
+         */
+        INSERTED,
+
+        /**
+         * A Message was removed from the Channel's in-memory Messages.
+         */
+        REMOVED,
+
+        /**
+         * A Message was replaced by a new copy at the same position, e.g. when an unsent Message
+         * is swapped for its sent counterpart, or when a pending file attachment is replaced with
+         * a file annotation.
+         */
+        REPLACED,
+
+        /**
+         * A DisplayLocation was asynchronously resolved for a Message.
+         */
+        LOCATION_RESOLVED
+    }
+
+    public static class Change {
+        private ChangeType mType;
+        private int mPosition;
+        private MessagePlus mMessagePlus;
+        private MessagePlus mPreviousMessagePlus;
+
+        Change(ChangeType type, int position, MessagePlus messagePlus, MessagePlus previousMessagePlus) {
+            mType = type;
+            mPosition = position;
+            mMessagePlus = messagePlus;
+            mPreviousMessagePlus = previousMessagePlus;
+        }
+
+        public ChangeType getType() {
+            return mType;
+        }
+
+        /**
+         * @return the position of the change. For REMOVED changes, this is the position in the
+         * previous snapshot; for all other changes, it is the position in the new snapshot.
+         */
+        public int getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * @return the affected MessagePlus. For REMOVED changes, this is the removed MessagePlus.
+         */
+        public MessagePlus getMessagePlus() {
+            return mMessagePlus;
+        }
+
+        /**
+         * @return the MessagePlus that was replaced, for REPLACED changes. null otherwise.
+         */
+        public MessagePlus getPreviousMessagePlus() {
+            return mPreviousMessagePlus;
+        }
+    }
+
+    private String mChannelId;
+    private ChannelSnapshot mPreviousSnapshot;
+    private ChannelSnapshot mSnapshot;
+    private List<Change> mChanges;
+
+    private ChannelChangeSet(String channelId, ChannelSnapshot previousSnapshot, ChannelSnapshot snapshot, List<Change> changes) {
+        mChannelId = channelId;
+        mPreviousSnapshot = previousSnapshot;
+        mSnapshot = snapshot;
+        mChanges = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Compute the changes between two snapshots of the same Channel.
+     *
+     * @param channelId the Channel id
+     * @param previousSnapshot the snapshot last delivered to listeners. May be null.
+     * @param snapshot the current snapshot. May be null (e.g. after the MessageManager was cleared).
+     * @param locationsResolved MessagePlus objects whose DisplayLocation was resolved since the
+     *                          previous snapshot was delivered.
+     * @return a ChannelChangeSet
+     */
+    static ChannelChangeSet getChangeSet(String channelId, ChannelSnapshot previousSnapshot, ChannelSnapshot snapshot, Collection<MessagePlus> locationsResolved) {
+        List<Long> oldKeys = previousSnapshot != null ? new ArrayList<Long>(previousSnapshot.getMessageMap().keySet()) : new ArrayList<Long>(0);
+        List<Long> newKeys = snapshot != null ? new ArrayList<Long>(snapshot.getMessageMap().keySet()) : new ArrayList<Long>(0);
+        List<MessagePlus> oldMessages = previousSnapshot != null ? previousSnapshot.getMessageList() : new ArrayList<MessagePlus>(0);
+        List<MessagePlus> newMessages = snapshot != null ? snapshot.getMessageList() : new ArrayList<MessagePlus>(0);
+
+        ArrayList<Change> removed = new ArrayList<Change>();
+        ArrayList<Change> inserted = new ArrayList<Change>();
+        ArrayList<Change> replaced = new ArrayList<Change>();
+
+        //both key lists are in the order defined by the ReverseChronologicalComparator,
+        //so a single merge pass finds every difference.
+        Comparator<Long> comparator = new ReverseChronologicalComparator();
+        int o = 0, n = 0;
+        while(o < oldKeys.size() || n < newKeys.size()) {
+            int comparison;
+            if(o >= oldKeys.size()) {
+                comparison = 1;
+            } else if(n >= newKeys.size()) {
+                comparison = -1;
+            } else {
+                comparison = comparator.compare(oldKeys.get(o), newKeys.get(n));
+            }
+
+            if(comparison == 0) {
+                MessagePlus oldMessage = oldMessages.get(o);
+                MessagePlus newMessage = newMessages.get(n);
+                if(oldMessage != newMessage) {
+                    replaced.add(new Change(ChangeType.REPLACED, n, newMessage, oldMessage));
+                }
+                o++;
+                n++;
+            } else if(comparison < 0) {
+                removed.add(new Change(ChangeType.REMOVED, o, oldMessages.get(o), null));
+                o++;
+            } else {
+                inserted.add(new Change(ChangeType.INSERTED, n, newMessages.get(n), null));
+                n++;
+            }
+        }
+
+        ArrayList<Change> changes = new ArrayList<Change>(removed.size() + inserted.size() + replaced.size());
+        Collections.reverse(removed);
+        changes.addAll(removed);
+        changes.addAll(inserted);
+        changes.addAll(replaced);
+
+        if(locationsResolved != null && snapshot != null) {
+            for(MessagePlus messagePlus : locationsResolved) {
+                int position = newKeys.indexOf(messagePlus.getDisplayDate().getTime());
+                if(position >= 0) {
+                    changes.add(new Change(ChangeType.LOCATION_RESOLVED, position, newMessages.get(position), null));
+                }
+            }
+        }
+
+        return new ChannelChangeSet(channelId, previousSnapshot, snapshot, changes);
+    }
+
+    /**
+     * @return the id of the Channel that changed
+     */
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    /**
+     * @return the snapshot against which REMOVED positions are reported. May be null.
+     */
+    public ChannelSnapshot getPreviousSnapshot() {
+        return mPreviousSnapshot;
+    }
+
+    /**
+     * @return the snapshot that reflects the Channel's Messages after all changes are applied.
+     * May be null if the MessageManager was cleared.
+     */
+    public ChannelSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return an unmodifiable List of Changes, in application order.
+     */
+    public List<Change> getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * @return true if there are no changes in this set.
+     */
+    public boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+}
@@ -0,0 +1,83 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A ChannelSnapshot is an immutable, versioned view of the Messages that a MessageManager
+ * has loaded into memory for a single Channel.<br><br>
+ *
+ * Every modification of the in-memory Messages of a Channel gives the Channel a new version; the
+ * MessageManager builds a ChannelSnapshot for that version the first time one is requested.
+ * Since a snapshot never changes after it is built, it can be read from any thread without locking. To find out whether a snapshot has been superseded,
+ * use MessageManager.isSnapshotStale().
+ *
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager#getChannelSnapshot(String)
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager#isSnapshotStale(ChannelSnapshot)
+ */
+public class ChannelSnapshot {
+    private final String mChannelId;
+    private final long mVersion;
+    private final SortedMap<Long, MessagePlus> mMessageMap;
+    private final List<MessagePlus> mMessageList;
+
+    ChannelSnapshot(String channelId, long version, TreeMap<Long, MessagePlus> channelMessages) {
+        mChannelId = channelId;
+        mVersion = version;
+
+        TreeMap<Long, MessagePlus> messageMap = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
+        if(channelMessages != null) {
+            messageMap.putAll(channelMessages);
+        }
+        mMessageMap = Collections.unmodifiableSortedMap(messageMap);
+        mMessageList = Collections.unmodifiableList(new ArrayList<MessagePlus>(messageMap.values()));
+    }
+
+    /**
+     * @return the id of the Channel described by this snapshot
+     */
+    public String getChannelId() {
+        return mChannelId;
+    }
+
+    /**
+     * Get the version of this snapshot. Versions increase monotonically for a given Channel;
+     * a snapshot with a higher version reflects later in-memory state than one with a lower version.
+     *
+     * @return the version of this snapshot
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Get an unmodifiable Map of Message times in millis to MessagePlus objects, in reverse
+     * chronological order.
+     *
+     * @return an unmodifiable SortedMap of MessagePlus objects
+     */
+    public SortedMap<Long, MessagePlus> getMessageMap() {
+        return mMessageMap;
+    }
+
+    /**
+     * Get an unmodifiable List of MessagePlus objects, in reverse chronological order.
+     *
+     * @return an unmodifiable List of MessagePlus objects
+     */
+    public List<MessagePlus> getMessageList() {
+        return mMessageList;
+    }
+
+    /**
+     * @return the number of Messages in this snapshot
+     */
+    public int size() {
+        return mMessageList.size();
+    }
+}
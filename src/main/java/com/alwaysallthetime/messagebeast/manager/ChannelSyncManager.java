@@ -19,6 +19,7 @@ import com.alwaysallthetime.messagebeast.model.FullSyncState;
 import com.alwaysallthetime.messagebeast.model.MessagePlus;
 import com.alwaysallthetime.messagebeast.model.TargetWithActionChannelsSpecSet;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,7 +39,8 @@ import java.util.TreeMap;
  * ChannelSyncManager can also perform full syncs on multiple channels with one method call..<br><br>
  *
  * To use the functionality in ChannelSyncManager, it is important to first call initChannels() after
- * instantiating it with your channel specs.<br><br>
+ * instantiating it with your channel specs. Channels are initialized concurrently, and Channels
+ * that were recently obtained from the server are initialized without any requests.<br><br>
  *
  * @see com.alwaysallthetime.messagebeast.manager.ActionMessageManager
  * @see com.alwaysallthetime.messagebeast.manager.MessageManager
@@ -49,6 +51,9 @@ public class ChannelSyncManager {
 
     private static final String TAG = "MessageBeast_ChannelSyncManager";
 
+    private static final int DEFAULT_MAX_CHANNEL_INITIALIZATIONS_IN_FLIGHT = 4;
+    private static final int DEFAULT_MAX_CHANNEL_REFRESHES_IN_FLIGHT = 4;
+
     private MessageManager mMessageManager;
     private ActionMessageManager mActionMessageManager;
 
@@ -70,6 +75,10 @@ public class ChannelSyncManager {
     //
     private ChannelSpecSet mChannelSpecSet;
     private Map<String, Channel> mChannels; //indexed by channel id
+    private Channel[] mSpecChannels; //indexed by spec index
+
+    private int mMaxChannelInitializationsInFlight = DEFAULT_MAX_CHANNEL_INITIALIZATIONS_IN_FLIGHT;
+    private int mMaxChannelRefreshesInFlight = DEFAULT_MAX_CHANNEL_REFRESHES_IN_FLIGHT;
 
     private interface ChannelInitializedHandler {
         public void onChannelInitialized(Channel channel);
@@ -166,7 +175,13 @@ public class ChannelSyncManager {
      *
      * This method must be called before any operations can be performed with a ChannelSyncManager.
      *
+     * Channels are initialized concurrently; if there is a target Channel, it is initialized
+     * before its Action Channels. If any Channel fails to initialize, the handler's onException()
+     * is called once, and no further Channels are initialized.
+     *
      * @param initializedHandler a ChannelsInitializedHandler
+     *
+     * @see com.alwaysallthetime.messagebeast.PrivateChannelUtility#setChannelValidationInterval(long)
      */
     public void initChannels(final ChannelsInitializedHandler initializedHandler) {
         if(mTargetWithActionChannelsSpecSet != null) {
@@ -175,7 +190,17 @@ public class ChannelSyncManager {
                 @Override
                 public void onChannelInitialized(Channel channel) {
                     mTargetChannel = channel;
-                    initActionChannels(0, initializedHandler);
+                    new ChannelInitializationBatch(mTargetWithActionChannelsSpecSet.getNumActionChannels(), initializedHandler) {
+                        @Override
+                        void initChannelAtIndex(int index, ChannelInitializedHandler handler) {
+                            initActionChannel(mTargetWithActionChannelsSpecSet.getActionChannelActionTypeAtIndex(index), mTargetChannel, handler);
+                        }
+
+                        @Override
+                        void putChannelAtIndex(int index, Channel channel) {
+                            mActionChannels.put(mTargetWithActionChannelsSpecSet.getActionChannelActionTypeAtIndex(index), channel);
+                        }
+                    }.start();
                 }
 
                 @Override
@@ -186,10 +211,42 @@ public class ChannelSyncManager {
         } else {
             //just multiple "regular" channels
             mChannels = new HashMap<String, Channel>(mChannelSpecSet.getNumChannels());
-            initChannels(0, initializedHandler);
+            mSpecChannels = new Channel[mChannelSpecSet.getNumChannels()];
+            new ChannelInitializationBatch(mChannelSpecSet.getNumChannels(), initializedHandler) {
+                @Override
+                void initChannelAtIndex(int index, ChannelInitializedHandler handler) {
+                    initChannel(mChannelSpecSet.getChannelSpecAtIndex(index), handler);
+                }
+
+                @Override
+                void putChannelAtIndex(int index, Channel channel) {
+                    mChannels.put(channel.getId(), channel);
+                    mSpecChannels[index] = channel;
+                }
+            }.start();
         }
     }
 
+    /**
+     * Set the maximum number of Channels that initChannels() initializes at the same time.
+     * The default is 4.
+     *
+     * @param maxInFlight the maximum number of concurrent Channel initializations.
+     */
+    public void setMaxChannelInitializationsInFlight(int maxInFlight) {
+        mMaxChannelInitializationsInFlight = maxInFlight;
+    }
+
+    /**
+     * Set the maximum number of Channels that retrieveNewestMessages() refreshes at the same time.
+     * The default is 4.
+     *
+     * @param maxInFlight the maximum number of concurrent Channel refreshes.
+     */
+    public void setMaxChannelRefreshesInFlight(int maxInFlight) {
+        mMaxChannelRefreshesInFlight = maxInFlight;
+    }
+
     /**
      * Check the FullSyncStatus for the Channels associated with this manager and begin syncing
      * if all Channels do not already have a FullSyncState of COMPLETE.
@@ -264,38 +321,62 @@ public class ChannelSyncManager {
     /**
      * Retrieve the newest messages in all channels associated with this manager.
      *
+     * Channels are refreshed concurrently (see setMaxChannelRefreshesInFlight()). The results are
+     * added to the ChannelRefreshResultSet in a fixed order: the target Channel followed by the
+     * Action Channels in spec order, or the Channels in spec order.
+     *
+     * New Action Messages from all Action Channels are processed together, after the target
+     * Channel has been refreshed.
+     *
      * @param refreshHandler ChannelRefreshHandler the handler that will be passed
      *                       a ChannelRefreshResultSet upon completion of this operation.
      */
     public void retrieveNewestMessages(final ChannelRefreshHandler refreshHandler) {
         if(mTargetWithActionChannelsSpecSet != null) {
-            final ChannelRefreshResultSet refreshResultSet = new ChannelRefreshResultSet();
-
-            MessageFilter messageFilter = mTargetWithActionChannelsSpecSet.getTargetChannelSpec().getMessageFilter();
-            boolean canRetrieve = mMessageManager.retrieveNewestMessages(mTargetChannel.getId(), messageFilter, new MessageManager.MessageManagerResponseHandler() {
+            //index 0 is the target Channel; the Action Channels follow.
+            final int numActionChannels = mTargetWithActionChannelsSpecSet.getNumActionChannels();
+            new ChannelRefreshBatch(numActionChannels + 1, refreshHandler) {
                 @Override
-                public void onSuccess(List<MessagePlus> responseData) {
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(mTargetChannel, responseData, getExcludedResults());
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestActionChannelMessages(0, refreshResultSet, refreshHandler);
+                Channel getChannelAtIndex(int index) {
+                    if(index == 0) {
+                        return mTargetChannel;
+                    }
+                    return mActionChannels.get(mTargetWithActionChannelsSpecSet.getActionChannelActionTypeAtIndex(index - 1));
                 }
 
                 @Override
-                public void onError(Exception exception) {
-                    Log.e(TAG, exception.getMessage(), exception);
-
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(mTargetChannel, exception);
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestActionChannelMessages(0, refreshResultSet, refreshHandler);
+                boolean retrieveAtIndex(int index, MessageManager.MessageManagerResponseHandler responseHandler) {
+                    if(index == 0) {
+                        MessageFilter messageFilter = mTargetWithActionChannelsSpecSet.getTargetChannelSpec().getMessageFilter();
+                        return mMessageManager.retrieveNewestMessages(mTargetChannel.getId(), messageFilter, responseHandler);
+                    }
+                    return mActionMessageManager.retrieveNewestMessages(getChannelAtIndex(index).getId(), false, responseHandler);
                 }
-            });
 
-            if(!canRetrieve) {
-                refreshResultSet.addRefreshResult(new ChannelRefreshResult(mTargetChannel));
-                retrieveNewestActionChannelMessages(0, refreshResultSet, refreshHandler);
-            }
+                @Override
+                void onRefreshed(ChannelRefreshResult[] results) {
+                    ArrayList<MessagePlus> newActionMessages = new ArrayList<MessagePlus>();
+                    for(int i = 1; i < results.length; i++) {
+                        if(results[i].isSuccess()) {
+                            newActionMessages.addAll(results[i].getMessages());
+                        }
+                    }
+                    mActionMessageManager.processNewActionMessages(newActionMessages);
+                }
+            }.start();
         } else {
-            retrieveNewestMessagesInChannelsList(0, new ChannelRefreshResultSet(), refreshHandler);
+            new ChannelRefreshBatch(mChannelSpecSet.getNumChannels(), refreshHandler) {
+                @Override
+                Channel getChannelAtIndex(int index) {
+                    return mSpecChannels[index];
+                }
+
+                @Override
+                boolean retrieveAtIndex(int index, MessageManager.MessageManagerResponseHandler responseHandler) {
+                    MessageFilter messageFilter = mChannelSpecSet.getChannelSpecAtIndex(index).getMessageFilter();
+                    return mMessageManager.retrieveNewestMessages(mSpecChannels[index].getId(), messageFilter, responseHandler);
+                }
+            }.start();
         }
     }
 
@@ -369,69 +450,6 @@ public class ChannelSyncManager {
         }
     }
 
-    private void retrieveNewestMessagesInChannelsList(final int index, final ChannelRefreshResultSet refreshResultSet, final ChannelRefreshHandler refreshHandler) {
-        if(index >= mChannelSpecSet.getNumChannels()) {
-            refreshHandler.onComplete(refreshResultSet);
-        } else {
-            final ChannelSpec spec = mChannelSpecSet.getChannelSpecAtIndex(index);
-            final Channel channel = mChannels.get(spec);
-            boolean canRetrieve = mMessageManager.retrieveNewestMessages(channel.getId(), spec.getMessageFilter(), new MessageManager.MessageManagerResponseHandler() {
-                @Override
-                public void onSuccess(List<MessagePlus> responseData) {
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(channel, responseData);
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestMessagesInChannelsList(index + 1, refreshResultSet, refreshHandler);
-                }
-
-                @Override
-                public void onError(Exception exception) {
-                    Log.e(TAG, exception.getMessage(), exception);
-
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(channel, exception);
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestMessagesInChannelsList(index + 1, refreshResultSet, refreshHandler);
-                }
-            });
-
-            if(!canRetrieve) {
-                refreshResultSet.addRefreshResult(new ChannelRefreshResult(channel));
-                retrieveNewestMessagesInChannelsList(index + 1, refreshResultSet, refreshHandler);
-            }
-        }
-    }
-
-    private void retrieveNewestActionChannelMessages(final int index, final ChannelRefreshResultSet refreshResultSet, final ChannelRefreshHandler refreshHandler) {
-        if(index >= mTargetWithActionChannelsSpecSet.getNumActionChannels()) {
-            if(refreshHandler != null) {
-                refreshHandler.onComplete(refreshResultSet);
-            }
-        } else {
-            final Channel actionChannel = mActionChannels.get(mTargetWithActionChannelsSpecSet.getActionChannelActionTypeAtIndex(index));
-            boolean canRetrieve = mActionMessageManager.retrieveNewestMessages(actionChannel.getId(), new MessageManager.MessageManagerResponseHandler() {
-                @Override
-                public void onSuccess(List<MessagePlus> responseData) {
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(actionChannel, responseData);
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestActionChannelMessages(index + 1, refreshResultSet, refreshHandler);
-                }
-
-                @Override
-                public void onError(Exception exception) {
-                    Log.e(TAG, exception.getMessage(), exception);
-
-                    ChannelRefreshResult refreshResult = new ChannelRefreshResult(actionChannel, exception);
-                    refreshResultSet.addRefreshResult(refreshResult);
-                    retrieveNewestActionChannelMessages(index + 1, refreshResultSet, refreshHandler);
-                }
-            });
-
-            if(!canRetrieve) {
-                refreshResultSet.addRefreshResult(new ChannelRefreshResult(actionChannel));
-                retrieveNewestActionChannelMessages(index + 1, refreshResultSet, refreshHandler);
-            }
-        }
-    }
-
     /**
      * Get the MessageManager used by this ChannelSyncManager.
      *
@@ -501,43 +519,181 @@ public class ChannelSyncManager {
         }
     }
 
-    private void initChannels(final int index, final ChannelsInitializedHandler initializedHandler) {
-        if(index >= mChannelSpecSet.getNumChannels()) {
-            initializedHandler.onChannelsInitialized();
-            ADNApplication.getContext().sendBroadcast(new Intent(INTENT_ACTION_CHANNELS_INITIALIZED));
-        } else {
-            ChannelSpec spec = mChannelSpecSet.getChannelSpecAtIndex(index);
-            initChannel(spec, new ChannelInitializedHandler() {
-                @Override
-                public void onChannelInitialized(Channel channel) {
-                    mChannels.put(channel.getId(), channel);
-                    initChannels(index+1, initializedHandler);
-                }
+    /**
+     * Initializes a list of Channels, keeping at most mMaxChannelInitializationsInFlight
+     * initializations in flight at a time.
+     */
+    private abstract class ChannelInitializationBatch {
+        private int mNumChannels;
+        private ChannelsInitializedHandler mInitializedHandler;
+        private int mNextToInit;
+        private int mNumInFlight;
+        private int mNumInitialized;
+        private boolean mIsFilling;
+        private boolean mIsFailed;
+
+        ChannelInitializationBatch(int numChannels, ChannelsInitializedHandler initializedHandler) {
+            mNumChannels = numChannels;
+            mInitializedHandler = initializedHandler;
+        }
 
-                @Override
-                public void onException() {
-                    initializedHandler.onException();
+        abstract void initChannelAtIndex(int index, ChannelInitializedHandler handler);
+        abstract void putChannelAtIndex(int index, Channel channel);
+
+        synchronized void start() {
+            if(mNumChannels == 0) {
+                finish();
+            } else {
+                fill();
+            }
+        }
+
+        private synchronized void fill() {
+            //Channels that don't need validating are initialized synchronously, so an
+            //initialization can complete (and call back into fill()) before it returns.
+            if(mIsFilling) {
+                return;
+            }
+            mIsFilling = true;
+            try {
+                int maxInFlight = Math.max(1, mMaxChannelInitializationsInFlight);
+                while(!mIsFailed && mNumInFlight < maxInFlight && mNextToInit < mNumChannels) {
+                    final int index = mNextToInit;
+                    mNextToInit++;
+                    mNumInFlight++;
+                    initChannelAtIndex(index, new ChannelInitializedHandler() {
+                        @Override
+                        public void onChannelInitialized(Channel channel) {
+                            onInitComplete(index, channel);
+                        }
+
+                        @Override
+                        public void onException() {
+                            onInitComplete(index, null);
+                        }
+                    });
                 }
-            });
+            } finally {
+                mIsFilling = false;
+            }
+        }
+
+        private synchronized void onInitComplete(int index, Channel channel) {
+            mNumInFlight--;
+            if(mIsFailed) {
+                return;
+            }
+            if(channel == null) {
+                mIsFailed = true;
+                mInitializedHandler.onException();
+                return;
+            }
+
+            putChannelAtIndex(index, channel);
+            mNumInitialized++;
+            if(mNumInitialized == mNumChannels) {
+                finish();
+            } else {
+                fill();
+            }
         }
-    }
 
-    private void initActionChannels(final int index, final ChannelsInitializedHandler initializedHandler) {
-        if(index >= mTargetWithActionChannelsSpecSet.getNumActionChannels()) {
-            initializedHandler.onChannelsInitialized();
+        private void finish() {
+            mInitializedHandler.onChannelsInitialized();
             ADNApplication.getContext().sendBroadcast(new Intent(INTENT_ACTION_CHANNELS_INITIALIZED));
-        } else {
-            final String actionType = mTargetWithActionChannelsSpecSet.getActionChannelActionTypeAtIndex(index);
-            initActionChannel(actionType, mTargetChannel, new Runnable() {
-                @Override
-                public void run() {
-                    if(mActionChannels.get(actionType) != null) {
-                        initActionChannels(index + 1, initializedHandler);
-                    } else {
-                        initializedHandler.onException();
+        }
+    }
+
+    /**
+     * Retrieves the newest Messages in a list of Channels, keeping at most
+     * mMaxChannelRefreshesInFlight retrievals in flight at a time. Results are collected by index
+     * and handed to the ChannelRefreshHandler in index order once every Channel is done.
+     */
+    private abstract class ChannelRefreshBatch {
+        private ChannelRefreshResult[] mResults;
+        private ChannelRefreshHandler mRefreshHandler;
+        private int mNextToRefresh;
+        private int mNumInFlight;
+        private int mNumRefreshed;
+        private boolean mIsFilling;
+
+        ChannelRefreshBatch(int numChannels, ChannelRefreshHandler refreshHandler) {
+            mResults = new ChannelRefreshResult[numChannels];
+            mRefreshHandler = refreshHandler;
+        }
+
+        abstract Channel getChannelAtIndex(int index);
+        abstract boolean retrieveAtIndex(int index, MessageManager.MessageManagerResponseHandler responseHandler);
+
+        /**
+         * Called with all results, in index order, before they are passed to the ChannelRefreshHandler.
+         */
+        void onRefreshed(ChannelRefreshResult[] results) {
+        }
+
+        synchronized void start() {
+            if(mResults.length == 0) {
+                finish();
+            } else {
+                fill();
+            }
+        }
+
+        private synchronized void fill() {
+            //a retrieval that is blocked by unsent Messages completes before it returns.
+            if(mIsFilling) {
+                return;
+            }
+            mIsFilling = true;
+            try {
+                int maxInFlight = Math.max(1, mMaxChannelRefreshesInFlight);
+                while(mNumInFlight < maxInFlight && mNextToRefresh < mResults.length) {
+                    final int index = mNextToRefresh;
+                    final Channel channel = getChannelAtIndex(index);
+                    mNextToRefresh++;
+                    mNumInFlight++;
+                    boolean canRetrieve = retrieveAtIndex(index, new MessageManager.MessageManagerResponseHandler() {
+                        @Override
+                        public void onSuccess(List<MessagePlus> responseData) {
+                            onRefreshComplete(index, new ChannelRefreshResult(channel, responseData, getExcludedResults()));
+                        }
+
+                        @Override
+                        public void onError(Exception exception) {
+                            Log.e(TAG, exception.getMessage(), exception);
+                            onRefreshComplete(index, new ChannelRefreshResult(channel, exception));
+                        }
+                    });
+
+                    if(!canRetrieve) {
+                        onRefreshComplete(index, new ChannelRefreshResult(channel));
                     }
                 }
-            });
+            } finally {
+                mIsFilling = false;
+            }
+        }
+
+        private synchronized void onRefreshComplete(int index, ChannelRefreshResult refreshResult) {
+            mNumInFlight--;
+            mResults[index] = refreshResult;
+            mNumRefreshed++;
+            if(mNumRefreshed == mResults.length) {
+                finish();
+            } else {
+                fill();
+            }
+        }
+
+        private void finish() {
+            onRefreshed(mResults);
+            ChannelRefreshResultSet refreshResultSet = new ChannelRefreshResultSet();
+            for(ChannelRefreshResult refreshResult : mResults) {
+                refreshResultSet.addRefreshResult(refreshResult);
+            }
+            if(mRefreshHandler != null) {
+                mRefreshHandler.onComplete(refreshResultSet);
+            }
         }
     }
 
@@ -546,6 +702,9 @@ public class ChannelSyncManager {
             @Override
             public void onResponse(Channel channel, boolean createdNewChannel) {
                 mMessageManager.setParameters(channel.getId(), channelSpec.getQueryParameters());
+                if(channelSpec.hasPageSizeBounds()) {
+                    mMessageManager.setPageSizeBounds(channel.getId(), channelSpec.getMinPageSize(), channelSpec.getMaxPageSize());
+                }
                 channelInitializedHandler.onChannelInitialized(channel);
             }
 
@@ -557,18 +716,17 @@ public class ChannelSyncManager {
         });
     }
 
-    private void initActionChannel(final String actionType, Channel targetChannel, final Runnable completionRunnable) {
+    private void initActionChannel(final String actionType, Channel targetChannel, final ChannelInitializedHandler channelInitializedHandler) {
         mActionMessageManager.initActionChannel(actionType, targetChannel, new ActionMessageManager.ActionChannelInitializedHandler() {
             @Override
             public void onInitialized(Channel channel) {
-                mActionChannels.put(actionType, channel);
-                completionRunnable.run();
+                channelInitializedHandler.onChannelInitialized(channel);
             }
 
             @Override
             public void onException(Exception exception) {
                 Log.e(TAG, exception.getMessage(), exception);
-                completionRunnable.run();
+                channelInitializedHandler.onException();
             }
         });
     }
@@ -12,6 +12,7 @@ import com.alwaysallthetime.adnlib.data.File;
 import com.alwaysallthetime.adnlib.response.FileResponseHandler;
 import com.alwaysallthetime.messagebeast.ADNApplication;
 import com.alwaysallthetime.messagebeast.db.ADNDatabase;
+import com.alwaysallthetime.messagebeast.db.OutboundWork;
 import com.alwaysallthetime.messagebeast.db.PendingFile;
 
 import java.util.Collections;
@@ -165,23 +166,40 @@ public class FileManager {
      */
     public void sendPendingFileDeletions() {
         Set<String> pendingFileDeletions = mDatabase.getPendingFileDeletions();
-        for(final String fileId : pendingFileDeletions) {
-            mClient.deleteFile(fileId, new FileResponseHandler() {
-                @Override
-                public void onSuccess(File responseData) {
-                    mDatabase.deletePendingFileDeletion(responseData.getId());
-                }
+        for(String fileId : pendingFileDeletions) {
+            sendPendingFileDeletion(fileId);
+        }
+    }
 
-                @Override
-                public void onError(Exception error) {
-                    super.onError(error);
-                    Integer statusCode = getStatusCode();
-                    if(statusCode != null && statusCode == 403) {
-                        mDatabase.deletePendingFileDeletion(fileId);
-                    }
+    /**
+     * Send a single pending file deletion.
+     *
+     * @param fileId the id of the file to delete
+     */
+    public void sendPendingFileDeletion(final String fileId) {
+        mClient.deleteFile(fileId, new FileResponseHandler() {
+            @Override
+            public void onSuccess(File responseData) {
+                mDatabase.deletePendingFileDeletion(responseData.getId());
+                getOutboundWorkScheduler().onWorkSucceeded(OutboundWork.Type.FILE_DELETION, fileId);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                super.onError(error);
+                Integer statusCode = getStatusCode();
+                if(statusCode != null && statusCode == 403) {
+                    mDatabase.deletePendingFileDeletion(fileId);
+                    getOutboundWorkScheduler().onWorkDiscarded(OutboundWork.Type.FILE_DELETION, fileId);
+                } else {
+                    getOutboundWorkScheduler().onWorkFailed(OutboundWork.Type.FILE_DELETION, fileId, null, statusCode);
                 }
-            });
-        }
+            }
+        });
+    }
+
+    private OutboundWorkScheduler getOutboundWorkScheduler() {
+        return OutboundWorkScheduler.getInstance(mClient);
     }
 
     private final BroadcastReceiver fileUploadReceiver = new BroadcastReceiver() {
@@ -198,6 +216,7 @@ public class FileManager {
                 if(success) {
                     if(pendingFileId != null) {
                         mDatabase.deletePendingFile(pendingFileId);
+                        getOutboundWorkScheduler().onWorkSucceeded(OutboundWork.Type.FILE_UPLOAD, pendingFileId);
                     }
                 } else if(pendingFileId != null) {
                     Log.e(TAG, "Failed to upload pending file with id " + pendingFileId);
@@ -205,6 +224,14 @@ public class FileManager {
                     if(pendingFile != null) {
                         pendingFile.incrementSendAttempts();
                         mDatabase.insertOrReplacePendingFile(pendingFile);
+
+                        if(!intent.getBooleanExtra(FileUploadService.EXTRA_FILE_NOT_FOUND, false)) {
+                            String associatedChannelId = intent.getStringExtra(FileUploadService.EXTRA_ASSOCIATED_CHANNEL_ID);
+                            getOutboundWorkScheduler().onWorkFailed(OutboundWork.Type.FILE_UPLOAD, pendingFileId, associatedChannelId, null);
+                        } else {
+                            //retrying won't bring the file back.
+                            getOutboundWorkScheduler().onWorkDiscarded(OutboundWork.Type.FILE_UPLOAD, pendingFileId);
+                        }
                     } else {
                         Log.e(TAG, "File " + pendingFileId + " is not in the database");
                     }
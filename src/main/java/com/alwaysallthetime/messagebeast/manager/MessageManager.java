@@ -4,8 +4,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.location.Address;
-import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.alwaysallthetime.adnlib.Annotations;
@@ -22,22 +22,28 @@ import com.alwaysallthetime.adnlib.gson.AppDotNetGson;
 import com.alwaysallthetime.adnlib.response.FileResponseHandler;
 import com.alwaysallthetime.adnlib.response.MessageListResponseHandler;
 import com.alwaysallthetime.adnlib.response.MessageResponseHandler;
-import com.alwaysallthetime.asyncgeocoder.AsyncGeocoder;
-import com.alwaysallthetime.asyncgeocoder.response.AsyncGeocoderResponseHandler;
 import com.alwaysallthetime.messagebeast.ADNApplication;
 import com.alwaysallthetime.messagebeast.ADNSharedPreferences;
+import com.alwaysallthetime.messagebeast.AnnotationFactory;
 import com.alwaysallthetime.messagebeast.AnnotationUtility;
 import com.alwaysallthetime.messagebeast.PrivateChannelUtility;
 import com.alwaysallthetime.messagebeast.db.ADNDatabase;
 import com.alwaysallthetime.messagebeast.db.AnnotationInstances;
+import com.alwaysallthetime.messagebeast.db.AnnotationValueInstances;
+import com.alwaysallthetime.messagebeast.db.AnnotationValuePath;
 import com.alwaysallthetime.messagebeast.db.DisplayLocationInstances;
 import com.alwaysallthetime.messagebeast.db.FilteredMessageBatch;
 import com.alwaysallthetime.messagebeast.db.HashtagInstances;
+import com.alwaysallthetime.messagebeast.db.MessageQuery;
 import com.alwaysallthetime.messagebeast.db.OrderedMessageBatch;
+import com.alwaysallthetime.messagebeast.db.OutboundWork;
 import com.alwaysallthetime.messagebeast.db.PendingFileAttachment;
 import com.alwaysallthetime.messagebeast.db.PendingMessageDeletion;
 import com.alwaysallthetime.messagebeast.filter.MessageFilter;
 import com.alwaysallthetime.messagebeast.filter.MessageInstancesFilter;
+import com.alwaysallthetime.messagebeast.filter.PredicateMessageFilter;
+import com.alwaysallthetime.messagebeast.geocoder.AndroidReverseGeocoder;
+import com.alwaysallthetime.messagebeast.geocoder.ReverseGeocoder;
 import com.alwaysallthetime.messagebeast.model.CustomPlace;
 import com.alwaysallthetime.messagebeast.model.DisplayLocation;
 import com.alwaysallthetime.messagebeast.model.FullSyncState;
@@ -48,16 +54,19 @@ import com.google.gson.Gson;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * MessageManager is used to retrieve, create, and delete Messages in any number of channels.<br><br>
@@ -89,13 +98,19 @@ import java.util.UUID;
  * Message can be retrieved - with its server-assigned id).<br>
  *
  * • Perform a full sync on a specified channel, obtaining every Message in existence in that Channel.
- * This is especially useful in cases where a Channel is used privately by a single user.
+ * This is especially useful in cases where a Channel is used privately by a single user.<br><br>
+ *
+ * Lock order: an attached ActionMessageManager's lock is always taken before the MessageManager's,
+ * and the MessageManager's before the OutboundWorkScheduler's. The MessageManager therefore never
+ * calls into the ActionMessageManager (or into a handler that might) while holding its own lock.
  */
 public class MessageManager {
 
     private static final String TAG = "MessageBeast_MessageManager";
 
     private static final int MAX_MESSAGES_RETURNED_ON_SYNC = 100;
+    private static final int DEFAULT_API_COUNT = 20;
+    private static final long CHANGE_DISPATCH_INTERVAL_MILLIS = 16;
 
     /**
      * An intent with this action is broadcasted when unsent messages are successfully sent.
@@ -182,6 +197,17 @@ public class MessageManager {
         public Date getDisplayDate(Message message);
     }
 
+    /**
+     * A ChannelChangeListener is notified on the main thread with the incremental changes made
+     * to the in-memory Messages of a Channel. Changes that happen within the same frame are
+     * coalesced into a single ChannelChangeSet.
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.ChannelChangeSet
+     */
+    public interface ChannelChangeListener {
+        public void onChannelChanged(ChannelChangeSet changeSet);
+    }
+
     private static MessageManager sInstance;
 
     private Context mContext;
@@ -189,6 +215,9 @@ public class MessageManager {
     private AppDotNetClient mClient;
     private MessageManagerConfiguration mConfiguration;
     private ActionMessageManager mAttachedActionMessageManager;
+    private OutboundWorkScheduler mOutboundWorkScheduler;
+    private ReverseGeocodingQueue mReverseGeocodingQueue;
+    private PersistedPagePrefetcher mPersistedPagePrefetcher;
 
     private HashMap<String, TreeMap<Long, MessagePlus>> mMessages;
     private HashMap<String, TreeMap<Long, MessagePlus>> mUnsentMessages;
@@ -196,6 +225,20 @@ public class MessageManager {
     private HashMap<String, Set<String>> mMessagesNeedingPendingFiles;
     private HashMap<String, QueryParameters> mParameters;
     private HashMap<String, MinMaxPair> mMinMaxPairs;
+    private HashMap<String, PageSizeController> mPageSizeControllers;
+    private HashMap<String, UnsentMessageSendWindow> mUnsentMessageSendWindows;
+    private HashMap<String, PendingDeletionBatch> mPendingDeletionBatches;
+
+    private ConcurrentHashMap<String, ChannelSnapshot> mSnapshots;
+    private ConcurrentHashMap<String, Long> mSnapshotVersions;
+    private long mSnapshotVersion;
+
+    private Handler mHandler;
+    private HashMap<String, List<ChannelChangeListener>> mChangeListeners;
+    private HashMap<String, ChannelSnapshot> mDeliveredSnapshots;
+    private HashMap<String, List<MessagePlus>> mResolvedLocations;
+    private HashSet<String> mChannelsWithPendingChanges;
+    private boolean mIsChangeDispatchScheduled;
 
     public MessageManager(AppDotNetClient client, MessageManagerConfiguration configuration) {
         mContext = ADNApplication.getContext();
@@ -208,9 +251,27 @@ public class MessageManager {
         mMinMaxPairs = new HashMap<String, MinMaxPair>();
         mParameters = new HashMap<String, QueryParameters>();
         mMessagesNeedingPendingFiles = new HashMap<String, Set<String>>();
+        mPageSizeControllers = new HashMap<String, PageSizeController>();
+        mUnsentMessageSendWindows = new HashMap<String, UnsentMessageSendWindow>();
+        mPendingDeletionBatches = new HashMap<String, PendingDeletionBatch>();
+        mSnapshots = new ConcurrentHashMap<String, ChannelSnapshot>();
+        mSnapshotVersions = new ConcurrentHashMap<String, Long>();
+        mHandler = new Handler(Looper.getMainLooper());
+        mChangeListeners = new HashMap<String, List<ChannelChangeListener>>();
+        mDeliveredSnapshots = new HashMap<String, ChannelSnapshot>();
+        mResolvedLocations = new HashMap<String, List<MessagePlus>>();
+        mChannelsWithPendingChanges = new HashSet<String>();
+        ReverseGeocoder reverseGeocoder = configuration.reverseGeocoder != null ? configuration.reverseGeocoder : new AndroidReverseGeocoder(mContext);
+        mReverseGeocodingQueue = new ReverseGeocodingQueue(reverseGeocoder, mDatabase, mReverseGeocodingListener);
+        if(configuration.persistedPagePrefetchDistance > 0) {
+            mPersistedPagePrefetcher = new PersistedPagePrefetcher(mDatabase, configuration.persistedPagePrefetchDistance);
+        }
 
         IntentFilter intentFilter = new IntentFilter(FileUploadService.INTENT_ACTION_FILE_UPLOAD_COMPLETE);
         mContext.registerReceiver(fileUploadReceiver, intentFilter);
+
+        mOutboundWorkScheduler = OutboundWorkScheduler.getInstance(client);
+        mOutboundWorkScheduler.setMessageManager(this);
     }
 
     /**
@@ -226,6 +287,18 @@ public class MessageManager {
         mMessagesNeedingPendingFiles.clear();
         mParameters.clear();
         mMinMaxPairs.clear();
+        if(mPersistedPagePrefetcher != null) {
+            mPersistedPagePrefetcher.invalidate(null);
+        }
+        mSnapshots.clear();
+        mSnapshotVersions.clear();
+        mResolvedLocations.clear();
+        mReverseGeocodingQueue.clearCache();
+
+        //let listeners know that everything is gone.
+        for(String channelId : mChangeListeners.keySet()) {
+            scheduleChangeDispatch(channelId);
+        }
     }
 
     /**
@@ -251,15 +324,26 @@ public class MessageManager {
                 unsentChanneMessages.put(time, messagePlus);
             }
         }
+
+        publishSnapshot(channelId);
     }
 
-    private synchronized OrderedMessageBatch loadPersistedMessageBatch(String channelId, int limit, boolean performLookups) {
+    private synchronized OrderedMessageBatch loadPersistedMessageBatch(String channelId, int limit, PredicateMessageFilter filter, boolean performLookups) {
         Date beforeDate = null;
         MinMaxPair minMaxPair = getMinMaxPair(channelId);
         if(minMaxPair.minDate != null) {
             beforeDate = new Date(minMaxPair.minDate);
         }
-        OrderedMessageBatch orderedMessageBatch = mDatabase.getMessages(channelId, beforeDate, limit);
+        OrderedMessageBatch orderedMessageBatch = null;
+        if(mPersistedPagePrefetcher != null && filter == null) {
+            orderedMessageBatch = mPersistedPagePrefetcher.take(channelId, beforeDate, limit);
+        }
+        if(orderedMessageBatch == null) {
+            orderedMessageBatch = mDatabase.getMessages(channelId, beforeDate, limit, filter);
+        }
+        if(mPersistedPagePrefetcher != null && filter == null) {
+            mPersistedPagePrefetcher.prefetchAfter(channelId, orderedMessageBatch, limit);
+        }
         TreeMap<Long, MessagePlus> messages = orderedMessageBatch.getMessages();
         MinMaxPair dbMinMaxPair = orderedMessageBatch.getMinMaxPair();
         minMaxPair.updateWithCombinedValues(dbMinMaxPair);
@@ -287,13 +371,47 @@ public class MessageManager {
      * to MessagePlus Object. If no Messages were loaded, then an empty Map is returned.
      */
     public synchronized TreeMap<Long, MessagePlus> loadPersistedMessages(String channelId, int limit) {
-        OrderedMessageBatch batch = loadPersistedMessageBatch(channelId, limit, true);
+        OrderedMessageBatch batch = loadPersistedMessageBatch(channelId, limit, null, true);
+        publishSnapshot(channelId);
         return batch.getMessages();
     }
 
+    /**
+     * Get the PersistedPagePrefetcher used by loadPersistedMessages(), e.g. to read its hit rate.
+     *
+     * @return the PersistedPagePrefetcher, or null if prefetching is not enabled.
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setPersistedPagePrefetchDistance(int)
+     */
+    public PersistedPagePrefetcher getPersistedPagePrefetcher() {
+        return mPersistedPagePrefetcher;
+    }
+
+    /**
+     * Stop prefetching persisted pages, e.g. when the MessageManager is no longer needed.
+     * Staged pages are dropped and the prefetch thread is quit; loadPersistedMessages() reads
+     * every page from the database from then on.
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setPersistedPagePrefetchDistance(int)
+     */
+    public synchronized void stopPersistedPagePrefetching() {
+        if(mPersistedPagePrefetcher != null) {
+            mPersistedPagePrefetcher.quit();
+            mPersistedPagePrefetcher = null;
+        }
+    }
+
     /**
      * Load persisted messages that were previously stored in the sqlite database, using a filter
-     * to exclude any number of messages.
+     * to exclude any number of messages.<br><br>
+     *
+     * If the filter is a PredicateMessageFilter, it is applied while reading from the database:
+     * pages are read until limit Messages that satisfy the filter have been loaded, or there are
+     * no older Messages. The predicates that the query can decide keep most excluded Messages
+     * from being decoded; the rest are checked after decoding. Either way, excluded Messages
+     * don't count toward the limit and are not included in the batch's excluded Messages. Any
+     * other MessageFilter is applied to the limit Messages that are loaded, so fewer than limit
+     * Messages may be kept.
      *
      * @param channelId the id of the channel for which messages should be loaded.
      * @param limit the maximum number of messages to load from the database.
@@ -303,16 +421,19 @@ public class MessageManager {
      * a Map of messages containing the excluded Messages.
      *
      * @see com.alwaysallthetime.messagebeast.filter.MessageFilter
+     * @see com.alwaysallthetime.messagebeast.filter.PredicateMessageFilter
      * @see com.alwaysallthetime.messagebeast.db.FilteredMessageBatch
      */
     public synchronized FilteredMessageBatch loadPersistedMessages(String channelId, int limit, MessageFilter filter) {
-        OrderedMessageBatch batch = loadPersistedMessageBatch(channelId, limit, false);
+        PredicateMessageFilter predicateFilter = filter instanceof PredicateMessageFilter ? (PredicateMessageFilter) filter : null;
+        OrderedMessageBatch batch = loadPersistedMessageBatch(channelId, limit, predicateFilter, false);
         FilteredMessageBatch filteredBatch = FilteredMessageBatch.getFilteredMessageBatch(batch, filter);
         TreeMap<Long, MessagePlus> excludedMessages = filteredBatch.getExcludedMessages();
 
         //remove the filtered messages from the main channel message map.
         TreeMap<Long, MessagePlus> channelMessages = mMessages.get(channelId);
         removeExcludedMessages(channelMessages, excludedMessages);
+        publishSnapshot(channelId);
 
         //do this after we have successfully filtered out stuff,
         //as to not perform lookups on things we didn't keep.
@@ -386,8 +507,12 @@ public class MessageManager {
      * @see com.alwaysallthetime.messagebeast.db.ADNDatabase#getDisplayLocationInstances(String, com.alwaysallthetime.messagebeast.model.DisplayLocation, com.alwaysallthetime.messagebeast.db.ADNDatabase.LocationPrecision)
      */
     public TreeMap<Long, MessagePlus> getMessages(String channelId, DisplayLocation location, ADNDatabase.LocationPrecision precision, Date beforeDate, int limit) {
-        DisplayLocationInstances locationInstances = mDatabase.getDisplayLocationInstances(channelId, location, precision, beforeDate, limit);
-        return getMessages(locationInstances.getMessageIds());
+        MessageQuery query = MessageQuery.MessageQueryBuilder.newBuilder(channelId)
+                .setDisplayLocation(location, precision)
+                .setBeforeDate(beforeDate)
+                .setLimit(limit)
+                .build();
+        return getMessages(query).getMessages();
     }
 
     /**
@@ -420,8 +545,12 @@ public class MessageManager {
      * @return a TreeMap mapping Message times in millis to MessagePlus objects
      */
     public TreeMap<Long, MessagePlus> getMessages(String channelId, String hashtagName, Date beforeDate, int limit) {
-        HashtagInstances hashtagInstances = mDatabase.getHashtagInstances(channelId, hashtagName, beforeDate, limit);
-        return getMessages(hashtagInstances.getMessageIds());
+        MessageQuery query = MessageQuery.MessageQueryBuilder.newBuilder(channelId)
+                .addHashtag(hashtagName)
+                .setBeforeDate(beforeDate)
+                .setLimit(limit)
+                .build();
+        return getMessages(query).getMessages();
     }
 
     /**
@@ -448,8 +577,12 @@ public class MessageManager {
      * @return a TreeMap mapping Message times in millis to MessagePlus objects
      */
     public TreeMap<Long, MessagePlus> getMessagesWithAnnotation(String channelId, String annotationType, Date beforeDate, int limit) {
-        AnnotationInstances instances = getAnnotationInstances(channelId, annotationType, beforeDate, limit);
-        return getMessages(instances.getMessageIds());
+        MessageQuery query = MessageQuery.MessageQueryBuilder.newBuilder(channelId)
+                .addAnnotationType(annotationType)
+                .setBeforeDate(beforeDate)
+                .setLimit(limit)
+                .build();
+        return getMessages(query).getMessages();
     }
 
     /**
@@ -468,6 +601,23 @@ public class MessageManager {
         return messages;
     }
 
+    /**
+     * Load the persisted Messages matching a MessageQuery, without keeping them in MessageManager memory.
+     *
+     * Messages will be returned after performing DisplayLocation and OEmbed lookup, provided those
+     * features are enabled in the MessageManagerConfiguration.
+     *
+     * @param query the MessageQuery
+     * @return OrderedMessageBatch
+     *
+     * @see com.alwaysallthetime.messagebeast.db.MessageQuery
+     */
+    public OrderedMessageBatch getMessages(MessageQuery query) {
+        OrderedMessageBatch orderedMessageBatch = mDatabase.getMessages(query);
+        performLookups(orderedMessageBatch.getMessages().values(), false);
+        return orderedMessageBatch;
+    }
+
     /**
      * Get a Message draft.
      *
@@ -573,7 +723,7 @@ public class MessageManager {
      * the provided annotation type.
      */
     public AnnotationInstances getAnnotationInstances(String channelId, String annotationType, int limit) {
-        return getAnnotationInstances(channelId, annotationType, limit);
+        return getAnnotationInstances(channelId, annotationType, null, limit);
     }
 
     /**
@@ -590,6 +740,23 @@ public class MessageManager {
         return mDatabase.getAnnotationInstances(channelId, annotationType, beforeDate, limit);
     }
 
+    /**
+     * Get references to Messages that have a specific value at an AnnotationValuePath. The path
+     * must have been indexed with MessageManagerConfiguration.addAnnotationValueIndex() when the
+     * Messages were persisted.
+     *
+     * @param channelId the id of the Channel in which the returned Messages will be contained.
+     * @param path the AnnotationValuePath
+     * @param value the value at the path
+     * @param beforeDate the date before the display date of all associated messages. Can be null.
+     * @param limit the maximum number of Messages to load from the database.
+     * @return an AnnotationValueInstances containing message ids that correspond to Messages with
+     * the provided value.
+     */
+    public AnnotationValueInstances getAnnotationValueInstances(String channelId, AnnotationValuePath path, String value, Date beforeDate, int limit) {
+        return mDatabase.getAnnotationValueInstances(channelId, path, value, beforeDate, limit);
+    }
+
     /**
      * Search persisted Message text with a query.
      *
@@ -648,6 +815,10 @@ public class MessageManager {
     }
 
     private void lookupLocation(Collection<MessagePlus> messages, boolean persist) {
+        ArrayList<MessagePlus> locatedMessages = new ArrayList<MessagePlus>();
+        ArrayList<Place> places = new ArrayList<Place>();
+        ArrayList<MessagePlus> geotaggedMessages = new ArrayList<MessagePlus>();
+
         for(MessagePlus messagePlus : messages) {
             Message message = messagePlus.getMessage();
 
@@ -657,11 +828,11 @@ public class MessageManager {
                 if(displayLocation != null) {
                     messagePlus.setDisplayLocation(displayLocation);
                     if(persist) {
-                        mDatabase.insertOrReplaceDisplayLocationInstance(messagePlus);
+                        locatedMessages.add(messagePlus);
 
                         Place place = AnnotationUtility.getPlaceFromCheckinAnnotation(mContext, checkin);
                         if(place != null) {
-                            mDatabase.insertOrReplacePlace(place);
+                            places.add(place);
                         }
                     }
                     continue;
@@ -672,7 +843,7 @@ public class MessageManager {
             if(ohaiLocation != null) {
                 messagePlus.setDisplayLocation(DisplayLocation.fromOhaiLocation(ohaiLocation));
                 if(persist) {
-                    mDatabase.insertOrReplaceDisplayLocationInstance(messagePlus);
+                    locatedMessages.add(messagePlus);
 
                     HashMap<String,Object> value = ohaiLocation.getValue();
                     Gson gson = AppDotNetGson.getPersistenceInstance();
@@ -681,20 +852,35 @@ public class MessageManager {
                     String id = (String) value.get("id");
 
                     if(place != null && place.getName() != null && id != null) {
-                        CustomPlace customPlace = new CustomPlace(id, place);
-                        mDatabase.insertOrReplacePlace(customPlace);
+                        places.add(new CustomPlace(id, place));
                     }
                 }
                 continue;
             }
 
-            Annotation geoAnnotation = message.getFirstAnnotationOfType(Annotations.GEOLOCATION);
-            if(geoAnnotation != null) {
-                HashMap<String,Object> value = geoAnnotation.getValue();
-                final double latitude = (Double)value.get("latitude");
-                final double longitude = (Double)value.get("longitude");
-                Geolocation geolocationObj = mDatabase.getGeolocation(latitude, longitude);
-                if(geolocationObj != null) {
+            if(message.getFirstAnnotationOfType(Annotations.GEOLOCATION) != null) {
+                geotaggedMessages.add(messagePlus);
+            }
+        }
+
+        if(geotaggedMessages.size() > 0) {
+            double[] latitudes = new double[geotaggedMessages.size()];
+            double[] longitudes = new double[geotaggedMessages.size()];
+            for(int i = 0; i < geotaggedMessages.size(); i++) {
+                HashMap<String,Object> value = geotaggedMessages.get(i).getMessage().getFirstAnnotationOfType(Annotations.GEOLOCATION).getValue();
+                latitudes[i] = (Double) value.get("latitude");
+                longitudes[i] = (Double) value.get("longitude");
+            }
+
+            //one query for the whole batch rather than one per message.
+            Map<String, Geolocation> geolocations = mDatabase.getGeolocations(latitudes, longitudes);
+            ArrayList<MessagePlus> ungeocodedMessages = new ArrayList<MessagePlus>();
+            ArrayList<Integer> ungeocodedIndexes = new ArrayList<Integer>();
+            for(int i = 0; i < geotaggedMessages.size(); i++) {
+                MessagePlus messagePlus = geotaggedMessages.get(i);
+                Geolocation geolocation = geolocations.get(mDatabase.getGeolocationKey(latitudes[i], longitudes[i]));
+                if(geolocation != null) {
+                    Geolocation geolocationObj = new Geolocation(geolocation.getLocality(), geolocation.getSubLocality(), latitudes[i], longitudes[i]);
                     messagePlus.setDisplayLocation(DisplayLocation.fromGeolocation(geolocationObj));
 
                     //this might seem odd based on the fact that we just pulled the geolocation
@@ -702,44 +888,74 @@ public class MessageManager {
                     //use - we might obtain a geolocation with this message's lat/long, but that
                     //doesn't mean that this message + geolocation combo has been saved.
                     //(this database lookup is merely an optimization to avoid having to fire off
-                    // the async task in reverseGeocode().)
+                    // a request to the reverse geocoding queue.)
                     if(persist) {
-                        mDatabase.insertOrReplaceDisplayLocationInstance(messagePlus);
+                        locatedMessages.add(messagePlus);
                     }
-                    continue;
                 } else {
-                    reverseGeocode(messagePlus, latitude, longitude);
+                    ungeocodedMessages.add(messagePlus);
+                    ungeocodedIndexes.add(i);
+                }
+            }
+
+            if(ungeocodedMessages.size() > 0) {
+                //hand the whole page to the queue so that results are persisted together.
+                double[] ungeocodedLatitudes = new double[ungeocodedIndexes.size()];
+                double[] ungeocodedLongitudes = new double[ungeocodedIndexes.size()];
+                for(int i = 0; i < ungeocodedIndexes.size(); i++) {
+                    ungeocodedLatitudes[i] = latitudes[ungeocodedIndexes.get(i)];
+                    ungeocodedLongitudes[i] = longitudes[ungeocodedIndexes.get(i)];
                 }
+                mReverseGeocodingQueue.reverseGeocode(ungeocodedMessages, ungeocodedLatitudes, ungeocodedLongitudes);
             }
         }
+
+        if(persist) {
+            mDatabase.insertOrReplaceDisplayLocationInstances(locatedMessages, places);
+        }
     }
 
-    private void reverseGeocode(final MessagePlus messagePlus, final double latitude, final double longitude) {
-        if(Geocoder.isPresent()) {
-            AsyncGeocoder.getInstance(mContext).getFromLocation(latitude, longitude, 5, new AsyncGeocoderResponseHandler() {
-                @Override
-                public void onSuccess(final List<Address> addresses) {
-                    Geolocation geolocation = Geolocation.getGeolocation(addresses, latitude, longitude);
-                    if(geolocation != null) {
-                        messagePlus.setDisplayLocation(DisplayLocation.fromGeolocation(geolocation));
-                        mDatabase.insertOrReplaceGeolocation(geolocation);
-                        mDatabase.insertOrReplaceDisplayLocationInstance(messagePlus);
+    private final ReverseGeocodingQueue.ReverseGeocodingListener mReverseGeocodingListener = new ReverseGeocodingQueue.ReverseGeocodingListener() {
+        @Override
+        public void onReverseGeocoded(List<Geolocation> geolocations, List<List<MessagePlus>> messagePlusses) {
+            ArrayList<MessagePlus> locatedMessages = new ArrayList<MessagePlus>();
+            for(int i = 0; i < geolocations.size(); i++) {
+                Geolocation geolocation = geolocations.get(i);
+                if(geolocation != null) {
+                    for(MessagePlus messagePlus : messagePlusses.get(i)) {
+                        //each message keeps its own coordinates; only the names are shared.
+                        HashMap<String, Object> value = messagePlus.getMessage().getFirstAnnotationOfType(Annotations.GEOLOCATION).getValue();
+                        Geolocation messageGeolocation = new Geolocation(geolocation.getLocality(), geolocation.getSubLocality(), (Double) value.get("latitude"), (Double) value.get("longitude"));
+                        messagePlus.setDisplayLocation(DisplayLocation.fromGeolocation(messageGeolocation));
+                        locatedMessages.add(messagePlus);
                     }
-                    if(mConfiguration.locationLookupHandler != null) {
+                }
+            }
+
+            if(locatedMessages.size() > 0) {
+                mDatabase.insertOrReplaceDisplayLocationInstances(locatedMessages, new ArrayList<Place>(0));
+                for(MessagePlus messagePlus : locatedMessages) {
+                    onLocationResolved(messagePlus);
+                }
+            }
+            if(mConfiguration.locationLookupHandler != null) {
+                for(List<MessagePlus> requestMessagePlusses : messagePlusses) {
+                    for(MessagePlus messagePlus : requestMessagePlusses) {
                         mConfiguration.locationLookupHandler.onSuccess(messagePlus);
                     }
                 }
+            }
+        }
 
-                @Override
-                public void onException(Exception exception) {
-                    Log.e(TAG, exception.getMessage(), exception);
-                    if(mConfiguration.locationLookupHandler != null) {
-                        mConfiguration.locationLookupHandler.onException(messagePlus, exception);
-                    }
+        @Override
+        public void onReverseGeocodeException(Exception exception, List<MessagePlus> messagePlusses) {
+            if(mConfiguration.locationLookupHandler != null) {
+                for(MessagePlus messagePlus : messagePlusses) {
+                    mConfiguration.locationLookupHandler.onException(messagePlus, exception);
                 }
-            });
+            }
         }
-    }
+    };
 
     /**
      * Get the AppDotNetClient used by this MessageManager
@@ -775,11 +991,181 @@ public class MessageManager {
      * @param channelId the Channel id
      * @return the TreeMap of MessagePlus objects currently loaded into memory for the
      * specified channel
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager#getChannelSnapshot(String)
      */
     public TreeMap<Long, MessagePlus> getMessageMap(String channelId) {
         return mMessages.get(channelId);
     }
 
+    /**
+     * Get the most recently published ChannelSnapshot for a specific Channel.
+     *
+     * A ChannelSnapshot is immutable, so unlike getMessageMap(), the returned object can safely be
+     * read on any thread while the MessageManager continues to modify the Channel's Messages.
+     * Snapshots are built lazily: the first call after the Channel's Messages change copies them
+     * once, and every other call returns the shared snapshot without locking or copying.<br><br>
+     *
+     * Building the snapshot is the one case that locks: that first call takes the MessageManager's
+     * lock, so it can block while another thread holds it (e.g. while a page of Messages is being
+     * loaded from the database). Only calls that find the current snapshot already built are
+     * guaranteed not to block.
+     *
+     * @param channelId the Channel id
+     * @return the current ChannelSnapshot for the Channel, or null if no Messages have been
+     * loaded into memory for the Channel.
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager#isSnapshotStale(ChannelSnapshot)
+     */
+    public ChannelSnapshot getChannelSnapshot(String channelId) {
+        Long version = mSnapshotVersions.get(channelId);
+        if(version == null) {
+            return null;
+        }
+        ChannelSnapshot snapshot = mSnapshots.get(channelId);
+        if(snapshot != null && snapshot.getVersion() == version) {
+            return snapshot;
+        }
+        return buildSnapshot(channelId);
+    }
+
+    /**
+     * Return true if a newer ChannelSnapshot has been published for the Channel associated with
+     * the provided snapshot (or if the MessageManager has since been cleared).
+     *
+     * @param snapshot the ChannelSnapshot to check
+     * @return true if the snapshot no longer reflects the current in-memory Messages of its Channel,
+     * false otherwise.
+     */
+    public boolean isSnapshotStale(ChannelSnapshot snapshot) {
+        Long version = mSnapshotVersions.get(snapshot.getChannelId());
+        return version == null || version != snapshot.getVersion();
+    }
+
+    /**
+     * Mark the in-memory Messages of a Channel as changed. This only bumps the Channel's version;
+     * the ChannelSnapshot itself is built when it is next requested, so a batch of mutations costs
+     * a single copy no matter how many times it publishes.
+     */
+    private synchronized void publishSnapshot(String channelId) {
+        mSnapshotVersion++;
+        mSnapshotVersions.put(channelId, mSnapshotVersion);
+        scheduleChangeDispatch(channelId);
+    }
+
+    /**
+     * Build the ChannelSnapshot for the current version of a Channel, unless another thread
+     * already has. This takes our lock, because the Channel's Messages are copied.
+     */
+    private synchronized ChannelSnapshot buildSnapshot(String channelId) {
+        Long version = mSnapshotVersions.get(channelId);
+        if(version == null) {
+            return null;
+        }
+        ChannelSnapshot snapshot = mSnapshots.get(channelId);
+        if(snapshot == null || snapshot.getVersion() != version) {
+            snapshot = new ChannelSnapshot(channelId, version, mMessages.get(channelId));
+            mSnapshots.put(channelId, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Register a ChannelChangeListener to be notified of incremental changes to the in-memory
+     * Messages of a Channel.
+     *
+     * The first ChannelChangeSet delivered to the listener is computed against the ChannelSnapshot
+     * that was current at the time of registration.
+     *
+     * @param channelId the Channel id
+     * @param listener the ChannelChangeListener
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.ChannelChangeSet
+     */
+    public synchronized void addChannelChangeListener(String channelId, ChannelChangeListener listener) {
+        List<ChannelChangeListener> listeners = mChangeListeners.get(channelId);
+        if(listeners == null) {
+            listeners = new ArrayList<ChannelChangeListener>(1);
+            mChangeListeners.put(channelId, listeners);
+            mDeliveredSnapshots.put(channelId, getChannelSnapshot(channelId));
+        }
+        if(!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregister a ChannelChangeListener.
+     *
+     * @param channelId the Channel id
+     * @param listener the ChannelChangeListener
+     */
+    public synchronized void removeChannelChangeListener(String channelId, ChannelChangeListener listener) {
+        List<ChannelChangeListener> listeners = mChangeListeners.get(channelId);
+        if(listeners != null) {
+            listeners.remove(listener);
+            if(listeners.size() == 0) {
+                mChangeListeners.remove(channelId);
+                mDeliveredSnapshots.remove(channelId);
+                mResolvedLocations.remove(channelId);
+                mChannelsWithPendingChanges.remove(channelId);
+            }
+        }
+    }
+
+    private synchronized void onLocationResolved(MessagePlus messagePlus) {
+        String channelId = messagePlus.getMessage().getChannelId();
+        if(mChangeListeners.containsKey(channelId)) {
+            List<MessagePlus> resolved = mResolvedLocations.get(channelId);
+            if(resolved == null) {
+                resolved = new ArrayList<MessagePlus>();
+                mResolvedLocations.put(channelId, resolved);
+            }
+            resolved.add(messagePlus);
+            scheduleChangeDispatch(channelId);
+        }
+    }
+
+    private synchronized void scheduleChangeDispatch(String channelId) {
+        if(mChangeListeners.containsKey(channelId)) {
+            mChannelsWithPendingChanges.add(channelId);
+            if(!mIsChangeDispatchScheduled) {
+                mIsChangeDispatchScheduled = true;
+                mHandler.postDelayed(mChangeDispatchRunnable, CHANGE_DISPATCH_INTERVAL_MILLIS);
+            }
+        }
+    }
+
+    private final Runnable mChangeDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<ChannelChangeSet> changeSets = new ArrayList<ChannelChangeSet>();
+            ArrayList<List<ChannelChangeListener>> changeSetListeners = new ArrayList<List<ChannelChangeListener>>();
+
+            synchronized(MessageManager.this) {
+                mIsChangeDispatchScheduled = false;
+                for(String channelId : mChannelsWithPendingChanges) {
+                    ChannelSnapshot previous = mDeliveredSnapshots.get(channelId);
+                    ChannelSnapshot current = getChannelSnapshot(channelId);
+                    ChannelChangeSet changeSet = ChannelChangeSet.getChangeSet(channelId, previous, current, mResolvedLocations.remove(channelId));
+                    mDeliveredSnapshots.put(channelId, current);
+                    if(!changeSet.isEmpty()) {
+                        changeSets.add(changeSet);
+                        changeSetListeners.add(new ArrayList<ChannelChangeListener>(mChangeListeners.get(channelId)));
+                    }
+                }
+                mChannelsWithPendingChanges.clear();
+            }
+
+            //deliver outside of the lock so that listeners can call back into the MessageManager.
+            for(int i = 0; i < changeSets.size(); i++) {
+                for(ChannelChangeListener listener : changeSetListeners.get(i)) {
+                    listener.onChannelChanged(changeSets.get(i));
+                }
+            }
+        }
+    };
+
     /**
      * Set the QueryParameters to be used with a specific Channel
      *
@@ -790,6 +1176,51 @@ public class MessageManager {
         mParameters.put(channelId, parameters);
     }
 
+    /**
+     * Get the PageSizeController for a specific Channel. Its getters expose the page size that
+     * will be used for the next request in the Channel and the measurements behind it.
+     *
+     * @param channelId the Channel id
+     * @return the PageSizeController for the Channel
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setAdaptivePageSizingEnabled(boolean)
+     */
+    public synchronized PageSizeController getPageSizeController(String channelId) {
+        PageSizeController controller = mPageSizeControllers.get(channelId);
+        if(controller == null) {
+            controller = new PageSizeController();
+            controller.setTargetLatencyMillis(mConfiguration.targetPageLatencyMillis);
+            mPageSizeControllers.put(channelId, controller);
+        }
+        return controller;
+    }
+
+    /**
+     * Set the bounds within which adaptive page sizing may choose a count for a specific Channel.
+     *
+     * @param channelId the Channel id
+     * @param minPageSize the smallest count to request
+     * @param maxPageSize the largest count to request. Values above PageSizeController.MAX_PAGE_SIZE
+     *                    are treated as PageSizeController.MAX_PAGE_SIZE.
+     *
+     * @see com.alwaysallthetime.messagebeast.model.ChannelSpec#setPageSizeBounds(int, int)
+     */
+    public void setPageSizeBounds(String channelId, int minPageSize, int maxPageSize) {
+        getPageSizeController(channelId).setBounds(minPageSize, maxPageSize);
+    }
+
+    private static int getRequestedCount(QueryParameters params, int defaultCount) {
+        String count = params.get("count");
+        if(count != null) {
+            try {
+                return Math.abs(Integer.parseInt(count));
+            } catch(NumberFormatException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+        return defaultCount;
+    }
+
     private synchronized MinMaxPair getMinMaxPair(String channelId) {
         MinMaxPair minMaxPair = mMinMaxPairs.get(channelId);
         if(minMaxPair == null) {
@@ -817,6 +1248,17 @@ public class MessageManager {
         return unsentMessages;
     }
 
+    /**
+     * Get a copy of the unsent Messages in a Channel, in display date order. This is intended
+     * to be used by ActionMessageManager only.
+     *
+     * @param channelId the Channel id
+     * @return a new List containing the unsent Messages in the Channel
+     */
+    synchronized List<MessagePlus> getUnsentMessageList(String channelId) {
+        return new ArrayList<MessagePlus>(getUnsentMessages(channelId).values());
+    }
+
     private synchronized Set<String> getMessageIdsNeedingPendingFile(String pendingFileId) {
         Set<String> messageIds = mMessagesNeedingPendingFiles.get(pendingFileId);
         if(messageIds == null) {
@@ -1051,13 +1493,6 @@ public class MessageManager {
      * @see com.alwaysallthetime.messagebeast.manager.MessageManager#INTENT_ACTION_UNSENT_MESSAGE_SEND_FAILURE
      */
     public synchronized MessagePlus createUnsentMessage(final String channelId, Message message, List<PendingFileAttachment> pendingFileAttachments, boolean attemptToSendImmediately) {
-        //An unsent message id is always set to the max id + 1.
-        //
-        //This will work because we will never allow message retrieval to happen
-        //until unsent messages are sent to the server and they get their "real"
-        //message id. After they reach the server, we will delete them from existence
-        //on the client and retrieve them from the server.
-        //
         TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
         if(channelMessages.size() == 0) {
             //we do this so that the current max date for this channel is known.
@@ -1072,35 +1507,137 @@ public class MessageManager {
         }
         final MessagePlus messagePlus = unsentBuilder.build();
 
-        if(mConfiguration.isLocationLookupEnabled) {
-            ArrayList<MessagePlus> mp = new ArrayList<MessagePlus>(1);
-            mp.add(messagePlus);
-            lookupLocation(mp, true);
-        }
-
-        insertIntoDatabase(messagePlus);
+        ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>(1);
+        messagePlusses.add(messagePlus);
+        storeUnsentMessages(channelId, messagePlusses, attemptToSendImmediately);
+        return messagePlus;
+    }
 
-        TreeMap<Long, MessagePlus> channelUnsentMessages = getUnsentMessages(channelId);
-        channelUnsentMessages.put(messagePlus.getDisplayDate().getTime(), messagePlus);
+    /**
+     * Create several new unsent Messages in a Channel at once. This behaves like calling
+     * createUnsentMessage() for each Message, except that all Messages are persisted in a single
+     * transaction, and at most one send is attempted.
+     *
+     * Messages without a display date annotation are given consecutive display dates, in the
+     * order provided, so that they can't collide with each other.
+     *
+     * @param channelId the id of the Channel in which the Messages should be created.
+     * @param messages The Messages to be created.
+     * @param attemptToSendImmediately true if the MessageManager should attempt to send the Messages
+     *                                 immediately, false if the client application will send them
+     *                                 at a later time.
+     * @return the unsent MessagePlus objects, in the order of the provided Messages.
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager#createUnsentMessage(String, com.alwaysallthetime.adnlib.data.Message, boolean)
+     */
+    public synchronized List<MessagePlus> createUnsentMessages(final String channelId, List<Message> messages, boolean attemptToSendImmediately) {
+        List<MessagePlus> messagePlusses = newUnsentMessages(channelId, messages);
+        if(messagePlusses.size() > 0) {
+            storeUnsentMessages(channelId, messagePlusses, attemptToSendImmediately);
+        }
+        return messagePlusses;
+    }
 
-        TreeMap<Long, MessagePlus> newChannelMessages = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
-        newChannelMessages.put(messagePlus.getDisplayDate().getTime(), messagePlus);
-        newChannelMessages.putAll(channelMessages);
-        mMessages.put(channelId, newChannelMessages);
+    /**
+     * Build unsent MessagePlus objects for new Messages, giving consecutive display dates to
+     * the ones that have none. Nothing is persisted or added to the in-memory Messages.
+     *
+     * @see #insertUnsentMessages(java.util.List)
+     * @see #addUnsentMessages(String, java.util.List)
+     */
+    synchronized List<MessagePlus> newUnsentMessages(String channelId, List<Message> messages) {
+        TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
+        if(channelMessages.size() == 0) {
+            //we do this so that the current max date for this channel is known.
+            loadPersistedMessages(channelId, 1);
+            channelMessages = getChannelMessages(channelId);
+        }
 
-        //update the MinMaxPair
-        //we can assume the new id is the max (that's how we generated it)
-        //but we have to check to see if the time is min or max
-        MinMaxPair minMaxPair = getMinMaxPair(channelId);
-        minMaxPair.expandDateIfMinOrMax(messagePlus.getDisplayDate().getTime());
+        ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>(messages.size());
+        long time = System.currentTimeMillis();
+        for(Message message : messages) {
+            if(message.getFirstAnnotationOfType(Annotations.OHAI_DISPLAY_DATE) == null) {
+                while(channelMessages.containsKey(time)) {
+                    time++;
+                }
+                message.addAnnotation(AnnotationFactory.getDisplayDateAnnotation(new Date(time)));
+                time++;
+            }
+            String newMessageIdString = UUID.randomUUID().toString();
+            messagePlusses.add(MessagePlus.UnsentMessagePlusBuilder.newBuilder(channelId, newMessageIdString, message).build());
+        }
+        return messagePlusses;
+    }
 
-        Log.d(TAG, "Created and stored unsent message with id " + newMessageIdString + " for channel " + channelId + " and time " + messagePlus.getDisplayDate().getTime());
+    /**
+     * Persist new unsent Messages in a single transaction, and add them to the in-memory
+     * Messages of their Channel once it has committed.
+     */
+    private void storeUnsentMessages(String channelId, List<MessagePlus> messagePlusses, boolean attemptToSendImmediately) {
+        //An unsent message id is always set to the max id + 1.
+        //
+        //This will work because we will never allow message retrieval to happen
+        //until unsent messages are sent to the server and they get their "real"
+        //message id. After they reach the server, we will delete them from existence
+        //on the client and retrieve them from the server.
+        //
+        boolean isCommitted = false;
+        mDatabase.beginTransaction();
+        try {
+            if(insertUnsentMessages(messagePlusses)) {
+                mDatabase.setTransactionSuccessful();
+                isCommitted = true;
+            }
+        } finally {
+            mDatabase.endTransaction();
+        }
+        if(!isCommitted) {
+            Log.e(TAG, "Failed to store " + messagePlusses.size() + " unsent messages for channel " + channelId);
+            return;
+        }
 
+        addUnsentMessages(channelId, messagePlusses);
         if(attemptToSendImmediately) {
             sendUnsentMessages(channelId);
         }
+    }
 
-        return messagePlus;
+    /**
+     * Persist new unsent Messages, e.g. as part of a caller's transaction.
+     *
+     * @return true if all Messages were written, false otherwise. The caller's transaction must
+     * not be marked successful if this fails.
+     */
+    synchronized boolean insertUnsentMessages(List<MessagePlus> messagePlusses) {
+        return insertIntoDatabase(messagePlusses);
+    }
+
+    /**
+     * Add new unsent Messages, which have been persisted and committed, to the in-memory Messages
+     * of their Channel.
+     */
+    synchronized void addUnsentMessages(String channelId, List<MessagePlus> messagePlusses) {
+        if(mConfiguration.isLocationLookupEnabled) {
+            lookupLocation(messagePlusses, true);
+        }
+
+        TreeMap<Long, MessagePlus> channelUnsentMessages = getUnsentMessages(channelId);
+        TreeMap<Long, MessagePlus> newChannelMessages = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
+        newChannelMessages.putAll(getChannelMessages(channelId));
+
+        //update the MinMaxPair
+        //we can assume the new ids are the max (they're unsent)
+        //but we have to check to see if the times are min or max
+        MinMaxPair minMaxPair = getMinMaxPair(channelId);
+        for(MessagePlus messagePlus : messagePlusses) {
+            long time = messagePlus.getDisplayDate().getTime();
+            channelUnsentMessages.put(time, messagePlus);
+            newChannelMessages.put(time, messagePlus);
+            minMaxPair.expandDateIfMinOrMax(time);
+            Log.d(TAG, "Created and stored unsent message with id " + messagePlus.getMessage().getId() + " for channel " + channelId + " and time " + time);
+        }
+        mMessages.put(channelId, newChannelMessages);
+        publishSnapshot(channelId);
     }
 
     /**
@@ -1177,6 +1714,7 @@ public class MessageManager {
 
             mDatabase.deleteMessage(messagePlus);
             getUnsentMessages(channelId).remove(messagePlus.getDisplayDate().getTime());
+            mOutboundWorkScheduler.onWorkDiscarded(OutboundWork.Type.UNSENT_MESSAGE, message.getId());
 
             deleteMessageFromChannelMapAndUpdateMinMaxPair(messagePlus);
 
@@ -1198,6 +1736,7 @@ public class MessageManager {
                         @Override
                         public void onSuccess(Message responseData) {
                             mDatabase.deletePendingMessageDeletion(responseData.getId());
+                            mOutboundWorkScheduler.onWorkSucceeded(OutboundWork.Type.MESSAGE_DELETION, responseData.getId());
                             if(handler != null) {
                                 handler.onSuccess();
                             }
@@ -1206,6 +1745,16 @@ public class MessageManager {
                         @Override
                         public void onError(Exception error) {
                             super.onError(error);
+                            Message message = messagePlus.getMessage();
+                            if(isMessageGone(getStatusCode())) {
+                                mDatabase.deletePendingMessageDeletion(message.getId());
+                                mOutboundWorkScheduler.onWorkDiscarded(OutboundWork.Type.MESSAGE_DELETION, message.getId());
+                                if(handler != null) {
+                                    handler.onSuccess();
+                                }
+                                return;
+                            }
+                            mOutboundWorkScheduler.onWorkFailed(OutboundWork.Type.MESSAGE_DELETION, message.getId(), message.getChannelId(), getStatusCode());
                             if(handler != null) {
                                 handler.onError(error);
                             }
@@ -1259,6 +1808,7 @@ public class MessageManager {
                         Integer statusCode = getStatusCode();
                         if(statusCode == null || statusCode != 403) {
                             mDatabase.insertOrReplacePendingFileDeletion(fileId);
+                            mOutboundWorkScheduler.onWorkFailed(OutboundWork.Type.FILE_DELETION, fileId, null, statusCode);
                         }
                         deleteOEmbed(index + 1, oEmbedAnnotations, completionRunnable);
                     }
@@ -1269,6 +1819,14 @@ public class MessageManager {
         }
     }
 
+    /**
+     * A deletion that fails with 404 or 410 will never succeed; the Message is already gone
+     * (or was never visible to us), so the deletion is considered done.
+     */
+    private static boolean isMessageGone(Integer statusCode) {
+        return statusCode != null && (statusCode == 404 || statusCode == 410);
+    }
+
     private synchronized void deleteAttachmentsLists(final int index, final List<Annotation> attachmentsAnnotations, final Runnable completionRunnable) {
         if(index >= attachmentsAnnotations.size()) {
             completionRunnable.run();
@@ -1303,6 +1861,7 @@ public class MessageManager {
                     Integer statusCode = getStatusCode();
                     if(statusCode == null || statusCode != 403) {
                         mDatabase.insertOrReplacePendingFileDeletion(fileId);
+                        mOutboundWorkScheduler.onWorkFailed(OutboundWork.Type.FILE_DELETION, fileId, null, statusCode);
                     }
                     deleteFileInAttachmentsAnnotation(index + 1, fileList, completionRunnable);
                 }
@@ -1382,6 +1941,7 @@ public class MessageManager {
             }
 
             channelMessages.remove(removedTime);
+            publishSnapshot(channelId);
         }
     }
 
@@ -1405,6 +1965,7 @@ public class MessageManager {
                 TreeMap<Long, MessagePlus> channelMessages = mMessages.get(channelId);
                 if(channelMessages != null) { //could be null of channel messages weren't loaded first, etc.
                     channelMessages.put(mPlus.getDisplayDate().getTime(), mPlus);
+                    publishSnapshot(channelId);
                 }
 
                 ArrayList<MessagePlus> messagePlusList = new ArrayList<MessagePlus>(1);
@@ -1433,14 +1994,16 @@ public class MessageManager {
                     MessagePlus mPlus = new MessagePlus(message);
                     Date date = adjustDate(mPlus);
 
-                    insertIntoDatabase(mPlus);
-
                     if(channelMessages != null && channelMessages.containsKey(mPlus.getDisplayDate().getTime())) { //could be null of channel messages weren't loaded first, etc.
                         channelMessages.put(mPlus.getDisplayDate().getTime(), mPlus);
                     }
 
                     messagePlusMap.put(mPlus.getDisplayDate().getTime(), mPlus);
                 }
+                insertIntoDatabase(messagePlusMap.values());
+                if(channelMessages != null) {
+                    publishSnapshot(channelId);
+                }
 
                 ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>(messagePlusMap.values());
                 performLookups(messagePlusses, true);
@@ -1474,6 +2037,9 @@ public class MessageManager {
      */
     public void setFullSyncState(String channelId, FullSyncState state) {
         ADNSharedPreferences.setFullSyncState(channelId, state);
+        if(state != FullSyncState.STARTED) {
+            ADNSharedPreferences.deleteFullSyncCheckpoint(channelId);
+        }
     }
 
     /**
@@ -1504,58 +2070,117 @@ public class MessageManager {
     /**
      * Sync and persist all Messages for every provided Channel.
      *
-     * Each Channel is synced - one at a time. If an Action Channel is encountered, the
-     * ActionMessageManager is used to sync the Messages in that Channel. Unlike the
-     * other retrieveAndPersistAllMessages method that accepts a single Channel id, this
-     * method examines the FullSyncState for a Channel and skips it if it is marked COMPLETE.
+     * Up to MessageManagerConfiguration.setMaxConcurrentFullSyncs() Channels are synced at the
+     * same time. Action Channels are synced only after all other provided Channels have finished,
+     * since Action Message lookups depend on their target Messages already being persisted.
+     * If an Action Channel is encountered, the ActionMessageManager is used to sync the Messages
+     * in that Channel. Unlike the other retrieveAndPersistAllMessages method that accepts a single
+     * Channel id, this method examines the FullSyncState for a Channel and skips it if it is marked COMPLETE.
      *
      * @param channels
      * @param responseHandler
      */
     public synchronized void retrieveAndPersistAllMessages(Channel[] channels, MessageManagerMultiChannelSyncResponseHandler responseHandler) {
-        int i = 0;
-        while(i < channels.length && getFullSyncState(channels[i].getId()) == FullSyncState.COMPLETE) {
-            i++;
-        }
-        if(i == channels.length) {
-            responseHandler.onSuccess();
-        } else {
-            retrieveAndPersistAllMessages(channels, i, responseHandler);
+        LinkedList<Channel> channelsToSync = new LinkedList<Channel>();
+        LinkedList<Channel> actionChannelsToSync = new LinkedList<Channel>();
+        for(Channel channel : channels) {
+            if(getFullSyncState(channel.getId()) != FullSyncState.COMPLETE) {
+                if(PrivateChannelUtility.CHANNEL_TYPE_ACTION.equals(channel.getType())) {
+                    actionChannelsToSync.add(channel);
+                } else {
+                    channelsToSync.add(channel);
+                }
+            }
         }
+        new MultiChannelSync(channelsToSync, actionChannelsToSync, responseHandler).syncNext();
     }
 
-    private synchronized void retrieveAndPersistAllMessages(final Channel[] channels, final int currentChannelIndex, final MessageManagerMultiChannelSyncResponseHandler responseHandler) {
-        MessageManagerSyncResponseHandler currentChannelSyncHandler = new MessageManagerSyncResponseHandler() {
-            @Override
-            public void onSuccess(List<MessagePlus> responseData) {
-                int i = currentChannelIndex + 1;
-                while(i < channels.length && getFullSyncState(channels[i].getId()) == FullSyncState.COMPLETE) {
-                    i++;
+    /**
+     * Keeps track of the Channels in flight during a multi-channel full sync.
+     * All access to its state is guarded by the MessageManager's lock; the syncs themselves are
+     * started after the lock is released.
+     */
+    private class MultiChannelSync {
+        private LinkedList<Channel> mChannelsToSync;
+        private LinkedList<Channel> mActionChannelsToSync;
+        private MessageManagerMultiChannelSyncResponseHandler mResponseHandler;
+        private int mNumInFlight;
+        private boolean mIsFinished;
+
+        MultiChannelSync(LinkedList<Channel> channelsToSync, LinkedList<Channel> actionChannelsToSync, MessageManagerMultiChannelSyncResponseHandler responseHandler) {
+            mChannelsToSync = channelsToSync;
+            mActionChannelsToSync = actionChannelsToSync;
+            mResponseHandler = responseHandler;
+        }
+
+        void syncNext() {
+            ArrayList<Channel> channelsToStart = new ArrayList<Channel>();
+            synchronized(MessageManager.this) {
+                if(mIsFinished) {
+                    return;
                 }
-                if(i == channels.length) {
-                    responseHandler.onSuccess();
-                } else {
-                    retrieveAndPersistAllMessages(channels, i, responseHandler);
+                if(mChannelsToSync.isEmpty() && mNumInFlight == 0) {
+                    if(mActionChannelsToSync.isEmpty()) {
+                        mIsFinished = true;
+                        channelsToStart = null;
+                    } else {
+                        mChannelsToSync.addAll(mActionChannelsToSync);
+                        mActionChannelsToSync.clear();
+                    }
+                }
+                if(channelsToStart != null) {
+                    int maxInFlight = Math.max(1, mConfiguration.maxConcurrentFullSyncs);
+                    while(mNumInFlight < maxInFlight && !mChannelsToSync.isEmpty()) {
+                        mNumInFlight++;
+                        channelsToStart.add(mChannelsToSync.removeFirst());
+                    }
                 }
             }
 
-            @Override
-            public void onError(Exception exception) {
-                Log.e(TAG, exception.getMessage(), exception);
-                responseHandler.onError(exception);
+            //syncing an Action Channel goes through the ActionMessageManager, whose lock
+            //must not be taken while holding ours.
+            if(channelsToStart == null) {
+                mResponseHandler.onSuccess();
+                return;
+            }
+            for(Channel channel : channelsToStart) {
+                sync(channel);
             }
-        };
+        }
+
+        private void sync(Channel channel) {
+            MessageManagerSyncResponseHandler channelSyncHandler = new MessageManagerSyncResponseHandler() {
+                @Override
+                public void onSuccess(List<MessagePlus> responseData) {
+                    synchronized(MessageManager.this) {
+                        mNumInFlight--;
+                    }
+                    syncNext();
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    Log.e(TAG, exception.getMessage(), exception);
+                    synchronized(MessageManager.this) {
+                        mNumInFlight--;
+                        if(mIsFinished) {
+                            return;
+                        }
+                        mIsFinished = true;
+                    }
+                    mResponseHandler.onError(exception);
+                }
+            };
 
-        Channel nextChannel = channels[currentChannelIndex];
-        String type = nextChannel.getType();
-        if(PrivateChannelUtility.CHANNEL_TYPE_ACTION.equals(type)) {
-            if(mAttachedActionMessageManager != null) {
-                mAttachedActionMessageManager.retrieveAndPersistAllActionMessages(nextChannel.getId(), currentChannelSyncHandler);
+            if(PrivateChannelUtility.CHANNEL_TYPE_ACTION.equals(channel.getType())) {
+                if(mAttachedActionMessageManager != null) {
+                    mAttachedActionMessageManager.retrieveAndPersistAllActionMessages(channel.getId(), channelSyncHandler);
+                } else {
+                    throw new IllegalStateException("ActionMessageManager must be attached to persist action channel messages.");
+                }
             } else {
-                throw new IllegalStateException("ActionMessageManager must be attached to persist action channel messages.");
+                retrieveAndPersistAllMessages(channel.getId(), channelSyncHandler);
             }
-        } else {
-            retrieveAndPersistAllMessages(channels[currentChannelIndex].getId(), currentChannelSyncHandler);
         }
     }
 
@@ -1571,44 +2196,108 @@ public class MessageManager {
      * obtained, while the others will be persisted to the sqlite database, but not kept in memory.
      * However, these can easily be loaded into memory afterwards by calling loadPersistedMessages().
      *
+     * After each batch is persisted, a checkpoint (the lowest before_id reached and the newest
+     * message id seen) is saved. If the Channel's FullSyncState is STARTED when this method is
+     * called and a checkpoint exists, the sync resumes from the checkpoint rather than starting over,
+     * and then retrieves any Messages that were created since the sync was originally started.
+     *
      * @param channelId The id of the Channel from which to obtain Messages.
      * @param responseHandler MessageManagerResponseHandler
      *
      * @see MessageManager#loadPersistedMessages(String, int)
      */
     public synchronized void retrieveAndPersistAllMessages(String channelId, MessageManagerSyncResponseHandler responseHandler) {
-        ADNSharedPreferences.setFullSyncState(channelId, FullSyncState.STARTED);
         final ArrayList<MessagePlus> messages = new ArrayList<MessagePlus>(MAX_MESSAGES_RETURNED_ON_SYNC);
-        String sinceId = null;
-        String beforeId = null;
-        retrieveAllMessages(messages, sinceId, beforeId, channelId, responseHandler);
+        String checkpointBeforeId = ADNSharedPreferences.getFullSyncCheckpointBeforeId(channelId);
+        String checkpointSinceId = ADNSharedPreferences.getFullSyncCheckpointSinceId(channelId);
+
+        if(getFullSyncState(channelId) == FullSyncState.STARTED && checkpointBeforeId != null && checkpointSinceId != null) {
+            Log.d(TAG, "Resuming full sync for channel " + channelId + " before id " + checkpointBeforeId + "; will then sync since id " + checkpointSinceId);
+            retrieveAllMessages(messages, null, checkpointBeforeId, checkpointSinceId, channelId, responseHandler);
+        } else {
+            ADNSharedPreferences.deleteFullSyncCheckpoint(channelId);
+            ADNSharedPreferences.setFullSyncState(channelId, FullSyncState.STARTED);
+            retrieveAllMessages(messages, null, null, null, channelId, responseHandler);
+        }
     }
 
-    private synchronized void retrieveAllMessages(final ArrayList<MessagePlus> messages, String sinceId, String beforeId, final String channelId, final MessageManagerSyncResponseHandler responseHandler) {
+    /**
+     * Retrieve and persist batches of Messages, moving backwards from beforeId.
+     *
+     * @param sinceId if non-null, only Messages newer than this id are retrieved. This is used
+     *                to fill the gap at the top of a resumed sync.
+     * @param gapSinceId if non-null, a gap-filling pass with this since_id is started after
+     *                   all older Messages have been retrieved.
+     */
+    private synchronized void retrieveAllMessages(final ArrayList<MessagePlus> messages, final String sinceId, final String beforeId, final String gapSinceId, final String channelId, final MessageManagerSyncResponseHandler responseHandler) {
+        TreeMap<Long, MessagePlus> unsentMessages = getUnsentMessages(channelId);
+        HashMap<String, PendingMessageDeletion> pendingMessageDeletions = mDatabase.getPendingMessageDeletions(channelId);
+        if(unsentMessages.size() > 0 || pendingMessageDeletions.size() > 0) {
+            responseHandler.onError(new IllegalStateException("Cannot sync channel " + channelId + " while it has unsent messages or pending deletions."));
+            return;
+        }
+
         QueryParameters params = (QueryParameters) mParameters.get(channelId).clone();
         params.put("since_id", sinceId);
         params.put("before_id", beforeId);
-        params.put("count", String.valueOf(MAX_MESSAGES_RETURNED_ON_SYNC));
-
-        boolean keepInMemory = messages.size() == 0;
-        retrieveMessages(params, null, channelId, keepInMemory, new MessageManagerResponseHandler() {
+        final PageSizeController pageSizeController = getPageSizeController(channelId);
+        final int count = mConfiguration.isAdaptivePageSizingEnabled ? pageSizeController.getPageSize() : MAX_MESSAGES_RETURNED_ON_SYNC;
+        params.put("count", String.valueOf(count));
+
+        //only the first batch is kept in memory.
+        final boolean keepInMemory = beforeId == null;
+        final long requestTime = System.currentTimeMillis();
+        mClient.retrieveMessagesInChannel(channelId, params, new MessageListResponseHandler() {
             @Override
-            public void onSuccess(List<MessagePlus> responseData) {
-                if(messages.size() == 0) {
-                    messages.addAll(responseData);
-                }
-                responseHandler.setNumMessagesSynced(responseHandler.getNumMessagesSynced() + responseData.size());
-                responseHandler.onBatchSynced(responseData);
-
-                if(isMore()) {
+            public void onSuccess(MessageList responseData) {
+                pageSizeController.onPageSucceeded(System.currentTimeMillis() - requestTime, count, responseData.size());
+                ArrayList<MessagePlus> batch;
+                boolean isComplete = false;
+                synchronized(MessageManager.this) {
+                    boolean isMore = isMore() && responseData.size() > 0;
+
+                    //pipeline the sync: request the next batch before persisting this one,
+                    //so that the network round trip overlaps with the database writes.
                     //never rely on MinMaxPair for min id here because
                     //when keepInMemory = false, the MinMaxPair will not change
                     //(and this would keep requesting the same batch over and over).
-                    MessagePlus minMessage = responseData.get(responseData.size() - 1);
-                    retrieveAllMessages(messages, null, minMessage.getMessage().getId(), channelId, responseHandler);
-                } else {
-                    ADNSharedPreferences.setFullSyncState(channelId, FullSyncState.COMPLETE);
-                    Log.d(TAG, "Num messages synced: " + responseHandler.getNumMessagesSynced());
+                    if(isMore) {
+                        retrieveAllMessages(messages, sinceId, getMinId(), gapSinceId, channelId, responseHandler);
+                    }
+
+                    batch = processRetrievedMessages(responseData, getMinId(), getMaxId(), null, channelId, keepInMemory, null);
+                    if(keepInMemory) {
+                        messages.addAll(batch);
+                    }
+
+                    //the batch is committed; checkpoint the downward pass so that
+                    //a sync interrupted after this point can resume here.
+                    if(sinceId == null && responseData.size() > 0) {
+                        String newestId = ADNSharedPreferences.getFullSyncCheckpointSinceId(channelId);
+                        if(newestId == null) {
+                            newestId = getMaxId();
+                        }
+                        ADNSharedPreferences.setFullSyncCheckpoint(channelId, getMinId(), newestId);
+                    }
+
+                    responseHandler.setNumMessagesSynced(responseHandler.getNumMessagesSynced() + batch.size());
+
+                    if(!isMore) {
+                        if(gapSinceId != null) {
+                            retrieveAllMessages(messages, gapSinceId, null, null, channelId, responseHandler);
+                        } else {
+                            ADNSharedPreferences.setFullSyncState(channelId, FullSyncState.COMPLETE);
+                            ADNSharedPreferences.deleteFullSyncCheckpoint(channelId);
+                            Log.d(TAG, "Num messages synced: " + responseHandler.getNumMessagesSynced());
+                            isComplete = true;
+                        }
+                    }
+                }
+
+                //the handler may call into the ActionMessageManager, so it must not be called
+                //while holding our lock.
+                responseHandler.onBatchSynced(batch);
+                if(isComplete) {
                     responseHandler.onSuccess(messages);
                 }
             }
@@ -1616,6 +2305,7 @@ public class MessageManager {
             @Override
             public void onError(Exception exception) {
                 Log.e(TAG, exception.getMessage(), exception);
+                pageSizeController.onPageFailed();
                 responseHandler.onError(exception);
             }
         });
@@ -1625,88 +2315,224 @@ public class MessageManager {
         QueryParameters params = (QueryParameters) mParameters.get(channelId).clone();
         params.put("since_id", sinceId);
         params.put("before_id", beforeId);
+        if(mConfiguration.isAdaptivePageSizingEnabled) {
+            params.put("count", String.valueOf(getPageSizeController(channelId).getPageSize()));
+        }
         return retrieveMessages(params, messageFilter, channelId, false, handler);
     }
 
-    private synchronized void sendUnsentMessages(final TreeMap<Long, MessagePlus> unsentMessages, final ArrayList<String> sentMessageIds, final ArrayList<String> replacementMessageIds) {
-        final MessagePlus messagePlus = unsentMessages.get(unsentMessages.keySet().iterator().next());
-        if(messagePlus.hasPendingFileAttachments()) {
-            String pendingFileId = messagePlus.getPendingFileAttachments().keySet().iterator().next();
-            Set<String> messagesNeedingPendingFile = getMessageIdsNeedingPendingFile(pendingFileId);
-            messagesNeedingPendingFile.add(messagePlus.getMessage().getId());
-            FileManager.getInstance(mClient).startPendingFileUpload(pendingFileId, messagePlus.getMessage().getChannelId());
-            return;
+    /**
+     * Sends the unsent Messages of a single Channel, keeping up to
+     * MessageManagerConfiguration.maxUnsentMessagesInFlight createMessage requests in flight.
+     *
+     * Responses can arrive in any order, but they are committed (local copy replaced with the
+     * server copy) strictly in display date order. A failed send is committed as a failure in its
+     * turn and does not hold up the rest of the window. Sending stops at the first Message that is
+     * waiting on a pending file upload; the upload completion will trigger another send.
+     *
+     * All access is guarded by the MessageManager's lock, except for onFinished(), which runs after
+     * the window has been removed from mUnsentMessageSendWindows and the lock has been released,
+     * so that the ActionMessageManager is never called while holding our lock.
+     */
+    private class UnsentMessageSendWindow {
+        private String mChannelId;
+        private TreeMap<Long, MessagePlus> mUnsentMessages;
+        private List<MessagePlus> mQueue;
+        private Message[] mResults;
+        private Integer[] mStatusCodes;
+        private boolean[] mIsComplete;
+        private int mNextToSend;
+        private int mNextToCommit;
+        private int mNumInFlight;
+        private boolean mIsBlockedOnPendingFile;
+        private boolean mIsResendRequested;
+        private boolean mIsResendAllRequested;
+        private Set<String> mResendHeldMessageIds;
+        private Set<String> mResendRetryMessageIds;
+        private ArrayList<String> mSentMessageIds;
+        private ArrayList<String> mReplacementMessageIds;
+
+        UnsentMessageSendWindow(String channelId, TreeMap<Long, MessagePlus> unsentMessages, List<MessagePlus> queue) {
+            mChannelId = channelId;
+            mUnsentMessages = unsentMessages;
+            mQueue = queue;
+            mResults = new Message[mQueue.size()];
+            mStatusCodes = new Integer[mQueue.size()];
+            mIsComplete = new boolean[mQueue.size()];
+            mSentMessageIds = new ArrayList<String>(mQueue.size());
+            mReplacementMessageIds = new ArrayList<String>(mQueue.size());
+            mResendRetryMessageIds = new HashSet<String>();
         }
-        Message theMessage = messagePlus.getMessage();
-        final Message message = (Message) AppDotNetObjectCloner.getClone(theMessage);
-        final String channelId = message.getChannelId();
 
-        //we had them set for display locally, but we should
-        //let the server generate the "real" entities.
-        message.setEntities(null);
+        void requestResend(Set<String> heldMessageIds, boolean sendAll, Set<String> retryMessageIds) {
+            //the most recent request knows best which Messages must be held.
+            mIsResendRequested = true;
+            mResendHeldMessageIds = heldMessageIds;
+            mIsResendAllRequested |= sendAll;
+            if(retryMessageIds != null) {
+                mResendRetryMessageIds.addAll(retryMessageIds);
+            }
+        }
 
-        mClient.createMessage(channelId, message, mParameters.get(channelId), new MessageResponseHandler() {
-            @Override
-            public void onSuccess(Message newMessage) {
-                String newMessageId = newMessage.getId();
-                Log.d(TAG, "Channel " + channelId + "; Successfully sent unsent message with id " + message.getId() + "; replaced with message " + newMessageId);
-
-                long sentMessageTime = messagePlus.getDisplayDate().getTime();
-
-                //
-                //TODO: is using this "removed" in the if block below the right
-                //thing to be doing? how does that mean it's replacing an existing
-                //message in memory? add comment with explanation!
-                //
-                MessagePlus removed = unsentMessages.remove(sentMessageTime);
-                sentMessageIds.add(message.getId());
-                replacementMessageIds.add(newMessageId);
-
-                mDatabase.deleteMessage(messagePlus);
-
-                deleteMessageFromChannelMapAndUpdateMinMaxPair(messagePlus);
-
-                MinMaxPair minMaxPair = getMinMaxPair(channelId);
-                MessagePlus newMessagePlus = new MessagePlus(newMessage);
-                Date date = adjustDate(newMessagePlus);
-                performLookups(newMessagePlus, true);
-                insertIntoDatabase(newMessagePlus);
-                TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
-
-                //just like with retrieveMessages(), only keep this message in memory if
-                //it is replacing an existing message in memory, or if the date is greater
-                //than the current min date in memory.
-                long time = date.getTime();
-                if(removed != null || minMaxPair.minDate == null || time >= minMaxPair.minDate) {
-                    channelMessages.put(time, newMessagePlus);
-                    minMaxPair.expandDateIfMinOrMax(time);
-                    minMaxPair.expandIdIfMinOrMax(newMessageId);
+        /**
+         * Send as many queued Messages as the window allows.
+         *
+         * @return true if nothing is left in flight and the window has been finished. The caller
+         * must call onFinished() after releasing the MessageManager's lock.
+         */
+        boolean fill() {
+            int maxInFlight = Math.max(1, mConfiguration.maxUnsentMessagesInFlight);
+            while(!mIsBlockedOnPendingFile && mNumInFlight < maxInFlight && mNextToSend < mQueue.size()) {
+                MessagePlus messagePlus = mQueue.get(mNextToSend);
+                if(messagePlus.hasPendingFileAttachments()) {
+                    String pendingFileId = messagePlus.getPendingFileAttachments().keySet().iterator().next();
+                    Set<String> messagesNeedingPendingFile = getMessageIdsNeedingPendingFile(pendingFileId);
+                    messagesNeedingPendingFile.add(messagePlus.getMessage().getId());
+                    FileManager.getInstance(mClient).startPendingFileUpload(pendingFileId, mChannelId);
+                    mIsBlockedOnPendingFile = true;
+                } else {
+                    send(mNextToSend);
+                    mNextToSend++;
+                    mNumInFlight++;
                 }
+            }
 
-                if(unsentMessages.size() > 0) {
-                    sendUnsentMessages(unsentMessages, sentMessageIds, replacementMessageIds);
-                } else {
-                    if(mAttachedActionMessageManager != null) {
-                        mAttachedActionMessageManager.onUnsentMessagesSentPrivate(newMessage.getChannelId(), sentMessageIds, replacementMessageIds);
-                    } else {
-                        sendUnsentMessagesSentBroadcast(newMessage.getChannelId(), sentMessageIds, replacementMessageIds);
+            if(mNumInFlight == 0) {
+                finish();
+                return true;
+            }
+            return false;
+        }
+
+        private void send(final int index) {
+            final MessagePlus messagePlus = mQueue.get(index);
+            final Message message = (Message) AppDotNetObjectCloner.getClone(messagePlus.getMessage());
+
+            //we had them set for display locally, but we should
+            //let the server generate the "real" entities.
+            message.setEntities(null);
+
+            mClient.createMessage(mChannelId, message, mParameters.get(mChannelId), new MessageResponseHandler() {
+                @Override
+                public void onSuccess(Message newMessage) {
+                    boolean isFinished;
+                    synchronized(MessageManager.this) {
+                        mResults[index] = newMessage;
+                        isFinished = onSendComplete(index);
                     }
+                    if(isFinished) {
+                        onFinished();
+                    }
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    super.onError(exception);
+                    boolean isFinished;
+                    synchronized(MessageManager.this) {
+                        mStatusCodes[index] = getStatusCode();
+                        isFinished = onSendComplete(index);
+                    }
+                    if(isFinished) {
+                        onFinished();
+                    }
+                }
+            });
+        }
+
+        private boolean onSendComplete(int index) {
+            mIsComplete[index] = true;
+            mNumInFlight--;
+
+            while(mNextToCommit < mNextToSend && mIsComplete[mNextToCommit]) {
+                MessagePlus messagePlus = mQueue.get(mNextToCommit);
+                Message newMessage = mResults[mNextToCommit];
+                if(newMessage != null) {
+                    commitSentMessage(messagePlus, newMessage);
+                } else {
+                    commitFailedMessage(messagePlus, mStatusCodes[mNextToCommit]);
                 }
+                mResults[mNextToCommit] = null;
+                mNextToCommit++;
             }
 
-            @Override
-            public void onError(Exception exception) {
-                super.onError(exception);
-                int sendAttempts = messagePlus.incrementSendAttempts();
-                mDatabase.insertOrReplaceMessage(messagePlus);
+            return fill();
+        }
+
+        private void commitSentMessage(MessagePlus messagePlus, Message newMessage) {
+            String unsentMessageId = messagePlus.getMessage().getId();
+            String newMessageId = newMessage.getId();
+            Log.d(TAG, "Channel " + mChannelId + "; Successfully sent unsent message with id " + unsentMessageId + "; replaced with message " + newMessageId);
 
-                Intent i = new Intent(INTENT_ACTION_UNSENT_MESSAGE_SEND_FAILURE);
-                i.putExtra(EXTRA_CHANNEL_ID, message.getChannelId());
-                i.putExtra(EXTRA_MESSAGE_ID, message.getId());
-                i.putExtra(EXTRA_SEND_ATTEMPTS, sendAttempts);
-                mContext.sendBroadcast(i);
+            long sentMessageTime = messagePlus.getDisplayDate().getTime();
+
+            //
+            //TODO: is using this "removed" in the if block below the right
+            //thing to be doing? how does that mean it's replacing an existing
+            //message in memory? add comment with explanation!
+            //
+            MessagePlus removed = mUnsentMessages.remove(sentMessageTime);
+            mSentMessageIds.add(unsentMessageId);
+            mReplacementMessageIds.add(newMessageId);
+
+            mDatabase.deleteMessage(messagePlus);
+            mOutboundWorkScheduler.onWorkSucceeded(OutboundWork.Type.UNSENT_MESSAGE, unsentMessageId);
+
+            deleteMessageFromChannelMapAndUpdateMinMaxPair(messagePlus);
+
+            MinMaxPair minMaxPair = getMinMaxPair(mChannelId);
+            MessagePlus newMessagePlus = new MessagePlus(newMessage);
+            Date date = adjustDate(newMessagePlus);
+            performLookups(newMessagePlus, true);
+            insertIntoDatabase(newMessagePlus);
+            TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(mChannelId);
+
+            //just like with retrieveMessages(), only keep this message in memory if
+            //it is replacing an existing message in memory, or if the date is greater
+            //than the current min date in memory.
+            long time = date.getTime();
+            if(removed != null || minMaxPair.minDate == null || time >= minMaxPair.minDate) {
+                channelMessages.put(time, newMessagePlus);
+                minMaxPair.expandDateIfMinOrMax(time);
+                minMaxPair.expandIdIfMinOrMax(newMessageId);
+                publishSnapshot(mChannelId);
             }
-        });
+        }
+
+        private void commitFailedMessage(MessagePlus messagePlus, Integer statusCode) {
+            int sendAttempts = messagePlus.incrementSendAttempts();
+            mDatabase.insertOrReplaceMessage(messagePlus);
+            mOutboundWorkScheduler.onWorkFailed(OutboundWork.Type.UNSENT_MESSAGE, messagePlus.getMessage().getId(), mChannelId, statusCode);
+
+            Intent i = new Intent(INTENT_ACTION_UNSENT_MESSAGE_SEND_FAILURE);
+            i.putExtra(EXTRA_CHANNEL_ID, mChannelId);
+            i.putExtra(EXTRA_MESSAGE_ID, messagePlus.getMessage().getId());
+            i.putExtra(EXTRA_SEND_ATTEMPTS, sendAttempts);
+            mContext.sendBroadcast(i);
+        }
+
+        private void finish() {
+            mUnsentMessageSendWindows.remove(mChannelId);
+        }
+
+        /**
+         * Report the sent Messages and start any resend that was requested while this window was
+         * open. Must be called without holding the MessageManager's lock; once finish() has removed
+         * the window from mUnsentMessageSendWindows, nothing else touches its state.
+         */
+        private void onFinished() {
+            if(mSentMessageIds.size() > 0) {
+                if(mAttachedActionMessageManager != null) {
+                    mAttachedActionMessageManager.onUnsentMessagesSentPrivate(mChannelId, mSentMessageIds, mReplacementMessageIds);
+                } else {
+                    sendUnsentMessagesSentBroadcast(mChannelId, mSentMessageIds, mReplacementMessageIds);
+                }
+            }
+
+            if(mIsResendRequested) {
+                sendUnsentMessages(mChannelId, mResendHeldMessageIds, mIsResendAllRequested, mResendRetryMessageIds);
+            }
+        }
     }
 
     void sendUnsentMessagesSentBroadcast(String channelId, ArrayList<String> sentMessageIds, ArrayList<String> replacementMessageIds) {
@@ -1752,11 +2578,24 @@ public class MessageManager {
      * @param channelId the Channel id
      */
     synchronized void sendAllUnsent(final String channelId) {
+        sendAllUnsent(channelId, null);
+    }
+
+    /**
+     * Send all pending deletions and unsent Messages in a Channel, except for the unsent
+     * Messages that are being held back.
+     *
+     * The pending deletions will be sent first.
+     *
+     * @param channelId the Channel id
+     * @param heldMessageIds the ids of unsent Messages that should not be sent. Can be null.
+     */
+    synchronized void sendAllUnsent(final String channelId, final Set<String> heldMessageIds) {
         FileManager.getInstance(mClient).sendPendingFileDeletions();
         sendPendingDeletions(channelId, new MessageDeletionResponseHandler() {
             @Override
             public void onSuccess() {
-                sendUnsentMessages(channelId);
+                sendUnsentMessages(channelId, heldMessageIds);
             }
 
             @Override
@@ -1764,7 +2603,44 @@ public class MessageManager {
                 Log.e(TAG, exception.getMessage(), exception);
 
                 //try this anyway.
-                sendUnsentMessages(channelId);
+                sendUnsentMessages(channelId, heldMessageIds);
+            }
+        });
+    }
+
+    /**
+     * Used by the OutboundWorkScheduler to retry specific pending deletions and unsent Messages
+     * in a Channel. Only the provided items are sent; the deletions are sent first. In an Action
+     * Channel, Action Messages that the attached ActionMessageManager is holding back are not
+     * sent before their targets.
+     *
+     * This is intentionally not synchronized; the ActionMessageManager's lock must not be
+     * taken while holding ours.
+     *
+     * @param channelId the Channel id
+     * @param deletionMessageIds the ids of the Messages whose pending deletions should be sent
+     * @param unsentMessageIds the ids of the unsent Messages that should be sent
+     */
+    void retryUnsent(String channelId, Set<String> deletionMessageIds, Set<String> unsentMessageIds) {
+        Set<String> heldMessageIds = null;
+        ActionMessageManager actionMessageManager = mAttachedActionMessageManager;
+        if(actionMessageManager != null && actionMessageManager.isActionChannel(channelId)) {
+            heldMessageIds = actionMessageManager.copyHeldActionMessageIds(channelId);
+        }
+        retryUnsent(channelId, deletionMessageIds, unsentMessageIds, heldMessageIds);
+    }
+
+    private synchronized void retryUnsent(final String channelId, Set<String> deletionMessageIds, final Set<String> unsentMessageIds, final Set<String> heldMessageIds) {
+        sendPendingDeletions(channelId, deletionMessageIds, new MessageDeletionResponseHandler() {
+            @Override
+            public void onSuccess() {
+                sendUnsentMessages(channelId, heldMessageIds, false, unsentMessageIds);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                Log.e(TAG, exception.getMessage(), exception);
+                sendUnsentMessages(channelId, heldMessageIds, false, unsentMessageIds);
             }
         });
     }
@@ -1776,16 +2652,60 @@ public class MessageManager {
      * @return true if unsent Messages are being sent, false if none exist
      */
     synchronized boolean sendUnsentMessages(final String channelId) {
+        return sendUnsentMessages(channelId, null);
+    }
+
+    /**
+     * Send the unsent Messages in a Channel, except for those that are being held back.
+     *
+     * ActionMessageManager uses this to hold back Action Messages whose target Messages
+     * have not been sent yet, while letting all other Action Messages go. Messages that previously
+     * failed to send and are waiting out their backoff are left to the OutboundWorkScheduler.
+     *
+     * @param channelId the the Channel id
+     * @param heldMessageIds the ids of unsent Messages that should not be sent. Can be null.
+     * @return true if unsent Messages are being sent, false if none exist that aren't held
+     */
+    synchronized boolean sendUnsentMessages(final String channelId, Set<String> heldMessageIds) {
+        return sendUnsentMessages(channelId, heldMessageIds, true, null);
+    }
+
+    /**
+     * @param sendAll true to send every unsent Message that isn't held or backed off
+     * @param retryMessageIds the ids of unsent Messages that the OutboundWorkScheduler is retrying;
+     *                        these are sent even though they are backed off. Can be null.
+     */
+    private synchronized boolean sendUnsentMessages(final String channelId, Set<String> heldMessageIds, boolean sendAll, Set<String> retryMessageIds) {
+        Set<String> backedOffMessageIds = sendAll ? mOutboundWorkScheduler.getBackedOffItemIds(OutboundWork.Type.UNSENT_MESSAGE, channelId) : null;
         TreeMap<Long, MessagePlus> unsentMessages = getUnsentMessages(channelId);
-        if(unsentMessages.size() > 0) {
+        ArrayList<MessagePlus> queue = new ArrayList<MessagePlus>(unsentMessages.size());
+        for(MessagePlus messagePlus : unsentMessages.values()) {
+            String messageId = messagePlus.getMessage().getId();
+            if(heldMessageIds != null && heldMessageIds.contains(messageId)) {
+                continue;
+            }
+            if((sendAll && !backedOffMessageIds.contains(messageId)) || (retryMessageIds != null && retryMessageIds.contains(messageId))) {
+                queue.add(messagePlus);
+            }
+        }
+        if(queue.size() > 0) {
             TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
             if(channelMessages.size() == 0) {
                 //we do this so that the max id for this channel is known.
                 loadPersistedMessages(channelId, unsentMessages.size() + 1);
             }
-            ArrayList<String> sentMessageIds = new ArrayList<String>(unsentMessages.size());
-            ArrayList<String> replacementMessageIds = new ArrayList<String>(unsentMessages.size());
-            sendUnsentMessages(unsentMessages, sentMessageIds, replacementMessageIds);
+            UnsentMessageSendWindow sendWindow = mUnsentMessageSendWindows.get(channelId);
+            if(sendWindow != null) {
+                //a send is already in progress; go again once it finishes
+                //so that nothing gets sent twice.
+                sendWindow.requestResend(heldMessageIds, sendAll, retryMessageIds);
+            } else {
+                sendWindow = new UnsentMessageSendWindow(channelId, unsentMessages, queue);
+                mUnsentMessageSendWindows.put(channelId, sendWindow);
+                //a new window can only finish here if it is blocked on a pending file before
+                //sending anything, in which case there is nothing for onFinished() to report.
+                sendWindow.fill();
+            }
             return true;
         }
         return false;
@@ -1794,42 +2714,170 @@ public class MessageManager {
     /**
      * Send all pending Message deletions in a Channel.
      *
+     * Up to MessageManagerConfiguration.maxPendingDeletionsInFlight deletions are sent at a time.
+     * Once every deletion has completed, the successful ones are removed from the database in a
+     * single transaction – at which point new Messages can be retrieved in the Channel again, if
+     * all deletions succeeded. If a batch is already being sent for the Channel, the deletions
+     * are added to it and the handler is called when that batch completes.
+     *
+     * Deletions that previously failed and are waiting out their backoff are left to the
+     * OutboundWorkScheduler.
+     *
      * @param channelId the Channel id
      * @param responseHandler MessageDeletionResponseHandler
      */
     public synchronized void sendPendingDeletions(final String channelId, MessageDeletionResponseHandler responseHandler) {
+        sendPendingDeletions(channelId, null, responseHandler);
+    }
+
+    /**
+     * @param retryMessageIds if not null, only the pending deletions of these Messages are sent
+     *                        (regardless of backoff); otherwise, all deletions that aren't backed
+     *                        off are sent.
+     */
+    private synchronized void sendPendingDeletions(final String channelId, Set<String> retryMessageIds, MessageDeletionResponseHandler responseHandler) {
+        Set<String> backedOffMessageIds = retryMessageIds == null ? mOutboundWorkScheduler.getBackedOffItemIds(OutboundWork.Type.MESSAGE_DELETION, channelId) : null;
         HashMap<String, PendingMessageDeletion> pendingMessageDeletions = mDatabase.getPendingMessageDeletions(channelId);
-        if(pendingMessageDeletions.size() > 0) {
-            ArrayList<PendingMessageDeletion> deletions = new ArrayList<PendingMessageDeletion>(pendingMessageDeletions.values());
-            sendPendingDeletion(0, deletions, responseHandler);
+        ArrayList<PendingMessageDeletion> deletions = new ArrayList<PendingMessageDeletion>(pendingMessageDeletions.size());
+        for(PendingMessageDeletion deletion : pendingMessageDeletions.values()) {
+            String messageId = deletion.getMessageId();
+            if(retryMessageIds != null ? retryMessageIds.contains(messageId) : !backedOffMessageIds.contains(messageId)) {
+                deletions.add(deletion);
+            }
+        }
+
+        PendingDeletionBatch batch = mPendingDeletionBatches.get(channelId);
+        if(batch != null) {
+            batch.addResponseHandler(responseHandler);
+            batch.addDeletions(deletions);
+        } else if(deletions.size() > 0) {
+            batch = new PendingDeletionBatch(channelId);
+            batch.addResponseHandler(responseHandler);
+            mPendingDeletionBatches.put(channelId, batch);
+            batch.addDeletions(deletions);
         } else if(responseHandler != null) {
             responseHandler.onSuccess();
         }
     }
 
-    private synchronized void sendPendingDeletion(final int index, final List<PendingMessageDeletion> pendingMessageDeletions, final MessageDeletionResponseHandler responseHandler) {
-        if(index >= pendingMessageDeletions.size()) {
+    /**
+     * Sends the pending Message deletions of a single Channel with bounded concurrency, and
+     * commits the results together once all requests have completed.
+     *
+     * All access is guarded by the MessageManager's lock.
+     */
+    private class PendingDeletionBatch {
+        private String mChannelId;
+        private List<PendingMessageDeletion> mDeletions;
+        private HashSet<String> mDeletionMessageIds;
+        private List<MessageDeletionResponseHandler> mResponseHandlers;
+        private ArrayList<String> mDeletedMessageIds;
+        private ArrayList<String> mGoneMessageIds;
+        private Exception mFirstError;
+        private int mNextToSend;
+        private int mNumInFlight;
+
+        PendingDeletionBatch(String channelId) {
+            mChannelId = channelId;
+            mDeletions = new ArrayList<PendingMessageDeletion>();
+            mDeletionMessageIds = new HashSet<String>();
+            mResponseHandlers = new ArrayList<MessageDeletionResponseHandler>(1);
+            mDeletedMessageIds = new ArrayList<String>();
+            mGoneMessageIds = new ArrayList<String>();
+        }
+
+        void addDeletions(List<PendingMessageDeletion> deletions) {
+            for(PendingMessageDeletion deletion : deletions) {
+                if(mDeletionMessageIds.add(deletion.getMessageId())) {
+                    mDeletions.add(deletion);
+                }
+            }
+            fill();
+        }
+
+        void addResponseHandler(MessageDeletionResponseHandler responseHandler) {
             if(responseHandler != null) {
-                responseHandler.onSuccess();
+                mResponseHandlers.add(responseHandler);
             }
-        } else {
-            final PendingMessageDeletion deletion = pendingMessageDeletions.get(index);
+        }
+
+        /**
+         * Send as many queued Messages as the window allows.
+         *
+         * @return true if nothing is left in flight and the window has been finished. The caller
+         * must call onFinished() after releasing the MessageManager's lock.
+         */
+        boolean fill() {
+            int maxInFlight = Math.max(1, mConfiguration.maxPendingDeletionsInFlight);
+            while(mNumInFlight < maxInFlight && mNextToSend < mDeletions.size()) {
+                send(mDeletions.get(mNextToSend));
+                mNextToSend++;
+                mNumInFlight++;
+            }
+        }
+
+        private void send(final PendingMessageDeletion deletion) {
             mClient.deleteMessage(deletion.getChannelId(), deletion.getMessageId(), new MessageResponseHandler() {
                 @Override
                 public void onSuccess(Message responseData) {
-                    mDatabase.deletePendingMessageDeletion(deletion.getMessageId());
-                    sendPendingDeletion(index + 1, pendingMessageDeletions, responseHandler);
+                    synchronized(MessageManager.this) {
+                        mDeletedMessageIds.add(deletion.getMessageId());
+                        onDeletionComplete();
+                    }
                 }
 
                 @Override
                 public void onError(Exception error) {
-                    Log.e(TAG, "failed to send pending file deletion for message " + deletion.getMessageId() + "; " + error.getMessage(), error);
-                    if(responseHandler != null) {
-                        responseHandler.onError(error);
+                    super.onError(error);
+                    synchronized(MessageManager.this) {
+                        if(isMessageGone(getStatusCode())) {
+                            Log.d(TAG, "message " + deletion.getMessageId() + " is already gone; dropping its pending deletion");
+                            mGoneMessageIds.add(deletion.getMessageId());
+                            onDeletionComplete();
+                            return;
+                        }
+                        Log.e(TAG, "failed to send pending deletion for message " + deletion.getMessageId() + "; " + error.getMessage(), error);
+                        mOutboundWorkScheduler.onWorkFailed(OutboundWork.Type.MESSAGE_DELETION, deletion.getMessageId(), deletion.getChannelId(), getStatusCode());
+                        if(mFirstError == null) {
+                            mFirstError = error;
+                        }
+                        onDeletionComplete();
                     }
                 }
             });
         }
+
+        private void onDeletionComplete() {
+            mNumInFlight--;
+            if(mNextToSend < mDeletions.size()) {
+                fill();
+            } else if(mNumInFlight == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            ArrayList<String> doneMessageIds = new ArrayList<String>(mDeletedMessageIds.size() + mGoneMessageIds.size());
+            doneMessageIds.addAll(mDeletedMessageIds);
+            doneMessageIds.addAll(mGoneMessageIds);
+            mDatabase.deletePendingMessageDeletions(doneMessageIds);
+            for(String messageId : mDeletedMessageIds) {
+                mOutboundWorkScheduler.onWorkSucceeded(OutboundWork.Type.MESSAGE_DELETION, messageId);
+            }
+            for(String messageId : mGoneMessageIds) {
+                mOutboundWorkScheduler.onWorkDiscarded(OutboundWork.Type.MESSAGE_DELETION, messageId);
+            }
+            mPendingDeletionBatches.remove(mChannelId);
+            Log.d(TAG, "Channel " + mChannelId + "; sent " + mDeletedMessageIds.size() + " of " + mDeletions.size() + " pending deletions; dropped " + mGoneMessageIds.size() + " for messages that were already gone");
+
+            for(MessageDeletionResponseHandler responseHandler : mResponseHandlers) {
+                if(mFirstError == null) {
+                    responseHandler.onSuccess();
+                } else {
+                    responseHandler.onError(mFirstError);
+                }
+            }
+        }
     }
 
     private synchronized boolean retrieveMessages(final QueryParameters queryParameters,
@@ -1842,70 +2890,14 @@ public class MessageManager {
         if(unsentMessages.size() > 0 || pendingMessageDeletions.size() > 0) {
             return false;
         }
+        final PageSizeController pageSizeController = getPageSizeController(channelId);
+        final int requestedCount = getRequestedCount(queryParameters, DEFAULT_API_COUNT);
+        final long requestTime = System.currentTimeMillis();
         mClient.retrieveMessagesInChannel(channelId, queryParameters, new MessageListResponseHandler() {
             @Override
             public void onSuccess(final MessageList responseData) {
-                TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
-                TreeMap<Long, MessagePlus> newestMessagesMap = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
-                TreeMap<Long, MessagePlus> newFullChannelMessagesMap = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
-
-                newFullChannelMessagesMap.putAll(channelMessages);
-
-                MinMaxPair minMaxPair = getMinMaxPair(channelId);
-                
-                for(Message m : responseData) {
-                    MessagePlus messagePlus = new MessagePlus(m);
-                    Date date = adjustDate(messagePlus);
-
-                    long time = date.getTime();
-                    newestMessagesMap.put(time, messagePlus);
-
-                    //only keep messages in memory if they are newer than the ones
-                    //we currently have in memory, or no messages are in memory, indicating
-                    //that there are no persisted messages.
-                    //(unless forceKeepMemory == true)
-                    if(forceKeepInMemory || minMaxPair.minDate == null || time >= minMaxPair.minDate) {
-                        newFullChannelMessagesMap.put(time, messagePlus);
-                    }
-                }
-
-                if(filter != null) {
-                    TreeMap<Long, MessagePlus> excludedResults = filter.getExcludedResults(newestMessagesMap);
-                    removeExcludedMessages(newFullChannelMessagesMap, excludedResults);
-                    removeExcludedMessages(newestMessagesMap, excludedResults);
-                    if(handler != null) {
-                        handler.setExcludedResults(excludedResults);
-                    }
-                }
-
-                Long minDate = null, maxDate = null;
-
-                //this needs to happen after filtering.
-                //damn. not as efficient as doing it in the loop above.
-                for(MessagePlus messagePlus : newestMessagesMap.values()) {
-                    insertIntoDatabase(messagePlus);
-
-                    Long time = messagePlus.getDisplayDate().getTime();
-
-                    //only consider this a candidate for a min/max if
-                    //we kept it in the newFullChannelMessagesMap - a couple steps above.
-                    if(newFullChannelMessagesMap.containsKey(time)) {
-                        if(minDate == null || time < minDate) {
-                            minDate = time;
-                        }
-                        if(maxDate == null || time > maxDate) {
-                            maxDate = time;
-                        }
-                    }
-                }
-
-                //the important stuff.
-                mMessages.put(channelId, newFullChannelMessagesMap);
-                minMaxPair.updateWithCombinedValues(new MinMaxPair(getMinId(), getMaxId(), minDate, maxDate));
-
-                ArrayList<MessagePlus> newestMessages = new ArrayList<MessagePlus>(responseData.size());
-                newestMessages.addAll(newestMessagesMap.values());
-                performLookups(newestMessages, true);
+                pageSizeController.onPageSucceeded(System.currentTimeMillis() - requestTime, requestedCount, responseData.size());
+                ArrayList<MessagePlus> newestMessages = processRetrievedMessages(responseData, getMinId(), getMaxId(), filter, channelId, forceKeepInMemory, handler);
 
                 if(handler != null) {
                     handler.setIsMore(isMore());
@@ -1916,6 +2908,7 @@ public class MessageManager {
             @Override
             public void onError(Exception error) {
                 Log.e(TAG, error.getMessage(), error);
+                pageSizeController.onPageFailed();
 
                 if(handler != null) {
                     handler.onError(error);
@@ -1925,24 +2918,109 @@ public class MessageManager {
         return true;
     }
 
+    private synchronized ArrayList<MessagePlus> processRetrievedMessages(final MessageList responseData,
+                                                                      final String responseMinId,
+                                                                      final String responseMaxId,
+                                                                      final MessageFilter filter,
+                                                                      final String channelId,
+                                                                      final boolean forceKeepInMemory,
+                                                                      final MessageManagerResponseHandler handler) {
+        TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
+        TreeMap<Long, MessagePlus> newestMessagesMap = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
+        TreeMap<Long, MessagePlus> newFullChannelMessagesMap = new TreeMap<Long, MessagePlus>(new ReverseChronologicalComparator());
+
+        newFullChannelMessagesMap.putAll(channelMessages);
+
+        MinMaxPair minMaxPair = getMinMaxPair(channelId);
+
+        for(Message m : responseData) {
+            MessagePlus messagePlus = new MessagePlus(m);
+            Date date = adjustDate(messagePlus);
+
+            long time = date.getTime();
+            newestMessagesMap.put(time, messagePlus);
+
+            //only keep messages in memory if they are newer than the ones
+            //we currently have in memory, or no messages are in memory, indicating
+            //that there are no persisted messages.
+            //(unless forceKeepMemory == true)
+            if(forceKeepInMemory || minMaxPair.minDate == null || time >= minMaxPair.minDate) {
+                newFullChannelMessagesMap.put(time, messagePlus);
+            }
+        }
+
+        if(filter != null) {
+            TreeMap<Long, MessagePlus> excludedResults = filter.getExcludedResults(newestMessagesMap);
+            removeExcludedMessages(newFullChannelMessagesMap, excludedResults);
+            removeExcludedMessages(newestMessagesMap, excludedResults);
+            if(handler != null) {
+                handler.setExcludedResults(excludedResults);
+            }
+        }
+
+        Long minDate = null, maxDate = null;
+
+        //this needs to happen after filtering.
+        //damn. not as efficient as doing it in the loop above.
+        insertIntoDatabase(newestMessagesMap.values());
+        for(MessagePlus messagePlus : newestMessagesMap.values()) {
+            Long time = messagePlus.getDisplayDate().getTime();
+
+            //only consider this a candidate for a min/max if
+            //we kept it in the newFullChannelMessagesMap - a couple steps above.
+            if(newFullChannelMessagesMap.containsKey(time)) {
+                if(minDate == null || time < minDate) {
+                    minDate = time;
+                }
+                if(maxDate == null || time > maxDate) {
+                    maxDate = time;
+                }
+            }
+        }
+
+        //the important stuff.
+        mMessages.put(channelId, newFullChannelMessagesMap);
+        minMaxPair.updateWithCombinedValues(new MinMaxPair(responseMinId, responseMaxId, minDate, maxDate));
+        publishSnapshot(channelId);
+
+        ArrayList<MessagePlus> newestMessages = new ArrayList<MessagePlus>(responseData.size());
+        newestMessages.addAll(newestMessagesMap.values());
+        performLookups(newestMessages, true);
+
+        return newestMessages;
+    }
+
     private Date adjustDate(MessagePlus messagePlus) {
         Date adjustedDate = getAdjustedDate(messagePlus.getMessage());
         messagePlus.setDisplayDate(adjustedDate);
         return adjustedDate;
     }
 
-    private void insertIntoDatabase(MessagePlus messagePlus) {
-        mDatabase.insertOrReplaceMessage(messagePlus);
+    private boolean insertIntoDatabase(MessagePlus messagePlus) {
+        ArrayList<MessagePlus> messagePlusses = new ArrayList<MessagePlus>(1);
+        messagePlusses.add(messagePlus);
+        return insertIntoDatabase(messagePlusses);
+    }
+
+    private boolean insertIntoDatabase(Collection<MessagePlus> messagePlusses) {
+        boolean success = true;
+        for(MessagePlus messagePlus : messagePlusses) {
+            success &= mDatabase.insertOrReplaceMessage(messagePlus);
 
-        if(mConfiguration.isHashtagExtractionEnabled) {
-            mDatabase.insertOrReplaceHashtagInstances(messagePlus);
+            if(mConfiguration.isHashtagExtractionEnabled) {
+                success &= mDatabase.insertOrReplaceHashtagInstances(messagePlus) != null;
+            }
         }
 
-        if(mConfiguration.annotationsToExtract != null) {
-            for(String annotationType : mConfiguration.annotationsToExtract) {
-                mDatabase.insertOrReplaceAnnotationInstances(annotationType, messagePlus);
-            }
+        //Annotations are extracted for the whole page in one pass.
+        if(mConfiguration.annotationsToExtract != null || mConfiguration.annotationValuePathsToIndex != null) {
+            Set<String> annotationTypes = mConfiguration.annotationsToExtract;
+            Set<AnnotationValuePath> valuePaths = mConfiguration.annotationValuePathsToIndex;
+            success &= mDatabase.insertOrReplaceAnnotationInstances(messagePlusses,
+                    annotationTypes != null ? annotationTypes : Collections.<String>emptySet(),
+                    valuePaths != null ? valuePaths : Collections.<AnnotationValuePath>emptySet());
         }
+        return success;
     }
 
     private Date getAdjustedDate(Message message) {
@@ -2005,6 +3083,7 @@ public class MessageManager {
                         TreeMap<Long, MessagePlus> channelMessages = getChannelMessages(channelId);
                         if(channelMessages.containsKey(time)) {
                             channelMessages.put(time, messagePlus);
+                            publishSnapshot(channelId);
                         }
                         TreeMap<Long, MessagePlus> unsentMessages = getUnsentMessages(channelId);
                         if(unsentMessages.containsKey(time)) {
@@ -2051,6 +3130,14 @@ public class MessageManager {
         MessageDisplayDateAdapter dateAdapter;
         MessageLocationLookupHandler locationLookupHandler;
         Set<String> annotationsToExtract;
+        Set<AnnotationValuePath> annotationValuePathsToIndex;
+        int maxConcurrentFullSyncs = 3;
+        boolean isAdaptivePageSizingEnabled;
+        int maxUnsentMessagesInFlight = 4;
+        int maxPendingDeletionsInFlight = 4;
+        long targetPageLatencyMillis = PageSizeController.DEFAULT_TARGET_LATENCY_MILLIS;
+        ReverseGeocoder reverseGeocoder;
+        int persistedPagePrefetchDistance;
 
         /**
          * Set a MessageDisplayDateAdapter.
@@ -2088,6 +3175,21 @@ public class MessageManager {
             this.isLocationLookupEnabled = isEnabled;
         }
 
+        /**
+         * Set the ReverseGeocoder used to obtain a DisplayLocation for Messages with a
+         * net.app.core.geolocation annotation, when location lookup is enabled. By default, an
+         * AndroidReverseGeocoder is used, which requires a network connection. A
+         * GazetteerReverseGeocoder can be used to resolve locations offline.
+         *
+         * @param reverseGeocoder the ReverseGeocoder
+         *
+         * @see com.alwaysallthetime.messagebeast.geocoder.AndroidReverseGeocoder
+         * @see com.alwaysallthetime.messagebeast.geocoder.GazetteerReverseGeocoder
+         */
+        public void setReverseGeocoder(ReverseGeocoder reverseGeocoder) {
+            this.reverseGeocoder = reverseGeocoder;
+        }
+
         /**
          * Enable hashtag extraction. This tells the MessageManager to store references to hashtags
          * in the database so that you can easily find all messages with a specific hashtag at a
@@ -2125,5 +3227,101 @@ public class MessageManager {
             }
             annotationsToExtract.add(annotationType);
         }
+
+        /**
+         * Tell the MessageManager to index a value within the Annotations of a given type, so
+         * that Messages can be looked up by that value at a later time without decoding them.
+         * For example, to find all Messages that check in to a place, you might call this method
+         * with the annotation type net.app.core.checkin and the key factual_id.
+         *
+         * @param annotationType The Annotation type of interest.
+         * @param keys the keys that lead from the Annotation's value to the value to index.
+         *
+         * @see com.alwaysallthetime.messagebeast.manager.MessageManager#getAnnotationValueInstances(String, com.alwaysallthetime.messagebeast.db.AnnotationValuePath, String, java.util.Date, int)
+         */
+        public void addAnnotationValueIndex(String annotationType, String... keys) {
+            if(annotationValuePathsToIndex == null) {
+                annotationValuePathsToIndex = new HashSet<AnnotationValuePath>();
+            }
+            annotationValuePathsToIndex.add(new AnnotationValuePath(annotationType, keys));
+        }
+
+        /**
+         * Set the maximum number of Channels that may be synced at the same time when
+         * retrieveAndPersistAllMessages() is called with multiple Channels. The default is 3.
+         *
+         * @param maxConcurrentFullSyncs the maximum number of Channels to sync concurrently.
+         *                               Values less than 1 are treated as 1.
+         *
+         * @see com.alwaysallthetime.messagebeast.manager.MessageManager#retrieveAndPersistAllMessages(com.alwaysallthetime.adnlib.data.Channel[], com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerMultiChannelSyncResponseHandler)
+         */
+        public void setMaxConcurrentFullSyncs(int maxConcurrentFullSyncs) {
+            this.maxConcurrentFullSyncs = maxConcurrentFullSyncs;
+        }
+
+        /**
+         * Set the maximum number of unsent Messages per Channel that may be in the process of being
+         * sent to the server at the same time. Regardless of this value, sent Messages replace their
+         * unsent copies in display date order. The default is 4.
+         *
+         * @param maxInFlight the maximum number of concurrent send requests per Channel.
+         *                    Values less than 1 are treated as 1.
+         */
+        public void setMaxUnsentMessagesInFlight(int maxInFlight) {
+            this.maxUnsentMessagesInFlight = maxInFlight;
+        }
+
+        /**
+         * Set the maximum number of pending Message deletions per Channel that may be sent to
+         * the server at the same time. The default is 4.
+         *
+         * @param maxInFlight the maximum number of concurrent deletion requests per Channel.
+         *                    Values less than 1 are treated as 1.
+         */
+        public void setMaxPendingDeletionsInFlight(int maxInFlight) {
+            this.maxPendingDeletionsInFlight = maxInFlight;
+        }
+
+        /**
+         * Enable prefetching of persisted Messages. After loadPersistedMessages(channelId, limit)
+         * returns a page, up to numPages following pages are read and decoded on a background
+         * thread, so that subsequent calls can return without reading from the database.
+         * Prefetching is disabled by default.
+         *
+         * @param numPages the number of pages to prefetch ahead of the last loaded page, or 0
+         *                 to disable prefetching.
+         *
+         * @see MessageManager#getPersistedPagePrefetcher()
+         */
+        public void setPersistedPagePrefetchDistance(int numPages) {
+            this.persistedPagePrefetchDistance = numPages;
+        }
+
+        /**
+         * Enable adaptive page sizing. If enabled, the count used for full syncs and for
+         * retrieving newer/older Messages is chosen per Channel by a PageSizeController, based on
+         * the latency, size, and failure rate of previous requests in the Channel. This overrides
+         * any count set in the Channel's QueryParameters; use MessageManager.setPageSizeBounds()
+         * to constrain it instead.
+         *
+         * @param isEnabled true if adaptive page sizing should be used, false otherwise.
+         *
+         * @see com.alwaysallthetime.messagebeast.manager.PageSizeController
+         * @see com.alwaysallthetime.messagebeast.manager.MessageManager#setPageSizeBounds(String, int, int)
+         */
+        public void setAdaptivePageSizingEnabled(boolean isEnabled) {
+            this.isAdaptivePageSizingEnabled = isEnabled;
+        }
+
+        /**
+         * Set the request latency that adaptive page sizing aims for. Lower values result in
+         * smaller pages, which deliver first results sooner on slow connections. The default is
+         * 2000 milliseconds.
+         *
+         * @param targetLatencyMillis the target latency, in milliseconds.
+         */
+        public void setTargetPageLatencyMillis(long targetLatencyMillis) {
+            this.targetPageLatencyMillis = targetLatencyMillis;
+        }
     }
 }
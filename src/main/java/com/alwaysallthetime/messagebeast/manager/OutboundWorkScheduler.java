@@ -0,0 +1,350 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.alwaysallthetime.adnlib.AppDotNetClient;
+import com.alwaysallthetime.messagebeast.ADNApplication;
+import com.alwaysallthetime.messagebeast.db.ADNDatabase;
+import com.alwaysallthetime.messagebeast.db.OutboundWork;
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The OutboundWorkScheduler retries outbound work that failed to reach the App.net servers:
+ * unsent Messages, pending Message deletions, pending file uploads, and pending file deletions.<br><br>
+ *
+ * Each failed item is given a persisted retry time in the ADNDatabase, using exponential backoff
+ * with jitter, so retries survive process restarts. After CIRCUIT_BREAKER_THRESHOLD consecutive
+ * server errors, the circuit opens and no retries are dispatched for CIRCUIT_OPEN_MILLIS; after that,
+ * a single item is dispatched as a probe, and the circuit closes again on the first success. When
+ * network connectivity is regained, all backed-off work becomes due immediately.<br><br>
+ *
+ * Only the items that are due are retried; each one is sent by id, and its result is recorded
+ * against that item alone. Requests made by the application skip items that are still waiting out
+ * their backoff (or that are in flight as a retry), leaving them to the scheduler.<br><br>
+ *
+ * Due work is looked up on a background thread; the retries themselves are started on the main
+ * thread. The scheduler is a singleton, so it retries Messages through a single MessageManager –
+ * the first one to be constructed.
+ */
+public class OutboundWorkScheduler {
+
+    private static final String TAG = "MessageBeast_OutboundWorkScheduler";
+
+    public static final long BASE_RETRY_DELAY_MILLIS = 5 * 1000;
+    public static final long MAX_RETRY_DELAY_MILLIS = 30 * 60 * 1000;
+    public static final int CIRCUIT_BREAKER_THRESHOLD = 5;
+    public static final long CIRCUIT_OPEN_MILLIS = 5 * 60 * 1000;
+
+    //dispatched work is pushed back by this much so that it isn't dispatched again while in flight.
+    //if the process dies before a result comes back, the work becomes due again after this.
+    private static final long DISPATCH_LEASE_MILLIS = 2 * 60 * 1000;
+
+    private final Context mContext;
+    private final AppDotNetClient mClient;
+    private ADNDatabase mDatabase;
+    private Handler mHandler;
+    private Handler mMainHandler;
+    private Random mRandom;
+    private MessageManager mMessageManager;
+
+    private int mNumConsecutiveServerErrors;
+    private long mCircuitOpenUntil;
+
+    private static OutboundWorkScheduler sInstance;
+
+    /**
+     * Get an instance of OutboundWorkScheduler.
+     *
+     * @param client the AppDotNetClient to use with the OutboundWorkScheduler if a new one is created.
+     *               If the singleton already exists, then this is ignored.
+     * @return OutboundWorkScheduler
+     */
+    public static synchronized OutboundWorkScheduler getInstance(AppDotNetClient client) {
+        if(sInstance == null) {
+            sInstance = new OutboundWorkScheduler(client);
+        }
+        return sInstance;
+    }
+
+    private OutboundWorkScheduler(AppDotNetClient client) {
+        mClient = client;
+        mContext = ADNApplication.getContext();
+        mDatabase = ADNDatabase.getInstance(mContext);
+        //the scheduler lives as long as the process, so the thread is never quit.
+        HandlerThread handlerThread = new HandlerThread(TAG);
+        handlerThread.start();
+        mHandler = new Handler(handlerThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mRandom = new Random();
+
+        //CONNECTIVITY_ACTION is sticky, so this also picks up work persisted by a previous process.
+        IntentFilter intentFilter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        mContext.registerReceiver(connectivityReceiver, intentFilter);
+        scheduleWakeUp();
+    }
+
+    /**
+     * Set the MessageManager used to retry unsent Messages and pending Message deletions.
+     *
+     * @param messageManager the MessageManager
+     * @throws IllegalStateException if a different MessageManager has already been set. The
+     * persisted work isn't associated with a MessageManager, so only one can retry it.
+     */
+    synchronized void setMessageManager(MessageManager messageManager) {
+        if(mMessageManager != null && mMessageManager != messageManager) {
+            throw new IllegalStateException("Only one MessageManager can be used with the OutboundWorkScheduler.");
+        }
+        mMessageManager = messageManager;
+    }
+
+    /**
+     * Record a failed attempt at an item of outbound work and schedule its retry.
+     *
+     * @param type the type of work
+     * @param itemId the id of the Message, pending file, or file
+     * @param channelId the id of the associated Channel, or null if there is none
+     * @param statusCode the HTTP status code of the failed request, or null if there was none
+     */
+    synchronized void onWorkFailed(OutboundWork.Type type, String itemId, String channelId, Integer statusCode) {
+        long now = System.currentTimeMillis();
+        if(statusCode != null && (statusCode >= 500 || statusCode == 429)) {
+            mNumConsecutiveServerErrors++;
+            if(mNumConsecutiveServerErrors >= CIRCUIT_BREAKER_THRESHOLD) {
+                mCircuitOpenUntil = now + CIRCUIT_OPEN_MILLIS;
+                Log.w(TAG, mNumConsecutiveServerErrors + " consecutive server errors; pausing retries for " + CIRCUIT_OPEN_MILLIS + "ms");
+            }
+        }
+
+        OutboundWork previousWork = mDatabase.getOutboundWork(type, itemId);
+        int numAttempts = previousWork != null ? previousWork.getNumAttempts() + 1 : 1;
+        long nextAttemptTime = now + getRetryDelay(numAttempts);
+        mDatabase.insertOrReplaceOutboundWork(new OutboundWork(type, itemId, channelId, numAttempts, nextAttemptTime));
+        Log.d(TAG, type + " " + itemId + " failed " + numAttempts + " time(s); retrying in " + (nextAttemptTime - now) + "ms");
+
+        scheduleWakeUp();
+    }
+
+    /**
+     * Record a successful attempt at an item of outbound work.
+     *
+     * @param type the type of work
+     * @param itemId the id of the Message, pending file, or file
+     */
+    synchronized void onWorkSucceeded(OutboundWork.Type type, String itemId) {
+        mNumConsecutiveServerErrors = 0;
+        mCircuitOpenUntil = 0;
+        mDatabase.deleteOutboundWork(type, itemId);
+    }
+
+    /**
+     * Stop retrying an item of outbound work that no longer needs to be done (e.g. a file deletion
+     * for a file that is already gone).
+     *
+     * @param type the type of work
+     * @param itemId the id of the Message, pending file, or file
+     */
+    synchronized void onWorkDiscarded(OutboundWork.Type type, String itemId) {
+        mDatabase.deleteOutboundWork(type, itemId);
+    }
+
+    /**
+     * Get the ids of the items of a type in a Channel that should not be sent by a request made
+     * by the application: items that are waiting out their backoff or are in flight as a retry,
+     * and every item with retry state while the circuit is open.
+     *
+     * @param type the type of work
+     * @param channelId the Channel id
+     * @return a Set of item ids
+     */
+    synchronized Set<String> getBackedOffItemIds(OutboundWork.Type type, String channelId) {
+        long now = System.currentTimeMillis();
+        boolean isCircuitOpen = now < mCircuitOpenUntil;
+        HashSet<String> itemIds = new HashSet<String>();
+        for(OutboundWork work : mDatabase.getChannelOutboundWork(type, channelId)) {
+            if(isCircuitOpen || work.getNextAttemptTime() > now) {
+                itemIds.add(work.getItemId());
+            }
+        }
+        return itemIds;
+    }
+
+    /**
+     * @return true if retries are currently paused because of repeated server errors.
+     */
+    public synchronized boolean isCircuitOpen() {
+        return System.currentTimeMillis() < mCircuitOpenUntil;
+    }
+
+    private long getRetryDelay(int numAttempts) {
+        long delay = BASE_RETRY_DELAY_MILLIS << Math.min(numAttempts - 1, 16);
+        delay = Math.min(delay, MAX_RETRY_DELAY_MILLIS);
+
+        //half fixed, half random, so that items that failed together don't retry together.
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * half);
+    }
+
+    private synchronized void scheduleWakeUp() {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        Long nextAttemptTime = mDatabase.getNextOutboundWorkTime();
+        if(nextAttemptTime != null) {
+            long time = Math.max(nextAttemptTime, mCircuitOpenUntil);
+            mHandler.postDelayed(mDispatchRunnable, Math.max(0, time - System.currentTimeMillis()));
+        }
+    }
+
+    private synchronized void onConnectivityRestored() {
+        mDatabase.setAllOutboundWorkDue(System.currentTimeMillis());
+        scheduleWakeUp();
+    }
+
+    /**
+     * Look up and lease the due work. This runs on the scheduler's thread; the retries are then
+     * started on the main thread.
+     */
+    private void dispatchDueWork() {
+        //Channel id -> ids of the due items in the Channel
+        final Map<String, Set<String>> unsentMessageIds = new LinkedHashMap<String, Set<String>>();
+        final Map<String, Set<String>> deletionMessageIds = new LinkedHashMap<String, Set<String>>();
+        final List<OutboundWork> fileUploads = new ArrayList<OutboundWork>();
+        final List<OutboundWork> fileDeletions = new ArrayList<OutboundWork>();
+        final MessageManager messageManager;
+
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            if(now < mCircuitOpenUntil) {
+                scheduleWakeUp();
+                return;
+            }
+            boolean isProbing = mNumConsecutiveServerErrors >= CIRCUIT_BREAKER_THRESHOLD;
+            messageManager = mMessageManager;
+
+            List<OutboundWork> dueWork = mDatabase.getDueOutboundWork(now);
+            for(OutboundWork work : dueWork) {
+                OutboundWork.Type type = work.getType();
+                if(!isWorkPending(work)) {
+                    mDatabase.deleteOutboundWork(type, work.getItemId());
+                    continue;
+                }
+                boolean isMessageWork = type == OutboundWork.Type.UNSENT_MESSAGE || type == OutboundWork.Type.MESSAGE_DELETION;
+                if(isMessageWork && messageManager == null) {
+                    continue;
+                }
+
+                mDatabase.insertOrReplaceOutboundWork(new OutboundWork(type, work.getItemId(), work.getChannelId(), work.getNumAttempts(), now + DISPATCH_LEASE_MILLIS));
+                if(type == OutboundWork.Type.UNSENT_MESSAGE) {
+                    getItemIds(unsentMessageIds, work.getChannelId()).add(work.getItemId());
+                } else if(type == OutboundWork.Type.MESSAGE_DELETION) {
+                    getItemIds(deletionMessageIds, work.getChannelId()).add(work.getItemId());
+                } else if(type == OutboundWork.Type.FILE_UPLOAD) {
+                    fileUploads.add(work);
+                } else {
+                    fileDeletions.add(work);
+                }
+
+                if(isProbing) {
+                    break;
+                }
+            }
+            scheduleWakeUp();
+        }
+
+        if(unsentMessageIds.isEmpty() && deletionMessageIds.isEmpty() && fileUploads.isEmpty() && fileDeletions.isEmpty()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                retry(messageManager, unsentMessageIds, deletionMessageIds, fileUploads, fileDeletions);
+            }
+        });
+    }
+
+    private void retry(MessageManager messageManager, Map<String, Set<String>> unsentMessageIds, Map<String, Set<String>> deletionMessageIds,
+                       List<OutboundWork> fileUploads, List<OutboundWork> fileDeletions) {
+        //dispatch outside of our lock; the managers take their own.
+        Set<String> messageChannelIds = new LinkedHashSet<String>(deletionMessageIds.keySet());
+        messageChannelIds.addAll(unsentMessageIds.keySet());
+        for(String channelId : messageChannelIds) {
+            Set<String> channelDeletionIds = getItemIds(deletionMessageIds, channelId);
+            Set<String> channelUnsentIds = getItemIds(unsentMessageIds, channelId);
+            Log.d(TAG, "retrying " + channelDeletionIds.size() + " deletions and " + channelUnsentIds.size() + " unsent messages in channel " + channelId);
+            messageManager.retryUnsent(channelId, channelDeletionIds, channelUnsentIds);
+        }
+        FileManager fileManager = FileManager.getInstance(mClient);
+        for(OutboundWork work : fileUploads) {
+            Log.d(TAG, "retrying upload of pending file " + work.getItemId());
+            fileManager.startPendingFileUpload(work.getItemId(), work.getChannelId());
+        }
+        for(OutboundWork work : fileDeletions) {
+            Log.d(TAG, "retrying deletion of file " + work.getItemId());
+            fileManager.sendPendingFileDeletion(work.getItemId());
+        }
+    }
+
+    private static Set<String> getItemIds(Map<String, Set<String>> channelItemIds, String channelId) {
+        Set<String> itemIds = channelItemIds.get(channelId);
+        if(itemIds == null) {
+            itemIds = new LinkedHashSet<String>();
+            channelItemIds.put(channelId, itemIds);
+        }
+        return itemIds;
+    }
+
+    private boolean isWorkPending(OutboundWork work) {
+        String itemId = work.getItemId();
+        switch(work.getType()) {
+            case UNSENT_MESSAGE:
+                MessagePlus messagePlus = mDatabase.getMessage(itemId);
+                return messagePlus != null && messagePlus.isUnsent();
+            case MESSAGE_DELETION:
+                return work.getChannelId() != null && mDatabase.getPendingMessageDeletions(work.getChannelId()).containsKey(itemId);
+            case FILE_UPLOAD:
+                return mDatabase.getPendingFile(itemId) != null;
+            case FILE_DELETION:
+                return mDatabase.getPendingFileDeletions().contains(itemId);
+        }
+        return false;
+    }
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchDueWork();
+        }
+    };
+
+    private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            if(networkInfo != null && networkInfo.isConnected()) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConnectivityRestored();
+                    }
+                });
+            }
+        }
+    };
+}
@@ -0,0 +1,190 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+/**
+ * A PageSizeController chooses the count to use when requesting a page of Messages in a
+ * Channel, based on the latency, size, and failure rate of previous requests in that Channel.<br><br>
+ *
+ * The controller aims to keep each request close to a target latency. The cost of a single Message
+ * (in milliseconds) is tracked as a moving average, so that Channels with large Messages (e.g. many
+ * annotations) and slow connections converge on smaller pages, while fast connections converge on the
+ * largest page allowed. Only full pages are measured; a page with fewer Messages than requested leaves
+ * the page size unchanged. Failed requests halve the page size. The page size never moves by more than a
+ * factor of two per request, and always stays within the controller's bounds.<br><br>
+ *
+ * The getters on this class expose the controller's current decisions and the measurements that
+ * led to them.
+ *
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager#getPageSizeController(String)
+ * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setAdaptivePageSizingEnabled(boolean)
+ */
+public class PageSizeController {
+
+    /**
+     * The largest count accepted by the App.net API.
+     */
+    public static final int MAX_PAGE_SIZE = 200;
+    public static final int DEFAULT_MIN_PAGE_SIZE = 20;
+    public static final int DEFAULT_INITIAL_PAGE_SIZE = 100;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+
+    private static final float SMOOTHING_FACTOR = 0.3f;
+    private static final float HIGH_ERROR_RATE = 0.25f;
+
+    private int mMinPageSize;
+    private int mMaxPageSize;
+    private long mTargetLatencyMillis;
+
+    private int mPageSize;
+    private float mAverageLatencyMillis;
+    private float mAverageMillisPerMessage;
+    private float mErrorRate;
+
+    private int mNumRequests;
+    private int mNumFailures;
+    private int mNumIncreases;
+    private int mNumDecreases;
+    private String mLastDecision;
+
+    PageSizeController() {
+        mMinPageSize = DEFAULT_MIN_PAGE_SIZE;
+        mMaxPageSize = MAX_PAGE_SIZE;
+        mTargetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+        mPageSize = DEFAULT_INITIAL_PAGE_SIZE;
+    }
+
+    synchronized void setBounds(int minPageSize, int maxPageSize) {
+        mMinPageSize = Math.max(1, Math.min(minPageSize, MAX_PAGE_SIZE));
+        mMaxPageSize = Math.max(mMinPageSize, Math.min(maxPageSize, MAX_PAGE_SIZE));
+        mPageSize = clamp(mPageSize);
+    }
+
+    synchronized void setTargetLatencyMillis(long targetLatencyMillis) {
+        mTargetLatencyMillis = targetLatencyMillis;
+    }
+
+    /**
+     * Record a successful request.
+     *
+     * @param latencyMillis the time between issuing the request and receiving the response
+     * @param requestedCount the count that was requested
+     * @param numMessages the number of Messages in the response
+     */
+    synchronized void onPageSucceeded(long latencyMillis, int requestedCount, int numMessages) {
+        mNumRequests++;
+        mAverageLatencyMillis = smooth(mAverageLatencyMillis, latencyMillis);
+        mErrorRate += SMOOTHING_FACTOR * (0 - mErrorRate);
+
+        if(numMessages < requestedCount) {
+            //a partial page (e.g. a refresh with only a few new Messages) is dominated by the fixed
+            //cost of the round trip, so it says nothing about the cost of a full page.
+            mLastDecision = "partial page (" + numMessages + "/" + requestedCount + "); keeping " + mPageSize;
+            return;
+        }
+
+        if(numMessages > 0) {
+            mAverageMillisPerMessage = smooth(mAverageMillisPerMessage, (float) latencyMillis / numMessages);
+        }
+
+        if(mAverageMillisPerMessage <= 0) {
+            mLastDecision = "no per-message measurement yet; keeping " + mPageSize;
+            return;
+        }
+
+        int desired = (int) (mTargetLatencyMillis / mAverageMillisPerMessage);
+        if(mErrorRate > HIGH_ERROR_RATE && desired > mPageSize) {
+            mLastDecision = "error rate " + mErrorRate + " too high to grow; keeping " + mPageSize;
+            return;
+        }
+
+        desired = Math.max(mPageSize / 2, Math.min(desired, mPageSize * 2));
+        setPageSize(clamp(desired), "latency " + latencyMillis + "ms for " + numMessages + " messages");
+    }
+
+    /**
+     * Record a failed request.
+     */
+    synchronized void onPageFailed() {
+        mNumRequests++;
+        mNumFailures++;
+        mErrorRate += SMOOTHING_FACTOR * (1 - mErrorRate);
+        setPageSize(clamp(mPageSize / 2), "request failed");
+    }
+
+    private void setPageSize(int pageSize, String reason) {
+        if(pageSize > mPageSize) {
+            mNumIncreases++;
+        } else if(pageSize < mPageSize) {
+            mNumDecreases++;
+        }
+        mLastDecision = reason + "; " + mPageSize + " -> " + pageSize;
+        mPageSize = pageSize;
+    }
+
+    private int clamp(int pageSize) {
+        return Math.max(mMinPageSize, Math.min(pageSize, mMaxPageSize));
+    }
+
+    private static float smooth(float average, float sample) {
+        return average == 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    /**
+     * @return the count that should be used for the next request.
+     */
+    public synchronized int getPageSize() {
+        return mPageSize;
+    }
+
+    public synchronized int getMinPageSize() {
+        return mMinPageSize;
+    }
+
+    public synchronized int getMaxPageSize() {
+        return mMaxPageSize;
+    }
+
+    /**
+     * @return the moving average of request latency, in milliseconds.
+     */
+    public synchronized float getAverageLatencyMillis() {
+        return mAverageLatencyMillis;
+    }
+
+    /**
+     * @return the moving average of request latency per Message returned, in milliseconds.
+     */
+    public synchronized float getAverageMillisPerMessage() {
+        return mAverageMillisPerMessage;
+    }
+
+    /**
+     * @return the moving average of the request failure rate, between 0 and 1.
+     */
+    public synchronized float getErrorRate() {
+        return mErrorRate;
+    }
+
+    public synchronized int getNumRequests() {
+        return mNumRequests;
+    }
+
+    public synchronized int getNumFailures() {
+        return mNumFailures;
+    }
+
+    public synchronized int getNumIncreases() {
+        return mNumIncreases;
+    }
+
+    public synchronized int getNumDecreases() {
+        return mNumDecreases;
+    }
+
+    /**
+     * @return a human-readable description of the most recent page size decision, or null if
+     * no requests have completed.
+     */
+    public synchronized String getLastDecision() {
+        return mLastDecision;
+    }
+}
@@ -0,0 +1,287 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.alwaysallthetime.messagebeast.db.ADNDatabase;
+import com.alwaysallthetime.messagebeast.db.OrderedMessageBatch;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A PersistedPagePrefetcher reads and decodes upcoming pages of persisted Messages on a
+ * background thread, so that MessageManager.loadPersistedMessages() can return them without
+ * touching the database.<br><br>
+ *
+ * Pages are staged by cursor: the Channel id, the display date that all Messages in the page
+ * are before (i.e. the minDate of the Channel's MinMaxPair when the page is requested), and the
+ * page size. After a page is served, up to the prefetch distance of following pages are staged.
+ * Whenever persisted Messages in a Channel are written, the Channel's staged and in-flight
+ * pages are dropped.<br><br>
+ *
+ * Hit and miss counts are kept so that the prefetch distance can be tuned.<br><br>
+ *
+ * Pages are read on a HandlerThread that is started when a page is scheduled and quit as soon as
+ * no pages are in flight, so an idle PersistedPagePrefetcher holds no thread. quit() stops it for
+ * good.
+ */
+public class PersistedPagePrefetcher implements ADNDatabase.MessageWriteListener {
+
+    private static final String TAG = "MessageBeast_PersistedPagePrefetcher";
+
+    private final ADNDatabase mDatabase;
+    private final int mDistance;
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private boolean mIsQuit;
+
+    private HashMap<String, LinkedHashMap<String, OrderedMessageBatch>> mStagedPages;
+    private HashMap<String, Set<String>> mInFlightCursors;
+    private HashMap<String, Integer> mGenerations;
+
+    private int mNumHits;
+    private int mNumMisses;
+    private int mNumDiscarded;
+
+    PersistedPagePrefetcher(ADNDatabase database, int distance) {
+        mDatabase = database;
+        mDistance = distance;
+        mStagedPages = new HashMap<String, LinkedHashMap<String, OrderedMessageBatch>>();
+        mInFlightCursors = new HashMap<String, Set<String>>();
+        mGenerations = new HashMap<String, Integer>();
+        mDatabase.addMessageWriteListener(this);
+    }
+
+    /**
+     * Take a staged page.
+     *
+     * @param channelId the Channel id
+     * @param beforeDate the date before the display date of all Messages in the page. Can be null.
+     * @param limit the page size
+     * @return the staged page, or null if it has not been prefetched.
+     */
+    synchronized OrderedMessageBatch take(String channelId, Date beforeDate, int limit) {
+        LinkedHashMap<String, OrderedMessageBatch> staged = mStagedPages.get(channelId);
+        OrderedMessageBatch batch = staged != null ? staged.remove(getCursor(beforeDate, limit)) : null;
+        if(batch != null) {
+            mNumHits++;
+        } else {
+            mNumMisses++;
+            //the caller reads this page itself; anything in flight is now behind the cursor.
+            dropChannel(channelId);
+        }
+        return batch;
+    }
+
+    /**
+     * Stage the pages that follow a page that was just served.
+     *
+     * @param channelId the Channel id
+     * @param servedPage the page that was just served
+     * @param limit the page size
+     */
+    synchronized void prefetchAfter(String channelId, OrderedMessageBatch servedPage, int limit) {
+        if(mIsQuit || servedPage.getMessages().size() < limit) {
+            //we've reached the oldest persisted Message.
+            return;
+        }
+
+        //follow the pages that are already staged.
+        Long minDate = servedPage.getMinMaxPair().minDate;
+        LinkedHashMap<String, OrderedMessageBatch> staged = mStagedPages.get(channelId);
+        int numAhead = 0;
+        while(numAhead < mDistance) {
+            OrderedMessageBatch next = staged != null ? staged.get(getCursor(minDate, limit)) : null;
+            if(next == null) {
+                break;
+            }
+            if(next.getMessages().size() < limit) {
+                return;
+            }
+            minDate = next.getMinMaxPair().minDate;
+            numAhead++;
+        }
+
+        Set<String> inFlight = mInFlightCursors.get(channelId);
+        if(numAhead < mDistance && (inFlight == null || !inFlight.contains(getCursor(minDate, limit)))) {
+            schedule(channelId, minDate, limit, mDistance - numAhead);
+        }
+    }
+
+    private void schedule(final String channelId, final Long beforeDate, final int limit, final int numPages) {
+        final String cursor = getCursor(beforeDate, limit);
+        final int generation = getGeneration(channelId);
+        Set<String> inFlight = mInFlightCursors.get(channelId);
+        if(inFlight == null) {
+            inFlight = new HashSet<String>();
+            mInFlightCursors.put(channelId, inFlight);
+        }
+        inFlight.add(cursor);
+
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(PersistedPagePrefetcher.this) {
+                    if(generation != getGeneration(channelId)) {
+                        quitThreadIfIdle();
+                        return;
+                    }
+                }
+
+                OrderedMessageBatch batch = mDatabase.getMessages(channelId, beforeDate != null ? new Date(beforeDate) : null, limit);
+
+                synchronized(PersistedPagePrefetcher.this) {
+                    if(generation != getGeneration(channelId)) {
+                        mNumDiscarded++;
+                        quitThreadIfIdle();
+                        return;
+                    }
+                    mInFlightCursors.get(channelId).remove(cursor);
+                    stage(channelId, cursor, batch);
+                    if(numPages > 1 && batch.getMessages().size() == limit) {
+                        schedule(channelId, batch.getMinMaxPair().minDate, limit, numPages - 1);
+                    } else {
+                        quitThreadIfIdle();
+                    }
+                }
+            }
+        });
+    }
+
+    private void stage(String channelId, String cursor, OrderedMessageBatch batch) {
+        LinkedHashMap<String, OrderedMessageBatch> staged = mStagedPages.get(channelId);
+        if(staged == null) {
+            staged = new LinkedHashMap<String, OrderedMessageBatch>();
+            mStagedPages.put(channelId, staged);
+        }
+        staged.put(cursor, batch);
+
+        //don't hold on to more than the distance's worth of pages per Channel.
+        Iterator<Map.Entry<String, OrderedMessageBatch>> iterator = staged.entrySet().iterator();
+        while(staged.size() > mDistance && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            mNumDiscarded++;
+        }
+    }
+
+    @Override
+    public synchronized void onMessagesWritten(String channelId, String messageId) {
+        invalidate(channelId);
+    }
+
+    /**
+     * Drop staged and in-flight pages.
+     *
+     * @param channelId the id of the Channel whose pages should be dropped, or null to drop all pages.
+     */
+    synchronized void invalidate(String channelId) {
+        if(channelId != null) {
+            dropChannel(channelId);
+        } else {
+            HashSet<String> channelIds = new HashSet<String>(mGenerations.keySet());
+            channelIds.addAll(mInFlightCursors.keySet());
+            channelIds.addAll(mStagedPages.keySet());
+            for(String id : channelIds) {
+                dropChannel(id);
+            }
+        }
+    }
+
+    private void dropChannel(String channelId) {
+        mGenerations.put(channelId, getGeneration(channelId) + 1);
+        mInFlightCursors.remove(channelId);
+        LinkedHashMap<String, OrderedMessageBatch> staged = mStagedPages.remove(channelId);
+        if(staged != null) {
+            mNumDiscarded += staged.size();
+        }
+    }
+
+    private int getGeneration(String channelId) {
+        Integer generation = mGenerations.get(channelId);
+        return generation != null ? generation : 0;
+    }
+
+    private static String getCursor(Date beforeDate, int limit) {
+        return getCursor(beforeDate != null ? beforeDate.getTime() : null, limit);
+    }
+
+    private static String getCursor(Long beforeDate, int limit) {
+        return beforeDate + "/" + limit;
+    }
+
+    private synchronized Handler getHandler() {
+        if(mHandler == null) {
+            mHandlerThread = new HandlerThread(TAG);
+            mHandlerThread.start();
+            mHandler = new Handler(mHandlerThread.getLooper());
+            Log.d(TAG, "started prefetch thread; distance = " + mDistance);
+        }
+        return mHandler;
+    }
+
+    private void quitThreadIfIdle() {
+        if(mHandlerThread == null) {
+            return;
+        }
+        for(Set<String> inFlight : mInFlightCursors.values()) {
+            if(inFlight.size() > 0) {
+                return;
+            }
+        }
+        //anything still queued belongs to a dropped generation and would be ignored anyway.
+        mHandlerThread.quit();
+        mHandlerThread = null;
+        mHandler = null;
+        Log.d(TAG, "quit prefetch thread");
+    }
+
+    /**
+     * Stop prefetching for good: drop all pages, stop listening for writes, and quit the
+     * prefetch thread. take() will miss from then on.
+     */
+    synchronized void quit() {
+        mIsQuit = true;
+        mDatabase.removeMessageWriteListener(this);
+        invalidate(null);
+        quitThreadIfIdle();
+    }
+
+    /**
+     * @return the number of pages that were served from the prefetched pages.
+     */
+    public synchronized int getNumHits() {
+        return mNumHits;
+    }
+
+    /**
+     * @return the number of pages that had to be read from the database when they were requested.
+     */
+    public synchronized int getNumMisses() {
+        return mNumMisses;
+    }
+
+    /**
+     * @return the number of prefetched pages that were thrown away without being served,
+     * because they were invalidated or evicted.
+     */
+    public synchronized int getNumDiscarded() {
+        return mNumDiscarded;
+    }
+
+    /**
+     * @return the fraction of requested pages that were served from the prefetched pages,
+     * or 0 if no pages have been requested.
+     */
+    public synchronized float getHitRate() {
+        int numRequests = mNumHits + mNumMisses;
+        return numRequests > 0 ? (float) mNumHits / numRequests : 0;
+    }
+}
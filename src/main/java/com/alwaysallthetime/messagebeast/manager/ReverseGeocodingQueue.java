@@ -0,0 +1,285 @@
+package com.alwaysallthetime.messagebeast.manager;
+
+import android.util.Log;
+
+import com.alwaysallthetime.messagebeast.db.ADNDatabase;
+import com.alwaysallthetime.messagebeast.geocoder.ReverseGeocoder;
+import com.alwaysallthetime.messagebeast.model.Geolocation;
+import com.alwaysallthetime.messagebeast.model.MessagePlus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ReverseGeocodingQueue turns coordinates into Geolocations on behalf of a MessageManager.<br><br>
+ *
+ * Requests are coalesced by rounded coordinate (the same key used by the geolocations table), so
+ * that any number of MessagePlus objects posted from the same spot cause a single geocoder call,
+ * whose result is handed to all of them. At most MAX_CONCURRENT_REQUESTS geocoder calls are in
+ * flight at once; the rest wait in FIFO order. Recent results are kept in an in-memory LRU cache,
+ * and coordinates for which the geocoder found nothing are remembered for NEGATIVE_CACHE_MILLIS
+ * so that they aren't looked up again and again.<br><br>
+ *
+ * Results that complete while the queue is dispatching requests – all of them, with a
+ * synchronous ReverseGeocoder – are persisted in one transaction and delivered to the listener
+ * together.<br><br>
+ *
+ * All access is synchronized on the queue. The listener is never called while the queue's lock
+ * is held.
+ */
+class ReverseGeocodingQueue {
+
+    private static final String TAG = "MessageBeast_ReverseGeocodingQueue";
+
+    static final int MAX_CONCURRENT_REQUESTS = 2;
+    static final int CACHE_SIZE = 256;
+    static final long NEGATIVE_CACHE_MILLIS = 60 * 60 * 1000;
+
+    interface ReverseGeocodingListener {
+        /**
+         * Called with the results of one or more requests, along with every MessagePlus that was
+         * waiting on each of them.
+         *
+         * @param geolocations the Geolocation found for each request, or null entries where none
+         *                     was found
+         * @param messagePlusses the MessagePlus objects waiting on each request
+         */
+        public void onReverseGeocoded(List<Geolocation> geolocations, List<List<MessagePlus>> messagePlusses);
+        public void onReverseGeocodeException(Exception exception, List<MessagePlus> messagePlusses);
+    }
+
+    /**
+     * Where the queue keys and persists Geolocations. MessageManager uses the ADNDatabase;
+     * tests can provide their own.
+     */
+    interface GeolocationStore {
+        public String getGeolocationKey(double latitude, double longitude);
+        public void insertOrReplaceGeolocations(Collection<Geolocation> geolocations);
+    }
+
+    /**
+     * The results collected while startNext() is dispatching. Guarded by the queue's lock.
+     */
+    private static class ResultBatch {
+        boolean isOpen = true;
+        ArrayList<Geolocation> geolocations = new ArrayList<Geolocation>();
+        ArrayList<List<MessagePlus>> messagePlusses = new ArrayList<List<MessagePlus>>();
+    }
+
+    private ReverseGeocoder mReverseGeocoder;
+    private GeolocationStore mGeolocationStore;
+    private ReverseGeocodingListener mListener;
+
+    private HashMap<String, List<MessagePlus>> mWaitingMessages;
+    private LinkedList<String> mPendingKeys;
+    private HashMap<String, double[]> mPendingCoordinates;
+    private int mNumInFlight;
+
+    private LinkedHashMap<String, Geolocation> mCache;
+    private LinkedHashMap<String, Long> mNegativeCache;
+
+    ReverseGeocodingQueue(ReverseGeocoder reverseGeocoder, final ADNDatabase database, ReverseGeocodingListener listener) {
+        this(reverseGeocoder, new GeolocationStore() {
+            @Override
+            public String getGeolocationKey(double latitude, double longitude) {
+                return database.getGeolocationKey(latitude, longitude);
+            }
+
+            @Override
+            public void insertOrReplaceGeolocations(Collection<Geolocation> geolocations) {
+                database.insertOrReplaceGeolocations(geolocations);
+            }
+        }, listener);
+    }
+
+    ReverseGeocodingQueue(ReverseGeocoder reverseGeocoder, GeolocationStore geolocationStore, ReverseGeocodingListener listener) {
+        mReverseGeocoder = reverseGeocoder;
+        mGeolocationStore = geolocationStore;
+        mListener = listener;
+        mWaitingMessages = new HashMap<String, List<MessagePlus>>();
+        mPendingKeys = new LinkedList<String>();
+        mPendingCoordinates = new HashMap<String, double[]>();
+        mCache = new LinkedHashMap<String, Geolocation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Geolocation> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        mNegativeCache = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Reverse geocode the coordinates of several MessagePlus objects, e.g. a page of Messages.
+     * The listener may be called before this method returns, if results are cached or the
+     * ReverseGeocoder answers synchronously. Cached results are delivered together, and requests
+     * are only dispatched once all of them have been queued, so that the results of a synchronous
+     * ReverseGeocoder are persisted and delivered together as well.
+     *
+     * @param messagePlusses the MessagePlus objects that need a Geolocation
+     * @param latitudes the latitude for each MessagePlus
+     * @param longitudes the longitude for each MessagePlus
+     */
+    void reverseGeocode(List<MessagePlus> messagePlusses, double[] latitudes, double[] longitudes) {
+        ArrayList<Geolocation> cachedGeolocations = new ArrayList<Geolocation>();
+        ArrayList<List<MessagePlus>> cachedMessagePlusses = new ArrayList<List<MessagePlus>>();
+        boolean hasNewRequests = false;
+
+        synchronized(this) {
+            for(int i = 0; i < messagePlusses.size(); i++) {
+                MessagePlus messagePlus = messagePlusses.get(i);
+                String key = mGeolocationStore.getGeolocationKey(latitudes[i], longitudes[i]);
+                Geolocation cached = mCache.get(key);
+                if(cached != null) {
+                    ArrayList<MessagePlus> waiting = new ArrayList<MessagePlus>(1);
+                    waiting.add(messagePlus);
+                    cachedGeolocations.add(cached);
+                    cachedMessagePlusses.add(waiting);
+                    continue;
+                }
+                if(isNegativelyCached(key) || !mReverseGeocoder.isAvailable()) {
+                    continue;
+                }
+
+                List<MessagePlus> waiting = mWaitingMessages.get(key);
+                if(waiting != null) {
+                    //a request for this spot is already queued or in flight.
+                    waiting.add(messagePlus);
+                    continue;
+                }
+                waiting = new ArrayList<MessagePlus>(1);
+                waiting.add(messagePlus);
+                mWaitingMessages.put(key, waiting);
+                mPendingKeys.add(key);
+                mPendingCoordinates.put(key, new double[] { latitudes[i], longitudes[i] });
+                hasNewRequests = true;
+            }
+        }
+
+        //the listener and the ReverseGeocoder are always called outside of our lock.
+        if(cachedGeolocations.size() > 0) {
+            mListener.onReverseGeocoded(cachedGeolocations, cachedMessagePlusses);
+        }
+        if(hasNewRequests) {
+            startNext();
+        }
+    }
+
+    private boolean isNegativelyCached(String key) {
+        Long expiration = mNegativeCache.get(key);
+        if(expiration != null) {
+            if(expiration > System.currentTimeMillis()) {
+                return true;
+            }
+            mNegativeCache.remove(key);
+        }
+        return false;
+    }
+
+    private void startNext() {
+        final ResultBatch batch = new ResultBatch();
+        while(true) {
+            final String key;
+            double[] coordinates;
+            synchronized(this) {
+                if(mNumInFlight >= MAX_CONCURRENT_REQUESTS || mPendingKeys.size() == 0) {
+                    //results that complete after this are delivered on their own.
+                    batch.isOpen = false;
+                    break;
+                }
+                key = mPendingKeys.removeFirst();
+                coordinates = mPendingCoordinates.remove(key);
+                mNumInFlight++;
+            }
+
+            mReverseGeocoder.getGeolocation(coordinates[0], coordinates[1], new ReverseGeocoder.ReverseGeocoderResponseHandler() {
+                @Override
+                public void onSuccess(Geolocation geolocation) {
+                    List<MessagePlus> waiting;
+                    boolean isBatched;
+                    synchronized(ReverseGeocodingQueue.this) {
+                        mNumInFlight--;
+                        if(geolocation != null) {
+                            mCache.put(key, geolocation);
+                        } else {
+                            mNegativeCache.put(key, System.currentTimeMillis() + NEGATIVE_CACHE_MILLIS);
+                        }
+                        waiting = mWaitingMessages.remove(key);
+                        isBatched = batch.isOpen;
+                        if(isBatched && waiting != null) {
+                            batch.geolocations.add(geolocation);
+                            batch.messagePlusses.add(waiting);
+                        }
+                    }
+
+                    if(!isBatched) {
+                        ArrayList<Geolocation> geolocations = new ArrayList<Geolocation>(1);
+                        ArrayList<List<MessagePlus>> messagePlusses = new ArrayList<List<MessagePlus>>(1);
+                        if(waiting != null) {
+                            geolocations.add(geolocation);
+                            messagePlusses.add(waiting);
+                        }
+                        deliver(geolocations, messagePlusses);
+                        startNext();
+                    }
+                }
+
+                @Override
+                public void onException(Exception exception) {
+                    Log.e(TAG, exception.getMessage(), exception);
+
+                    //failures aren't cached; the next message from this spot will try again.
+                    List<MessagePlus> waiting;
+                    boolean isBatched;
+                    synchronized(ReverseGeocodingQueue.this) {
+                        mNumInFlight--;
+                        waiting = mWaitingMessages.remove(key);
+                        isBatched = batch.isOpen;
+                    }
+                    if(waiting != null) {
+                        mListener.onReverseGeocodeException(exception, waiting);
+                    }
+                    if(!isBatched) {
+                        startNext();
+                    }
+                }
+            });
+        }
+
+        deliver(batch.geolocations, batch.messagePlusses);
+    }
+
+    private void deliver(List<Geolocation> geolocations, List<List<MessagePlus>> messagePlusses) {
+        if(geolocations.size() == 0) {
+            return;
+        }
+        ArrayList<Geolocation> found = new ArrayList<Geolocation>(geolocations.size());
+        for(Geolocation geolocation : geolocations) {
+            if(geolocation != null) {
+                found.add(geolocation);
+            }
+        }
+        if(found.size() > 0) {
+            mGeolocationStore.insertOrReplaceGeolocations(found);
+        }
+        mListener.onReverseGeocoded(geolocations, messagePlusses);
+    }
+
+    /**
+     * Forget all cached results, positive and negative. Called when the MessageManager is cleared.
+     * Requests that are queued or in flight are not affected.
+     */
+    synchronized void clearCache() {
+        mCache.clear();
+        mNegativeCache.clear();
+    }
+}
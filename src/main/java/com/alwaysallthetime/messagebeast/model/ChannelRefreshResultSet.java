@@ -2,11 +2,14 @@ package com.alwaysallthetime.messagebeast.model;
 
 import com.alwaysallthetime.adnlib.data.Channel;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * A ChannelRefreshResultSet contains ChannelRefreshResults for multiple Channels.
+ * Results are kept in the order in which they were added.
  */
 public class ChannelRefreshResultSet {
 
@@ -16,7 +19,7 @@ public class ChannelRefreshResultSet {
      * Construct an empty ChannelRefreshResult.
      */
     public ChannelRefreshResultSet() {
-        mResults = new HashMap<String, ChannelRefreshResult>();
+        mResults = new LinkedHashMap<String, ChannelRefreshResult>();
     }
 
     /**
@@ -39,4 +42,13 @@ public class ChannelRefreshResultSet {
     public ChannelRefreshResult getChannelRefreshResult(String channelId) {
         return mResults.get(channelId);
     }
+
+    /**
+     * Get all ChannelRefreshResults in this set, in the order in which they were added.
+     *
+     * @return a List of ChannelRefreshResults
+     */
+    public List<ChannelRefreshResult> getChannelRefreshResults() {
+        return new ArrayList<ChannelRefreshResult>(mResults.values());
+    }
 }
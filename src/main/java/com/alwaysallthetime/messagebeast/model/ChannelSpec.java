@@ -10,6 +10,8 @@ public class ChannelSpec {
     private MessageFilter mFilter;
     private String mType;
     private QueryParameters mQueryParameters;
+    private int mMinPageSize;
+    private int mMaxPageSize;
 
     /**
      * Construct a new ChannelSpec.
@@ -62,4 +64,39 @@ public class ChannelSpec {
     public QueryParameters getQueryParameters() {
         return mQueryParameters;
     }
+
+    /**
+     * Set the bounds within which adaptive page sizing may choose a count for this Channel.
+     * These are only used if adaptive page sizing is enabled on the MessageManagerConfiguration.
+     *
+     * @param minPageSize the smallest count to request
+     * @param maxPageSize the largest count to request
+     *
+     * @see com.alwaysallthetime.messagebeast.manager.MessageManager.MessageManagerConfiguration#setAdaptivePageSizingEnabled(boolean)
+     */
+    public void setPageSizeBounds(int minPageSize, int maxPageSize) {
+        mMinPageSize = minPageSize;
+        mMaxPageSize = maxPageSize;
+    }
+
+    /**
+     * @return true if page size bounds were set on this ChannelSpec, false otherwise.
+     */
+    public boolean hasPageSizeBounds() {
+        return mMaxPageSize > 0;
+    }
+
+    /**
+     * @return the smallest count adaptive page sizing may request for this Channel.
+     */
+    public int getMinPageSize() {
+        return mMinPageSize;
+    }
+
+    /**
+     * @return the largest count adaptive page sizing may request for this Channel.
+     */
+    public int getMaxPageSize() {
+        return mMaxPageSize;
+    }
 }